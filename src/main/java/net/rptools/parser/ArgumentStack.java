@@ -0,0 +1,140 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import net.rptools.parser.function.Function;
+
+/**
+ * The arguments of the function calls in progress on one thread, kept in a single array that is
+ * reused from one evaluation to the next.
+ *
+ * <p>Each call reserves a frame on top of the stack, fills it with its evaluated arguments and
+ * hands the function a {@link java.util.List} view of it. The views are reused too, one per nesting
+ * depth, so they are only given to functions that do not keep their parameter list after they
+ * return; other functions get a copy. Views allow {@link java.util.List#set} but not changes in
+ * size.
+ *
+ * @see Function#isBorrowingParameters()
+ */
+final class ArgumentStack {
+  private static final int INITIAL_CAPACITY = 32;
+  private static final ThreadLocal<ArgumentStack> STACKS =
+      ThreadLocal.withInitial(ArgumentStack::new);
+
+  private Object[] values = new Object[INITIAL_CAPACITY];
+  private Frame[] frames = new Frame[8];
+  private int top;
+  private int depth;
+
+  /** @return the stack of the current thread */
+  static ArgumentStack get() {
+    return STACKS.get();
+  }
+
+  /**
+   * Reserves room for the arguments of a call.
+   *
+   * @param count the number of arguments
+   * @return the position of the first argument, to pass to {@link #release(int)} when the call is
+   *     over
+   */
+  int reserve(int count) {
+    int base = top;
+    if (base + count > values.length)
+      values = Arrays.copyOf(values, Math.max(values.length * 2, base + count));
+    top = base + count;
+    depth++;
+    return base;
+  }
+
+  void set(int index, Object value) {
+    values[index] = value;
+  }
+
+  Object get(int index) {
+    return values[index];
+  }
+
+  /**
+   * @param base the position returned by {@link #reserve(int)}
+   * @param count the number of arguments reserved
+   * @return a list view of the arguments of the innermost call
+   */
+  Frame frame(int base, int count) {
+    if (depth > frames.length) frames = Arrays.copyOf(frames, frames.length * 2);
+    Frame frame = frames[depth - 1];
+    if (frame == null) {
+      frame = new Frame();
+      frames[depth - 1] = frame;
+    }
+    frame.base = base;
+    frame.size = count;
+    return frame;
+  }
+
+  /**
+   * @param function the function called
+   * @param base the position returned by {@link #reserve(int)}
+   * @param count the number of arguments reserved
+   * @return the parameter list to pass to <code>function</code>: a view of the arguments of the
+   *     innermost call if it only borrows it, else a copy of them
+   */
+  List<Object> parameters(Function function, int base, int count) {
+    Frame frame = frame(base, count);
+    return Function.canBorrowParameters(function) ? frame : new ArrayList<>(frame);
+  }
+
+  /** Drops the arguments of the innermost call, which started at <code>base</code>. */
+  void release(int base) {
+    Arrays.fill(values, base, top, null);
+    top = base;
+    depth--;
+  }
+
+  /** @return the number of calls in progress */
+  int getDepth() {
+    return depth;
+  }
+
+  final class Frame extends AbstractList<Object> implements RandomAccess {
+    private int base;
+    private int size;
+
+    @Override
+    public Object get(int index) {
+      if (index < 0 || index >= size)
+        throw new IndexOutOfBoundsException(
+            String.format("Index %d out of bounds for length %d", index, size));
+      return values[base + index];
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+      Object previous = get(index);
+      values[base + index] = element;
+      return previous;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
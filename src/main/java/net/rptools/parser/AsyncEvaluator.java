@@ -0,0 +1,176 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import static net.rptools.parser.ExpressionParserTokenTypes.FUNCTION;
+import static net.rptools.parser.ExpressionParserTokenTypes.OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.PROMPTVARIABLE;
+import static net.rptools.parser.ExpressionParserTokenTypes.UNARY_OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.VARIABLE;
+
+import antlr.collections.AST;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import net.rptools.parser.function.AsyncFunction;
+import net.rptools.parser.function.BinaryNumberFunction;
+import net.rptools.parser.function.EvaluationException;
+import net.rptools.parser.function.Function;
+import net.rptools.parser.function.UnaryNumberFunction;
+
+/**
+ * Evaluates a tree without blocking, chaining on the futures of {@link AsyncVariableResolver} and
+ * {@link AsyncFunction}. The arguments of a call are evaluated concurrently unless one of them may
+ * assign variables, in which case they are evaluated one after another, in order, as the
+ * synchronous evaluator would.
+ */
+final class AsyncEvaluator {
+  private final Parser parser;
+
+  /** The nodes whose subtree contains an assignment or <code>eval</code>. */
+  private final Set<AST> writers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  AsyncEvaluator(Parser parser, AST tree) {
+    this.parser = parser;
+    findWriters(tree);
+  }
+
+  private boolean findWriters(AST node) {
+    boolean writes = false;
+    for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling())
+      writes |= findWriters(child);
+
+    if (isCall(node)) {
+      Function function = parser.getFunction(node.getText());
+      if (function != null && ExpressionDag.mayAssignVariables(function)) writes = true;
+    }
+    if (writes) writers.add(node);
+    return writes;
+  }
+
+  CompletableFuture<Object> evaluate(AST node, AsyncVariableResolver resolver) {
+    try {
+      switch (node.getType()) {
+        case VARIABLE:
+          return lookup(resolver, node.getText(), VariableModifiers.None);
+        case PROMPTVARIABLE:
+          return lookup(resolver, node.getText(), VariableModifiers.Prompt);
+        case UNARY_OPERATOR:
+          return call(node, resolver, ErrorCode.UNDEFINED_UNARY_FUNCTION);
+        case OPERATOR:
+        case FUNCTION:
+          return call(node, resolver, ErrorCode.UNDEFINED_FUNCTION);
+        default:
+          return CompletableFuture.completedFuture(
+              parser.getEvaluationTreeParser().evaluate(node, resolver));
+      }
+    } catch (ParserException | RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private static CompletableFuture<Object> lookup(
+      AsyncVariableResolver resolver, String name, VariableModifiers modifiers) {
+    return resolver
+        .lookupVariableAsync(name, modifiers)
+        .thenApply(
+            value -> {
+              if (value == VariableResolver.UNDEFINED)
+                throw new CompletionException(
+                    new EvaluationException(ErrorCode.UNDEFINED_VARIABLE, name));
+              return value;
+            });
+  }
+
+  private CompletableFuture<Object> call(
+      AST node, AsyncVariableResolver resolver, ErrorCode undefined) {
+    Object[] args = new Object[node.getNumberOfChildren()];
+
+    boolean sequential = false;
+    if (args.length > 1) {
+      for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        sequential |= writers.contains(child);
+    }
+
+    CompletableFuture<Void> done;
+    if (sequential) {
+      done = CompletableFuture.completedFuture(null);
+      int i = 0;
+      for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+        AST arg = child;
+        int index = i++;
+        done =
+            done.thenCompose(ignored -> evaluate(arg, resolver)).thenAccept(v -> args[index] = v);
+      }
+    } else {
+      CompletableFuture<?>[] futures = new CompletableFuture<?>[args.length];
+      int i = 0;
+      for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+        int index = i++;
+        futures[index] = evaluate(child, resolver).thenAccept(v -> args[index] = v);
+      }
+      done = CompletableFuture.allOf(futures);
+    }
+    return done.thenCompose(ignored -> apply(node, resolver, args, undefined));
+  }
+
+  private CompletableFuture<Object> apply(
+      AST node, AsyncVariableResolver resolver, Object[] args, ErrorCode undefined) {
+    String name = node.getText();
+    Function function = parser.getFunction(name);
+    try {
+      if (args.length == 1
+          && UnaryNumberFunction.isApplicable(function)
+          && args[0] instanceof BigDecimal) {
+        return CompletableFuture.completedFuture(
+            ((UnaryNumberFunction) function).apply((BigDecimal) args[0]));
+      } else if (args.length == 2
+          && BinaryNumberFunction.isApplicable(function)
+          && args[0] instanceof BigDecimal
+          && args[1] instanceof BigDecimal) {
+        return CompletableFuture.completedFuture(
+            ((BinaryNumberFunction) function).apply((BigDecimal) args[0], (BigDecimal) args[1]));
+      }
+
+      if (function == null) {
+        throw new EvaluationException(undefined, name);
+      }
+      // the arguments outlive this call, so they need a list of their own
+      ArrayList<Object> parameters = new ArrayList<>(Arrays.asList(args));
+      if (function instanceof AsyncFunction)
+        return ((AsyncFunction) function).evaluateAsync(parser, resolver, name, parameters);
+      return CompletableFuture.completedFuture(
+          function.evaluate(parser, resolver, name, parameters));
+    } catch (ParserException | RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private static boolean isCall(AST node) {
+    switch (node.getType()) {
+      case UNARY_OPERATOR:
+      case OPERATOR:
+      case FUNCTION:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
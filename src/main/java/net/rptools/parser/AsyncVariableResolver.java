@@ -0,0 +1,41 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A resolver that can read variables without blocking, for {@link
+ * Expression#evaluateAsync(AsyncVariableResolver)}. Writes, and reads made by functions through the
+ * synchronous methods, still go through {@link VariableResolver}.
+ */
+public interface AsyncVariableResolver extends VariableResolver {
+  /**
+   * Looks up a variable without blocking the calling thread. By default this looks it up
+   * synchronously, with {@link #lookupVariable(String, VariableModifiers)}.
+   *
+   * @param name the name of the variable
+   * @param vType the modifiers of the variable
+   * @return the value of the variable, or {@link #UNDEFINED} if it is not defined
+   */
+  public default CompletableFuture<Object> lookupVariableAsync(
+      String name, VariableModifiers vType) {
+    try {
+      return CompletableFuture.completedFuture(lookupVariable(name, vType));
+    } catch (ParserException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+}
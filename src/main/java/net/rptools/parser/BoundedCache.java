@@ -0,0 +1,102 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map of computed values holding at most a fixed number of entries, which counts how often values
+ * are found. It is safe to share between threads.
+ *
+ * @param <K> the type of the keys, which must not change once used
+ * @param <V> the type of the values
+ */
+public class BoundedCache<K, V> {
+  /** Which entry is removed to make room for a new one. */
+  public enum EvictionPolicy {
+    /** Remove the entry that was used least recently. */
+    LEAST_RECENTLY_USED,
+    /** Remove the entry that was added first. */
+    FIRST_IN_FIRST_OUT
+  }
+
+  private final int maximumSize;
+  private final EvictionPolicy policy;
+  private final Map<K, V> entries;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  public BoundedCache(int maximumSize) {
+    this(maximumSize, EvictionPolicy.LEAST_RECENTLY_USED);
+  }
+
+  public BoundedCache(int maximumSize, EvictionPolicy policy) {
+    if (maximumSize < 1) throw new IllegalArgumentException("Maximum size must be positive");
+    this.maximumSize = maximumSize;
+    this.policy = policy;
+    this.entries =
+        new LinkedHashMap<K, V>(16, 0.75f, policy == EvictionPolicy.LEAST_RECENTLY_USED) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() <= BoundedCache.this.maximumSize) return false;
+            evictions++;
+            return true;
+          }
+        };
+  }
+
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  public EvictionPolicy getEvictionPolicy() {
+    return policy;
+  }
+
+  /** @return the value stored for <code>key</code>, or null if there is none */
+  public synchronized V get(K key) {
+    V value = entries.get(key);
+    if (value == null) misses++;
+    else hits++;
+    return value;
+  }
+
+  /**
+   * Stores a value, removing another entry if the cache is full. Null values are not stored.
+   *
+   * @param key the key
+   * @param value the value
+   */
+  public synchronized void put(K key, V value) {
+    if (value != null) entries.put(key, value);
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Removes every entry, keeping the statistics. */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /** @return the number of lookups, hits and evictions so far */
+  public synchronized CacheStatistics getStatistics() {
+    return new CacheStatistics(hits, misses, evictions, entries.size());
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+/** How well a {@link BoundedCache} has done, at one point in time. */
+public final class CacheStatistics {
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final int size;
+
+  public CacheStatistics(long hitCount, long missCount, long evictionCount, int size) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.size = size;
+  }
+
+  /** @return the number of lookups that found a value */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /** @return the number of lookups that found nothing */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getRequestCount() {
+    return hitCount + missCount;
+  }
+
+  /** @return the share of lookups that found a value, or 0 if there were none */
+  public double getHitRate() {
+    long requests = getRequestCount();
+    return requests == 0 ? 0 : (double) hitCount / requests;
+  }
+
+  /** @return the number of entries removed to make room for new ones */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /** @return the number of entries held */
+  public int getSize() {
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "hits=%d, misses=%d, hitRate=%.3f, evictions=%d, size=%d",
+        hitCount, missCount, getHitRate(), evictionCount, size);
+  }
+}
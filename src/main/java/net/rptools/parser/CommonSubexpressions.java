@@ -0,0 +1,91 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import antlr.collections.AST;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds function calls that occur more than once with structurally identical, deterministic
+ * arguments, so that the evaluator can compute each of them only once per evaluation. The calls are
+ * the ones merged into a single node of the {@link ExpressionDag} built from the same trees.
+ *
+ * <p>Expressions only use the analysis when {@link
+ * EvaluationTreeParser#setSharingSubexpressions(boolean)} is turned on, since it relies on
+ * deterministic functions having no side effects.
+ */
+final class CommonSubexpressions {
+  static final CommonSubexpressions NONE = new CommonSubexpressions(new IdentityHashMap<>(), 0);
+
+  private final IdentityHashMap<AST, Integer> slots;
+  private final int slotCount;
+
+  private CommonSubexpressions(IdentityHashMap<AST, Integer> slots, int slotCount) {
+    this.slots = slots;
+    this.slotCount = slotCount;
+  }
+
+  /**
+   * Analyzes trees that are evaluated one after another against the same resolver.
+   *
+   * @param parser the parser providing the functions
+   * @param roots the trees, in evaluation order
+   * @return the shared subexpressions, or {@link #NONE}
+   */
+  static CommonSubexpressions analyze(Parser parser, List<AST> roots) {
+    ExpressionDag dag = ExpressionDag.build(parser, roots);
+
+    IdentityHashMap<AST, Integer> slots = new IdentityHashMap<>();
+    Map<Integer, Integer> slotByNode = new HashMap<>();
+    for (AST root : roots) collect(dag, root, slots, slotByNode);
+
+    return slots.isEmpty() ? NONE : new CommonSubexpressions(slots, slotByNode.size());
+  }
+
+  private static void collect(
+      ExpressionDag dag,
+      AST tree,
+      IdentityHashMap<AST, Integer> slots,
+      Map<Integer, Integer> slotByNode) {
+    int node = dag.nodeOf(tree);
+    if (node >= 0 && dag.isCall(node) && dag.getOccurrences(node) > 1) {
+      Integer slot = slotByNode.get(node);
+      if (slot == null) {
+        slot = slotByNode.size();
+        slotByNode.put(node, slot);
+      }
+      slots.put(tree, slot);
+    }
+    for (AST child = tree.getFirstChild(); child != null; child = child.getNextSibling())
+      collect(dag, child, slots, slotByNode);
+  }
+
+  boolean isEmpty() {
+    return slotCount == 0;
+  }
+
+  int getSlotCount() {
+    return slotCount;
+  }
+
+  /** @return the slot holding the shared value of <code>node</code>, or -1 if it is not shared */
+  int slotOf(AST node) {
+    Integer slot = slots.get(node);
+    return slot == null ? -1 : slot;
+  }
+}
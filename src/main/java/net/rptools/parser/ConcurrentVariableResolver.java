@@ -0,0 +1,109 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A resolver that threads can share without locking. Reads never block, writes to different
+ * variables rarely contend, and {@link #compareAndSetVariable} and {@link #updateVariable} are
+ * atomic, so that expressions can keep shared counters with the <code>compareAndSet</code> and
+ * <code>addAndGet</code> functions added by {@link Parser#addAtomicFunctions()}. Names ignore case.
+ */
+public class ConcurrentVariableResolver implements VariableResolver {
+  /** A variable, keyed by its normalized name. Compared by identity when it is replaced. */
+  private static final class Binding {
+    private final String name;
+    private final Object value;
+
+    Binding(String name, Object value) {
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  private final ConcurrentHashMap<String, Binding> variables = new ConcurrentHashMap<>();
+
+  public boolean containsVariable(String name) throws ParserException {
+    return containsVariable(name, VariableModifiers.None);
+  }
+
+  public void setVariable(String name, Object value) throws ParserException {
+    setVariable(name, VariableModifiers.None, value);
+  }
+
+  public Object getVariable(String variableName) throws ParserException {
+    return getVariable(variableName, VariableModifiers.None);
+  }
+
+  public boolean containsVariable(String name, VariableModifiers vType) throws ParserException {
+    return variables.containsKey(ExpressionDag.normalize(name));
+  }
+
+  public void setVariable(String name, VariableModifiers vType, Object value)
+      throws ParserException {
+    variables.put(ExpressionDag.normalize(name), new Binding(name, value));
+  }
+
+  public Object getVariable(String variableName, VariableModifiers vType) throws ParserException {
+    Binding binding = variables.get(ExpressionDag.normalize(variableName));
+    return binding == null ? null : binding.value;
+  }
+
+  @Override
+  public Object lookupVariable(String name, VariableModifiers vType) {
+    Binding binding = variables.get(ExpressionDag.normalize(name));
+    return binding == null ? UNDEFINED : binding.value;
+  }
+
+  @Override
+  public boolean compareAndSetVariable(String name, Object expected, Object value) {
+    String key = ExpressionDag.normalize(name);
+    Binding replacement = new Binding(name, value);
+    while (true) {
+      Binding current = variables.get(key);
+      if (current == null) {
+        if (expected != UNDEFINED) return false;
+        if (variables.putIfAbsent(key, replacement) == null) return true;
+      } else {
+        if (!ValueType.sameValue(current.value, expected)) return false;
+        if (variables.replace(key, current, replacement)) return true;
+      }
+    }
+  }
+
+  @Override
+  public Object updateVariable(String name, VariableUpdate update) throws ParserException {
+    String key = ExpressionDag.normalize(name);
+    while (true) {
+      Binding current = variables.get(key);
+      Object value = update.apply(current == null ? UNDEFINED : current.value);
+      Binding replacement = new Binding(name, value);
+      if (current == null
+          ? variables.putIfAbsent(key, replacement) == null
+          : variables.replace(key, current, replacement)) return value;
+    }
+  }
+
+  @Override
+  public Set<String> getVariables() {
+    Set<String> names = new HashSet<>();
+    for (Binding binding : variables.values()) names.add(binding.name);
+    return Collections.unmodifiableSet(names);
+  }
+}
@@ -28,10 +28,16 @@ import static net.rptools.parser.ExpressionParserTokenTypes.VARIABLE;
 
 import antlr.collections.AST;
 import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.rptools.parser.function.EvaluationException;
 import net.rptools.parser.function.Function;
+import net.rptools.parser.function.impl.Assignment;
 
 public class DeterministicTreeParser {
   private static final Logger log = Logger.getLogger(EvaluationTreeParser.class.getName());
@@ -59,10 +65,10 @@ public class DeterministicTreeParser {
       case VARIABLE:
         {
           String name = node.getText();
-          if (!resolver.containsVariable(name, VariableModifiers.None)) {
-            throw new EvaluationException(String.format("Undefined variable: %s", name));
+          Object value = resolver.lookupVariable(name, VariableModifiers.None);
+          if (value == VariableResolver.UNDEFINED) {
+            throw new EvaluationException(ErrorCode.UNDEFINED_VARIABLE, name);
           }
-          Object value = resolver.getVariable(node.getText(), VariableModifiers.None);
 
           if (log.isLoggable(Level.FINEST))
             log.finest(String.format("VARIABLE: name=%s, value=%s\n", node.getText(), value));
@@ -75,10 +81,10 @@ public class DeterministicTreeParser {
       case PROMPTVARIABLE:
         {
           String name = node.getText();
-          if (!resolver.containsVariable(name, VariableModifiers.None)) {
-            throw new EvaluationException(String.format("Undefined variable: %s", name));
+          Object value = resolver.lookupVariable(name, VariableModifiers.None);
+          if (value == VariableResolver.UNDEFINED) {
+            throw new EvaluationException(ErrorCode.UNDEFINED_VARIABLE, name);
           }
-          Object value = resolver.getVariable(node.getText(), VariableModifiers.None);
 
           if (log.isLoggable(Level.FINEST))
             log.finest(String.format("VARIABLE: name=%s, value=%s\n", node.getText(), value));
@@ -95,7 +101,7 @@ public class DeterministicTreeParser {
           String name = node.getText();
           Function function = parser.getFunction(node.getText());
           if (function == null) {
-            throw new EvaluationException(String.format("Undefined function: %s", name));
+            throw new EvaluationException(ErrorCode.UNDEFINED_FUNCTION, name);
           }
 
           if (!function.isDeterministic()) {
@@ -112,11 +118,26 @@ public class DeterministicTreeParser {
           }
         }
       default:
-        throw new EvaluationException(
-            String.format("Unknown node type: name=%s, type=%d", node.getText(), node.getType()));
+        throw new EvaluationException(ErrorCode.UNKNOWN_NODE_TYPE, node.getText(), node.getType());
     }
   }
 
+  /**
+   * Replaces the variables <code>known</code> defines with their values, then folds every
+   * deterministic call whose arguments are all constants into its result. Variables that may have
+   * changed earlier in the tree, by an assignment, a prompt or a call that is not deterministic,
+   * are left alone, as are values that cannot be written as a number or string literal, and calls
+   * that fail, so that they fail when the tree is evaluated.
+   *
+   * @param node the root of the tree, which is modified in place
+   * @param known the variables to substitute
+   * @return the new root of the tree
+   * @throws ParserException if <code>known</code> fails
+   */
+  public AST specialize(AST node, VariableResolver known) throws ParserException {
+    return new Specializer(known).visit(node);
+  }
+
   private AST createNode(Object value) {
     AST newNode = xParser.getASTFactory().create();
 
@@ -130,4 +151,119 @@ public class DeterministicTreeParser {
 
     return newNode;
   }
+
+  private final class Specializer {
+    private final VariableResolver known;
+    private final Set<String> assigned = new HashSet<>();
+    private boolean anyAssigned;
+
+    Specializer(VariableResolver known) {
+      this.known = known;
+    }
+
+    AST visit(AST node) throws ParserException {
+      switch (node.getType()) {
+        case VARIABLE:
+          {
+            String name = node.getText();
+            if (anyAssigned || assigned.contains(ExpressionDag.normalize(name))) return node;
+            Object value = known.lookupVariable(name, VariableModifiers.None);
+            if (value == VariableResolver.UNDEFINED) return node;
+
+            AST literal = createLiteral(value);
+            return literal == null ? node : literal;
+          }
+        case PROMPTVARIABLE:
+          // the answer to the prompt is what later reads see
+          assigned.add(ExpressionDag.normalize(node.getText()));
+          return node;
+        case UNARY_OPERATOR:
+        case OPERATOR:
+        case FUNCTION:
+          {
+            List<AST> children = new ArrayList<>(node.getNumberOfChildren());
+            List<Object> values = new ArrayList<>(node.getNumberOfChildren());
+            boolean constant = true;
+            for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+              AST newChild = visit(child);
+              children.add(newChild);
+              if (constant) {
+                Object value = literalValue(newChild);
+                if (value == null) constant = false;
+                else values.add(value);
+              }
+            }
+            for (int i = 0; i < children.size(); i++)
+              children.get(i).setNextSibling(i + 1 < children.size() ? children.get(i + 1) : null);
+            node.setFirstChild(children.isEmpty() ? null : children.get(0));
+
+            String name = node.getText();
+            Function function = parser.getFunction(name);
+            if (function == null) return node;
+            if (ExpressionDag.mayAssignVariables(function)) {
+              String target =
+                  function instanceof Assignment ? ExpressionDag.assignmentTarget(node) : null;
+              if (target == null) anyAssigned = true;
+              else assigned.add(target);
+              return node;
+            }
+            if (!function.isDeterministic()) {
+              // it may change any variable, as far as later reads can tell
+              anyAssigned = true;
+              return node;
+            }
+            if (!constant) return node;
+
+            try {
+              AST literal = createLiteral(function.evaluate(parser, known, name, values));
+              return literal == null ? node : literal;
+            } catch (ParserException | RuntimeException e) {
+              // leave the call to fail when the expression is evaluated
+              if (log.isLoggable(Level.FINEST))
+                log.finest(String.format("Not folding %s: %s\n", name, e.getMessage()));
+              return node;
+            }
+          }
+        default:
+          return node;
+      }
+    }
+
+    private Object literalValue(AST node) {
+      switch (node.getType()) {
+        case NUMBER:
+          return new BigDecimal(node.getText());
+        case HEXNUMBER:
+          return new BigDecimal(new BigInteger(node.getText().substring(2), 16));
+        case STRING:
+          return EvaluationTreeParser.stripQuotes(node.getText());
+        case TRUE:
+          return BigDecimal.ONE;
+        case FALSE:
+          return BigDecimal.ZERO;
+        default:
+          return null;
+      }
+    }
+
+    private AST createLiteral(Object value) {
+      AST newNode;
+      if (value instanceof BigDecimal) {
+        newNode = xParser.getASTFactory().create();
+        newNode.setType(NUMBER);
+        newNode.setText(value.toString());
+      } else if (value instanceof String) {
+        // string literals have no escapes, so the value must not contain the quote around it
+        String text = (String) value;
+        char quote = text.indexOf('"') < 0 ? '"' : '\'';
+        if (text.indexOf(quote) >= 0) return null;
+        newNode = xParser.getASTFactory().create();
+        newNode.setType(STRING);
+        newNode.setText(quote + text + quote);
+      } else {
+        newNode = null;
+      }
+      return newNode;
+    }
+  }
 }
@@ -0,0 +1,52 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+/**
+ * Identifies the common kinds of {@link ParserException}, so that callers can tell them apart
+ * without looking at the message. The message of each is built from its template only when it is
+ * asked for.
+ */
+public enum ErrorCode {
+  /** An error that has no code of its own; only its message says what went wrong. */
+  GENERAL(null),
+  UNDEFINED_VARIABLE("Undefined variable: %s"),
+  UNDEFINED_FUNCTION("Undefined function: %s"),
+  UNDEFINED_UNARY_FUNCTION("Undefined unary function: %s"),
+  UNKNOWN_NODE_TYPE("Unknown node type: name=%s, type=%d"),
+  WRONG_PARAMETER_COUNT("Function '%s' requires exactly %d parameters; %d were provided."),
+  NOT_ENOUGH_PARAMETERS("Function '%s' requires at least %d parameters; %d were provided."),
+  TOO_MANY_PARAMETERS("Function '%s' requires no more than %d parameters; %d were provided."),
+  ILLEGAL_ARGUMENT_TYPE("Illegal argument type %s, expecting %s"),
+  INVALID_EXPRESSION("Unable to evaluate expression %s"),
+  WRITE_CONFLICT("Variable %s was changed by another evaluation"),
+  COMMITTED_SNAPSHOT("Snapshot of version %d has already been committed"),
+  READ_ONLY_VARIABLE("Variable %s cannot be assigned");
+
+  private final String template;
+
+  private ErrorCode(String template) {
+    this.template = template;
+  }
+
+  /** @return the message format, or null for {@link #GENERAL} */
+  public String getTemplate() {
+    return template;
+  }
+
+  String format(Object... arguments) {
+    return template == null ? null : String.format(template, arguments);
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import antlr.collections.AST;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.rptools.parser.function.Function;
+
+/** State belonging to a single evaluation by the {@link EvaluationTreeParser}. */
+final class EvaluationContext {
+  private final CommonSubexpressions subexpressions;
+  private final Map<AST, Function> specializations;
+  private final Object[] sharedValues;
+  private final boolean[] computed;
+
+  /** The values of the variables read so far, by name as written, or null if not remembered. */
+  private final Map<String, Object> variables;
+
+  EvaluationContext(
+      CommonSubexpressions subexpressions,
+      Map<AST, Function> specializations,
+      boolean resolveVariablesOnce) {
+    this.subexpressions = subexpressions;
+    this.specializations = specializations;
+    this.sharedValues = new Object[subexpressions.getSlotCount()];
+    this.computed = new boolean[subexpressions.getSlotCount()];
+    this.variables = resolveVariablesOnce ? new HashMap<>() : null;
+  }
+
+  /** @return the function chosen for <code>node</code> from its argument types, or null */
+  Function functionOf(AST node) {
+    return specializations.get(node);
+  }
+
+  int slotOf(AST node) {
+    return subexpressions.slotOf(node);
+  }
+
+  boolean isComputed(int slot) {
+    return computed[slot];
+  }
+
+  Object getSharedValue(int slot) {
+    return sharedValues[slot];
+  }
+
+  void setSharedValue(int slot, Object value) {
+    sharedValues[slot] = value;
+    computed[slot] = true;
+  }
+
+  boolean isResolvingVariablesOnce() {
+    return variables != null;
+  }
+
+  /**
+   * Reads a variable, from the resolver only the first time this evaluation reads it.
+   *
+   * @return the value, or {@link VariableResolver#UNDEFINED}
+   */
+  Object lookupVariable(VariableResolver resolver, String name) throws ParserException {
+    if (variables == null) return resolver.lookupVariable(name, VariableModifiers.None);
+
+    Object value = variables.get(name);
+    if (value == null && !variables.containsKey(name)) {
+      value = resolver.lookupVariable(name, VariableModifiers.None);
+      // undefined variables stop the evaluation, so there is no point remembering them
+      if (value != VariableResolver.UNDEFINED) variables.put(name, value);
+    }
+    return value;
+  }
+
+  /**
+   * Remembers values already read from the resolver, when resolving variables once.
+   *
+   * @param names the variables, by name as written
+   * @param values their values, in the same order
+   */
+  void rememberVariables(Collection<String> names, List<Object> values) {
+    Iterator<Object> value = values.iterator();
+    for (String name : names) variables.put(name, value.next());
+  }
+
+  /**
+   * Forgets the values read of a variable that may have changed.
+   *
+   * @param name the normalized name of the variable, or null to forget every variable
+   */
+  void forgetVariable(String name) {
+    if (name == null) {
+      variables.clear();
+      return;
+    }
+    for (Iterator<String> i = variables.keySet().iterator(); i.hasNext(); )
+      if (ExpressionDag.normalize(i.next()).equals(name)) i.remove();
+  }
+}
@@ -29,25 +29,81 @@ import static net.rptools.parser.ExpressionParserTokenTypes.VARIABLE;
 import antlr.collections.AST;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import net.rptools.parser.function.BinaryNumberFunction;
 import net.rptools.parser.function.EvaluationException;
 import net.rptools.parser.function.Function;
+import net.rptools.parser.function.UnaryNumberFunction;
+import net.rptools.parser.function.impl.Assignment;
 
 public class EvaluationTreeParser {
   private static final Logger log = Logger.getLogger(EvaluationTreeParser.class.getName());
 
   private final Parser parser;
 
+  private volatile boolean resolveVariablesOnce;
+
+  private volatile boolean shareSubexpressions;
+
   public EvaluationTreeParser(Parser parser) {
     this.parser = parser;
   }
 
+  public boolean isResolvingVariablesOnce() {
+    return resolveVariablesOnce;
+  }
+
+  /**
+   * Sets whether each evaluation reads every variable from the resolver only once, however often
+   * the expression uses it. A variable is read again after an assignment to it, and every variable
+   * is read again after <code>eval</code>, an assignment to a computed name or a call to a function
+   * that is not deterministic, since those may change variables the tree does not name. Prompt
+   * variables are always read.
+   *
+   * @param resolveVariablesOnce true to remember the variables read during an evaluation
+   */
+  public void setResolvingVariablesOnce(boolean resolveVariablesOnce) {
+    this.resolveVariablesOnce = resolveVariablesOnce;
+  }
+
+  public boolean isSharingSubexpressions() {
+    return shareSubexpressions;
+  }
+
+  /**
+   * Sets whether {@link Expression#evaluate(VariableResolver)} evaluates calls that occur more than
+   * once in an expression with identical arguments only once per evaluation. Only calls to
+   * deterministic functions are shared, so this must only be turned on when every deterministic
+   * function is also free of side effects: one that logs, performs I/O or sets variables through
+   * the resolver would run fewer times than it appears.
+   *
+   * @param shareSubexpressions true to evaluate repeated subexpressions once
+   */
+  public void setSharingSubexpressions(boolean shareSubexpressions) {
+    this.shareSubexpressions = shareSubexpressions;
+  }
+
   public Object evaluate(AST node, VariableResolver resolver) throws ParserException {
-    AST child;
+    return evaluate(node, resolver, null);
+  }
+
+  /**
+   * Evaluates a tree, reusing the values of shared subexpressions recorded in <code>context</code>.
+   *
+   * @param context the state of this evaluation, or <code>null</code> if there is none
+   */
+  Object evaluate(AST node, VariableResolver resolver, EvaluationContext context)
+      throws ParserException {
+    if (context == null && resolveVariablesOnce)
+      context = new EvaluationContext(CommonSubexpressions.NONE, Map.of(), true);
+    return evaluate(node, resolver, context, ArgumentStack.get());
+  }
 
+  private Object evaluate(
+      AST node, VariableResolver resolver, EvaluationContext context, ArgumentStack stack)
+      throws ParserException {
     switch (node.getType()) {
       case ASSIGNEE:
         {
@@ -73,58 +129,43 @@ public class EvaluationTreeParser {
         }
       case UNARY_OPERATOR:
         {
-          String name = node.getText();
+          int slot = context == null ? -1 : context.slotOf(node);
+          if (slot >= 0 && context.isComputed(slot)) return context.getSharedValue(slot);
 
           if (log.isLoggable(Level.FINEST))
-            log.finest(String.format("UNARY_FUNCTION: name=%s type=%d\n", name, node.getType()));
-
-          List<Object> params = new ArrayList<Object>();
-
-          child = node.getFirstChild();
-          if (child != null) {
-            params.add(evaluate(child, resolver));
-            while ((child = child.getNextSibling()) != null) {
-              params.add(evaluate(child, resolver));
-            }
-          }
+            log.finest(
+                String.format("UNARY_FUNCTION: name=%s type=%d\n", node.getText(), node.getType()));
 
-          Function function = parser.getFunction(node.getText());
-          if (function == null) {
-            throw new EvaluationException(String.format("Undefined unary function: %s", name));
-          }
-          return function.evaluate(parser, resolver, name, params);
+          Object result =
+              evaluateCall(node, resolver, context, stack, ErrorCode.UNDEFINED_UNARY_FUNCTION);
+          if (slot >= 0) context.setSharedValue(slot, result);
+          return result;
         }
       case OPERATOR:
       case FUNCTION:
         {
-          String name = node.getText();
+          int slot = context == null ? -1 : context.slotOf(node);
+          if (slot >= 0 && context.isComputed(slot)) return context.getSharedValue(slot);
 
           if (log.isLoggable(Level.FINEST))
-            log.finest(String.format("FUNCTION: name=%s type=%d\n", name, node.getType()));
-
-          List<Object> params = new ArrayList<Object>();
-
-          child = node.getFirstChild();
-          if (child != null) {
-            params.add(evaluate(child, resolver));
-            while ((child = child.getNextSibling()) != null) {
-              params.add(evaluate(child, resolver));
-            }
-          }
+            log.finest(
+                String.format("FUNCTION: name=%s type=%d\n", node.getText(), node.getType()));
 
-          Function function = parser.getFunction(name);
-          if (function == null) {
-            throw new EvaluationException(String.format("Undefined function: %s", name));
-          }
-          return function.evaluate(parser, resolver, name, params);
+          Object result =
+              evaluateCall(node, resolver, context, stack, ErrorCode.UNDEFINED_FUNCTION);
+          if (slot >= 0) context.setSharedValue(slot, result);
+          return result;
         }
       case VARIABLE:
         {
           String name = node.getText();
-          if (!resolver.containsVariable(name, VariableModifiers.None)) {
-            throw new EvaluationException(String.format("Undefined variable: %s", name));
+          Object value =
+              context == null
+                  ? resolver.lookupVariable(name, VariableModifiers.None)
+                  : context.lookupVariable(resolver, name);
+          if (value == VariableResolver.UNDEFINED) {
+            throw new EvaluationException(ErrorCode.UNDEFINED_VARIABLE, name);
           }
-          Object value = resolver.getVariable(node.getText(), VariableModifiers.None);
           if (log.isLoggable(Level.FINEST))
             log.finest(String.format("VARIABLE: name=%s, value=%s\n", node.getText(), value));
           return value;
@@ -132,30 +173,83 @@ public class EvaluationTreeParser {
       case PROMPTVARIABLE:
         {
           String name = node.getText();
-          if (!resolver.containsVariable(name, VariableModifiers.Prompt)) {
-            throw new EvaluationException(String.format("Undefined variable: %s", name));
+          Object value = resolver.lookupVariable(name, VariableModifiers.Prompt);
+          if (value == VariableResolver.UNDEFINED) {
+            throw new EvaluationException(ErrorCode.UNDEFINED_VARIABLE, name);
           }
-          Object value = resolver.getVariable(node.getText(), VariableModifiers.Prompt);
+          // resolvers may store the answer to a prompt as the variable's value
+          if (context != null && context.isResolvingVariablesOnce())
+            context.forgetVariable(ExpressionDag.normalize(name));
           if (log.isLoggable(Level.FINEST))
             log.finest(String.format("VARIABLE: name=%s, value=%s\n", node.getText(), value));
           return value;
         }
       case STRING:
-        {
-          String str = node.getText();
-          // Strip off the quotes from the string
-          if (str.length() >= 2) {
-            char first = str.charAt(0);
-            char last = str.charAt(str.length() - 1);
-
-            if (first == last && first == '\'' || first == '"')
-              str = str.substring(1, str.length() - 1);
-          }
-          return str;
-        }
+        return stripQuotes(node.getText());
       default:
-        throw new EvaluationException(
-            String.format("Unknown node type: name=%s, type=%d", node.getText(), node.getType()));
+        throw new EvaluationException(ErrorCode.UNKNOWN_NODE_TYPE, node.getText(), node.getType());
+    }
+  }
+
+  /**
+   * Evaluates the arguments of a call into a frame of <code>stack</code>, and then the call itself,
+   * through the typed entry point of the function when it has one for the arguments.
+   */
+  private Object evaluateCall(
+      AST node,
+      VariableResolver resolver,
+      EvaluationContext context,
+      ArgumentStack stack,
+      ErrorCode undefined)
+      throws ParserException {
+    String name = node.getText();
+    Function function = context == null ? null : context.functionOf(node);
+    if (function == null) function = parser.getFunction(name);
+
+    int count = node.getNumberOfChildren();
+    int base = stack.reserve(count);
+    try {
+      int i = base;
+      for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+        stack.set(i++, evaluate(child, resolver, context, stack));
+      }
+
+      if (count == 1 && UnaryNumberFunction.isApplicable(function)) {
+        Object value = stack.get(base);
+        if (value instanceof BigDecimal)
+          return ((UnaryNumberFunction) function).apply((BigDecimal) value);
+      } else if (count == 2 && BinaryNumberFunction.isApplicable(function)) {
+        Object left = stack.get(base);
+        Object right = stack.get(base + 1);
+        if (left instanceof BigDecimal && right instanceof BigDecimal)
+          return ((BinaryNumberFunction) function).apply((BigDecimal) left, (BigDecimal) right);
+      }
+
+      if (function == null) {
+        throw new EvaluationException(undefined, name);
+      }
+      Object result =
+          function.evaluate(parser, resolver, name, stack.parameters(function, base, count));
+      if (context != null && context.isResolvingVariablesOnce()) {
+        if (function instanceof Assignment)
+          context.forgetVariable(ExpressionDag.assignmentTarget(node));
+        else if (ExpressionDag.mayAssignVariables(function) || !function.isDeterministic())
+          context.forgetVariable(null);
+      }
+      return result;
+    } finally {
+      stack.release(base);
+    }
+  }
+
+  static String stripQuotes(String str) {
+    // Strip off the quotes from the string
+    if (str.length() >= 2) {
+      char first = str.charAt(0);
+      char last = str.charAt(str.length() - 1);
+
+      if (first == last && first == '\'' || first == '"') str = str.substring(1, str.length() - 1);
     }
+    return str;
   }
 }
@@ -15,6 +15,17 @@
 package net.rptools.parser;
 
 import antlr.collections.AST;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import net.rptools.parser.function.Function;
 
 public class Expression {
   private static final InlineTreeFormatter inlineFormatter = new InlineTreeFormatter();
@@ -23,10 +34,86 @@ public class Expression {
   private final ExpressionParser expressionParser;
   private final AST tree;
 
+  /** Expressions are not modified once parsed, so the inline form only needs building once. */
+  private volatile String formatted;
+
+  /** Repeated subexpressions, found the first time this expression is evaluated. */
+  private volatile CommonSubexpressions subexpressions;
+
+  /**
+   * Functions chosen from the argument types of each call, found the first time this expression is
+   * evaluated unless they were given when it was created, and again whenever the functions of the
+   * parser change.
+   */
+  private volatile Specializations specializations;
+
+  /** The resolver declaring the types of variables, or null if none are known. */
+  private final VariableResolver typeDeclarations;
+
+  /** The text this expression was parsed from, or null if it was not. */
+  private final String source;
+
+  /** Specialized functions and the version of the functions of the parser they were chosen from. */
+  private static final class Specializations {
+    private final int functionsVersion;
+    private final Map<AST, Function> functions;
+
+    Specializations(int functionsVersion, Map<AST, Function> functions) {
+      this.functionsVersion = functionsVersion;
+      this.functions = functions;
+    }
+  }
+
+  /**
+   * The variables and functions this expression uses, found when they are first asked for, and
+   * again after the functions of the parser change.
+   */
+  private volatile ExpressionFeatures features;
+
+  /** The evaluator for {@link #evaluateAsync}, built the first time it is needed. */
+  private volatile AsyncEvaluator asyncEvaluator;
+
+  /** Results by the values of the variables read, or null unless memoization was asked for. */
+  private final BoundedCache<List<Object>, Object> results;
+
   Expression(Parser parser, ExpressionParser expressionParser, AST tree) {
+    this(parser, expressionParser, tree, null);
+  }
+
+  Expression(Parser parser, ExpressionParser expressionParser, AST tree, String source) {
+    this(parser, expressionParser, tree, source, null, null, null);
+  }
+
+  private Expression(
+      Expression expression,
+      Specializations specializations,
+      VariableResolver typeDeclarations,
+      BoundedCache<List<Object>, Object> results) {
+    this(
+        expression.parser,
+        expression.expressionParser,
+        expression.tree,
+        expression.source,
+        specializations,
+        typeDeclarations,
+        results);
+  }
+
+  private Expression(
+      Parser parser,
+      ExpressionParser expressionParser,
+      AST tree,
+      String source,
+      Specializations specializations,
+      VariableResolver typeDeclarations,
+      BoundedCache<List<Object>, Object> results) {
     this.parser = parser;
     this.expressionParser = expressionParser;
     this.tree = tree;
+    this.source = source;
+    this.specializations = specializations;
+    this.typeDeclarations = typeDeclarations;
+    this.results = results;
   }
 
   public Parser getParser() {
@@ -41,12 +128,219 @@ public class Expression {
     return tree;
   }
 
+  /** @return the variables this expression reads, in lower case, not counting prompt variables */
+  public Set<String> getReferencedVariables() {
+    return getFeatures().getVariables();
+  }
+
+  /** @return the prompt variables this expression reads, in lower case */
+  public Set<String> getReferencedPromptVariables() {
+    return getFeatures().getPromptVariables();
+  }
+
+  /**
+   * @return the variables this expression assigns, in lower case; variables whose name is computed
+   *     when evaluating, or that are assigned through <code>eval</code>, cannot be known
+   */
+  public Set<String> getAssignedVariables() {
+    return getFeatures().getAssignedVariables();
+  }
+
+  /** @return the names of the functions and operators this expression calls, in lower case */
+  public Set<String> getReferencedFunctions() {
+    return getFeatures().getFunctions();
+  }
+
+  /**
+   * @return true if evaluating this expression with the same variables always gives the same
+   *     result; that is, it calls only deterministic functions, does not use <code>eval</code> and
+   *     does not prompt for variables
+   */
+  public boolean isDeterministic() {
+    return getFeatures().isDeterministic();
+  }
+
+  ExpressionFeatures getFeatures() {
+    ExpressionFeatures result = features;
+    if (result == null || result.getFunctionsVersion() != parser.getFunctionsVersion()) {
+      // expressions parsed from the same text, as eval does each time it runs, share them
+      result =
+          source == null ? ExpressionFeatures.of(parser, tree) : parser.getFeatures(source, tree);
+      features = result;
+    }
+    return result;
+  }
+
   public Object evaluate() throws ParserException {
-    return parser.getEvaluationTreeParser().evaluate(tree, new MapVariableResolver());
+    return evaluate(new MapVariableResolver());
   }
 
   public Object evaluate(VariableResolver resolver) throws ParserException {
-    return parser.getEvaluationTreeParser().evaluate(tree, resolver);
+    ExpressionFeatures features = getFeatures();
+    PrefetchScope scope =
+        PrefetchScope.open(
+            resolver, features.getPrefetchVariables(), features.getPrefetchPromptVariables());
+    try {
+      return evaluateMemoized(resolver);
+    } finally {
+      if (scope != null) scope.close();
+    }
+  }
+
+  private Object evaluateMemoized(VariableResolver resolver) throws ParserException {
+    List<Object> key = results == null ? null : getMemoKey(resolver);
+    if (key == null) return evaluateTree(resolver, null);
+
+    Object result = results.get(key);
+    if (result == null) {
+      // the key holds every variable the tree reads, so it need not read them again
+      result = evaluateTree(resolver, key);
+      results.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * Evaluates this expression without blocking the calling thread on <code>resolver</code> or on
+   * functions implementing {@link net.rptools.parser.function.AsyncFunction}. The arguments of a
+   * call are evaluated concurrently, unless one of them assigns variables or uses <code>eval
+   * </code>; then they are evaluated in order. Other functions are called synchronously on
+   * whichever thread completes their last argument. Like {@link #evaluate(VariableResolver)}, this
+   * first calls {@link VariableResolver#prefetch} with the variables the expression reads, but the
+   * evaluations <code>eval</code> starts prefetch theirs again, since they may run on other
+   * threads.
+   *
+   * <p>The future fails with the {@link ParserException} that evaluation ran into, wrapped in a
+   * {@link java.util.concurrent.CompletionException}.
+   *
+   * @param resolver the resolver
+   * @return the result
+   */
+  public CompletableFuture<Object> evaluateAsync(AsyncVariableResolver resolver) {
+    ExpressionFeatures features = getFeatures();
+    try {
+      PrefetchScope.prefetch(
+          resolver, features.getPrefetchVariables(), features.getPrefetchPromptVariables());
+    } catch (ParserException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+
+    AsyncEvaluator evaluator = asyncEvaluator;
+    if (evaluator == null) {
+      evaluator = new AsyncEvaluator(parser, tree);
+      asyncEvaluator = evaluator;
+    }
+    return evaluator.evaluate(tree, resolver);
+  }
+
+  /**
+   * Returns a copy of this expression that remembers its results by the values of the variables it
+   * reads, so that evaluating it again with the same values does not evaluate the tree. Expressions
+   * that assign variables, prompt for them or call functions that are not deterministic are always
+   * evaluated, as are evaluations where a variable holds something other than a number or a string.
+   *
+   * <p>Functions that read the resolver themselves, other than through their arguments, must not be
+   * marked deterministic for results to stay correct.
+   *
+   * @param maximumSize the most results to keep; the least recently used one is dropped first
+   * @return the memoizing expression
+   */
+  public Expression getMemoizedExpression(int maximumSize) {
+    return new Expression(this, specializations, typeDeclarations, new BoundedCache<>(maximumSize));
+  }
+
+  /**
+   * @return how often remembered results were reused, or null if this expression is not memoized
+   */
+  public CacheStatistics getMemoStatistics() {
+    return results == null ? null : results.getStatistics();
+  }
+
+  /** @return the values of the variables read, or null if the result cannot be remembered */
+  private List<Object> getMemoKey(VariableResolver resolver) throws ParserException {
+    ExpressionFeatures features = getFeatures();
+    if (!features.isMemoizable()) return null;
+
+    Set<String> names = features.getVariableSpellings();
+    Object[] values = new Object[names.size()];
+    int i = 0;
+    for (String name : names) {
+      Object value = resolver.lookupVariable(name, VariableModifiers.None);
+      if (ValueType.of(value) == ValueType.UNKNOWN) return null;
+      values[i++] = value;
+    }
+    return Arrays.asList(values);
+  }
+
+  /**
+   * @param readValues the values already read of the variables of the tree, in the order of {@link
+   *     ExpressionFeatures#getVariableSpellings()}, or null
+   */
+  private Object evaluateTree(VariableResolver resolver, List<Object> readValues)
+      throws ParserException {
+    EvaluationTreeParser treeParser = parser.getEvaluationTreeParser();
+    CommonSubexpressions shared =
+        treeParser.isSharingSubexpressions()
+            ? getCommonSubexpressions()
+            : CommonSubexpressions.NONE;
+    Map<AST, Function> functions = getSpecializations();
+    boolean resolveVariablesOnce = readValues != null || treeParser.isResolvingVariablesOnce();
+    EvaluationContext context =
+        shared.isEmpty() && functions.isEmpty() && !resolveVariablesOnce
+            ? null
+            : new EvaluationContext(shared, functions, resolveVariablesOnce);
+    if (readValues != null)
+      context.rememberVariables(getFeatures().getVariableSpellings(), readValues);
+    return treeParser.evaluate(tree, resolver, context);
+  }
+
+  /**
+   * Returns a copy of this expression specialized for the variable types <code>declarations
+   * </code> declares, which must only be evaluated with resolvers that hold values of those types.
+   * Literals and function return types are taken into account by every expression, so this only
+   * helps where variables are involved. The typed expression keeps <code>declarations</code>, to
+   * specialize again if functions are added to the parser.
+   *
+   * @param declarations the resolver declaring the variable types
+   * @return the typed expression
+   * @throws ParserException if <code>declarations</code> fails
+   * @see VariableResolver#getVariableType(String)
+   */
+  public Expression getTypedExpression(VariableResolver declarations) throws ParserException {
+    int version = parser.getFunctionsVersion();
+    Specializations typed =
+        new Specializations(version, TypeInference.specialize(parser, tree, declarations));
+    return new Expression(this, typed, declarations, null);
+  }
+
+  /**
+   * @return the type of the value of this expression, as far as it can be known before evaluating
+   *     it with resolvers like <code>declarations</code>
+   * @throws ParserException if <code>declarations</code> fails
+   */
+  public ValueType getResultType(VariableResolver declarations) throws ParserException {
+    return TypeInference.typeOf(parser, tree, declarations);
+  }
+
+  private Map<AST, Function> getSpecializations() throws ParserException {
+    int version = parser.getFunctionsVersion();
+    Specializations result = specializations;
+    if (result == null || result.functionsVersion != version) {
+      // specializations come from the functions registered, which may have been replaced since
+      result =
+          new Specializations(version, TypeInference.specialize(parser, tree, typeDeclarations));
+      specializations = result;
+    }
+    return result.functions;
+  }
+
+  CommonSubexpressions getCommonSubexpressions() {
+    CommonSubexpressions result = subexpressions;
+    if (result == null) {
+      result = CommonSubexpressions.analyze(parser, List.of(tree));
+      subexpressions = result;
+    }
+    return result;
   }
 
   public Expression getDeterministicExpression(VariableResolver resolver) throws ParserException {
@@ -62,7 +356,95 @@ public class Expression {
     }
   }
 
+  /**
+   * Builds a smaller expression for evaluating this one repeatedly while some of its variables stay
+   * the same. The variables defined by <code>known</code> are replaced by their current values and
+   * the deterministic subexpressions that become constant are computed once, here.
+   *
+   * @param known the variables that will not change
+   * @return the specialized expression, or this one if nothing could be substituted
+   * @throws ParserException if reading from <code>known</code> fails
+   */
+  public Expression specialize(VariableResolver known) throws ParserException {
+    DeterministicTreeParser tp = new DeterministicTreeParser(parser, expressionParser);
+
+    AST dupTree = expressionParser.getASTFactory().dupTree(tree);
+    AST newTree = tp.specialize(dupTree, known);
+
+    if (tree.equalsTree(newTree)) {
+      return this;
+    } else {
+      return new Expression(parser, expressionParser, newTree);
+    }
+  }
+
+  /**
+   * Checks this expression without evaluating it, for undefined functions, calls with the wrong
+   * number of arguments and variables that <code>resolver</code> does not define and the expression
+   * does not assign before reading them.
+   *
+   * @param resolver the resolver the expression will be evaluated with
+   * @return every problem found, in the order evaluation would run into them
+   * @throws ParserException if <code>resolver</code> fails
+   */
+  public List<ParserException> validate(VariableResolver resolver) throws ParserException {
+    return ExpressionValidator.validate(
+        parser, tree, name -> resolver.containsVariable(name, VariableModifiers.None));
+  }
+
+  /**
+   * Checks this expression without evaluating it, like {@link #validate(VariableResolver)}.
+   *
+   * @param variables the names of the variables that will be defined, ignoring case; or null to
+   *     check only the functions
+   * @return every problem found, in the order evaluation would run into them
+   */
+  public List<ParserException> validate(Set<String> variables) {
+    if (variables == null)
+      return ExpressionValidator.<RuntimeException>validate(parser, tree, null);
+
+    Set<String> defined = new HashSet<>();
+    for (String name : variables) defined.add(ExpressionDag.normalize(name));
+    return ExpressionValidator.<RuntimeException>validate(
+        parser, tree, name -> defined.contains(ExpressionDag.normalize(name)));
+  }
+
   public String format() {
-    return inlineFormatter.format(tree);
+    String result = formatted;
+    if (result == null) {
+      result = inlineFormatter.format(tree);
+      formatted = result;
+    }
+    return result;
+  }
+
+  /**
+   * Appends the inline form of this expression to <code>out</code>, writing straight to it unless
+   * the string form has already been built.
+   *
+   * @param out the buffer or writer to append to
+   * @throws IOException if <code>out</code> fails
+   */
+  public void format(Appendable out) throws IOException {
+    String result = formatted;
+    if (result != null) {
+      out.append(result);
+    } else {
+      inlineFormatter.format(tree, out);
+    }
+  }
+
+  /**
+   * Writes the compact binary form of this expression, which {@link
+   * Parser#readExpression(java.io.InputStream)} turns back into an expression without parsing it
+   * again.
+   *
+   * @param out the stream to write to; it is not closed
+   * @throws IOException if writing to <code>out</code> fails
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+    ExpressionSerializer.write(tree, new DataOutputStream(buffer));
+    buffer.writeTo(out);
   }
 }
@@ -0,0 +1,384 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import static net.rptools.parser.ExpressionParserTokenTypes.ASSIGNEE;
+import static net.rptools.parser.ExpressionParserTokenTypes.FALSE;
+import static net.rptools.parser.ExpressionParserTokenTypes.FUNCTION;
+import static net.rptools.parser.ExpressionParserTokenTypes.HEXNUMBER;
+import static net.rptools.parser.ExpressionParserTokenTypes.NUMBER;
+import static net.rptools.parser.ExpressionParserTokenTypes.OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.PROMPTVARIABLE;
+import static net.rptools.parser.ExpressionParserTokenTypes.STRING;
+import static net.rptools.parser.ExpressionParserTokenTypes.TRUE;
+import static net.rptools.parser.ExpressionParserTokenTypes.UNARY_OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.VARIABLE;
+
+import antlr.collections.AST;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import net.rptools.parser.function.BinaryNumberFunction;
+import net.rptools.parser.function.EvaluationException;
+import net.rptools.parser.function.Function;
+import net.rptools.parser.function.UnaryNumberFunction;
+import net.rptools.parser.function.impl.Assignment;
+import net.rptools.parser.function.impl.Eval;
+
+/**
+ * One or more expression trees merged into a directed acyclic graph in which structurally
+ * identical, deterministic subtrees are represented by a single node.
+ *
+ * <p>Nodes are numbered in the order the tree evaluator would first reach them, which is a
+ * topological order of the graph, so evaluating the nodes by number computes every unique value
+ * once and performs all side effects in their original order.
+ *
+ * <p>Each variable reference is versioned by the writes that precede it: an assignment to a named
+ * variable or a prompt for it starts a new version of that variable, and any other call that may
+ * assign variables (eval, an assignment to a computed name, or a function that is not
+ * deterministic) starts a new version of all of them. References with different versions are
+ * separate nodes, so sharing never skips over a write. These are the points at which {@link
+ * EvaluationTreeParser} reads variables again when it resolves them once per evaluation. Prompt
+ * variables, non-deterministic functions and calls that may assign variables are never shared.
+ */
+final class ExpressionDag {
+  private final Parser parser;
+  private final int[] types;
+  private final String[] texts;
+  private final int[][] children;
+  private final Function[] functions;
+  private final Object[] constants;
+  private final int[] occurrences;
+  private final int[] roots;
+  private final IdentityHashMap<AST, Integer> nodesByTree;
+
+  private ExpressionDag(Builder builder, int[] roots) {
+    int size = builder.types.size();
+    this.parser = builder.parser;
+    this.types = new int[size];
+    this.texts = builder.texts.toArray(new String[size]);
+    this.children = builder.children.toArray(new int[size][]);
+    this.functions = builder.functions.toArray(new Function[size]);
+    this.constants = builder.constants.toArray();
+    this.occurrences = new int[size];
+    for (int i = 0; i < size; i++) {
+      types[i] = builder.types.get(i);
+      occurrences[i] = builder.occurrences.get(i);
+    }
+    this.roots = roots;
+    this.nodesByTree = builder.nodesByTree;
+  }
+
+  /**
+   * Builds the graph of trees that are evaluated one after another against the same resolver.
+   *
+   * @param parser the parser providing the functions
+   * @param trees the trees, in evaluation order
+   * @return the graph
+   */
+  static ExpressionDag build(Parser parser, List<AST> trees) {
+    Builder builder = new Builder(parser);
+    int[] roots = new int[trees.size()];
+    for (int i = 0; i < roots.length; i++) roots[i] = builder.visit(trees.get(i));
+
+    return new ExpressionDag(builder, roots);
+  }
+
+  static boolean mayAssignVariables(Function function) {
+    return function instanceof Assignment || function instanceof Eval;
+  }
+
+  /**
+   * @return the normalized name of the variable an assignment writes to, if it is spelled out in
+   *     the tree
+   */
+  static String assignmentTarget(AST node) {
+    AST target = node.getFirstChild();
+    if (target == null) return null;
+    switch (target.getType()) {
+      case ASSIGNEE:
+        return normalize(target.getText());
+      case STRING:
+        return normalize(EvaluationTreeParser.stripQuotes(target.getText()));
+      default:
+        return null;
+    }
+  }
+
+  static String normalize(String name) {
+    // resolvers may ignore case, so assume they do
+    return name.toLowerCase(Locale.ROOT);
+  }
+
+  int size() {
+    return types.length;
+  }
+
+  /**
+   * @return the node representing <code>tree</code>, or -1 if the tree was not part of the graph
+   */
+  int nodeOf(AST tree) {
+    Integer node = nodesByTree.get(tree);
+    return node == null ? -1 : node;
+  }
+
+  /** @return the number of places in the original trees that the node stands for */
+  int getOccurrences(int node) {
+    return occurrences[node];
+  }
+
+  boolean isCall(int node) {
+    return children[node] != null;
+  }
+
+  /**
+   * Evaluates every node once.
+   *
+   * @param resolver the resolver used by all trees
+   * @return the value of each tree, in the order they were given to {@link #build}
+   * @throws ParserException if any tree fails to evaluate
+   */
+  List<Object> evaluate(VariableResolver resolver) throws ParserException {
+    Object[] values = new Object[types.length];
+    ArgumentStack stack = ArgumentStack.get();
+
+    for (int i = 0; i < values.length; i++) {
+      switch (types[i]) {
+        case VARIABLE:
+          values[i] = resolve(resolver, texts[i], VariableModifiers.None);
+          break;
+        case PROMPTVARIABLE:
+          values[i] = resolve(resolver, texts[i], VariableModifiers.Prompt);
+          break;
+        case UNARY_OPERATOR:
+        case OPERATOR:
+        case FUNCTION:
+          values[i] = call(i, resolver, values, stack);
+          break;
+        default:
+          values[i] = constants[i];
+          break;
+      }
+    }
+
+    List<Object> results = new ArrayList<>(roots.length);
+    for (int root : roots) results.add(values[root]);
+    return results;
+  }
+
+  private Object call(int node, VariableResolver resolver, Object[] values, ArgumentStack stack)
+      throws ParserException {
+    int[] args = children[node];
+    Function function = functions[node];
+    if (args.length == 1
+        && UnaryNumberFunction.isApplicable(function)
+        && values[args[0]] instanceof BigDecimal) {
+      return ((UnaryNumberFunction) function).apply((BigDecimal) values[args[0]]);
+    }
+    if (args.length == 2
+        && BinaryNumberFunction.isApplicable(function)
+        && values[args[0]] instanceof BigDecimal
+        && values[args[1]] instanceof BigDecimal) {
+      return ((BinaryNumberFunction) function)
+          .apply((BigDecimal) values[args[0]], (BigDecimal) values[args[1]]);
+    }
+
+    if (function == null) {
+      throw new EvaluationException(
+          types[node] == UNARY_OPERATOR
+              ? ErrorCode.UNDEFINED_UNARY_FUNCTION
+              : ErrorCode.UNDEFINED_FUNCTION,
+          texts[node]);
+    }
+
+    int base = stack.reserve(args.length);
+    try {
+      for (int i = 0; i < args.length; i++) stack.set(base + i, values[args[i]]);
+      return function.evaluate(
+          parser, resolver, texts[node], stack.parameters(function, base, args.length));
+    } finally {
+      stack.release(base);
+    }
+  }
+
+  private static Object resolve(VariableResolver resolver, String name, VariableModifiers modifiers)
+      throws ParserException {
+    Object value = resolver.lookupVariable(name, modifiers);
+    if (value == VariableResolver.UNDEFINED) {
+      throw new EvaluationException(ErrorCode.UNDEFINED_VARIABLE, name);
+    }
+    return value;
+  }
+
+  private static final class Builder {
+    private static final int[] NO_CHILDREN = new int[0];
+    private static final int CONFLICT = -1;
+
+    private final Parser parser;
+    private final List<Integer> types = new ArrayList<>();
+    private final List<String> texts = new ArrayList<>();
+    private final List<int[]> children = new ArrayList<>();
+    private final List<Function> functions = new ArrayList<>();
+    private final List<Object> constants = new ArrayList<>();
+    private final List<Integer> occurrences = new ArrayList<>();
+    private final List<Boolean> shareable = new ArrayList<>();
+    private final Map<Key, Integer> shared = new HashMap<>();
+    private final IdentityHashMap<AST, Integer> nodesByTree = new IdentityHashMap<>();
+    private final Map<String, Integer> assignmentsByName = new HashMap<>();
+    private int generation;
+
+    Builder(Parser parser) {
+      this.parser = parser;
+    }
+
+    int visit(AST node) {
+      int index = createNode(node);
+      occurrences.set(index, occurrences.get(index) + 1);
+
+      Integer previous = nodesByTree.put(node, index);
+      if (previous != null && previous != index) {
+        // the same tree was given twice and ended up as different nodes
+        nodesByTree.put(node, CONFLICT);
+      }
+      return index;
+    }
+
+    private int createNode(AST node) {
+      int type = node.getType();
+      String text = node.getText();
+
+      switch (type) {
+        case NUMBER:
+          return shared(new Key(type, text, NO_CHILDREN), null, new BigDecimal(text));
+        case HEXNUMBER:
+          return shared(
+              new Key(type, text, NO_CHILDREN),
+              null,
+              new BigDecimal(new BigInteger(text.substring(2), 16)));
+        case STRING:
+          return shared(
+              new Key(type, text, NO_CHILDREN), null, EvaluationTreeParser.stripQuotes(text));
+        case TRUE:
+          return shared(new Key(type, text, NO_CHILDREN), null, BigDecimal.ONE);
+        case FALSE:
+          return shared(new Key(type, text, NO_CHILDREN), null, BigDecimal.ZERO);
+        case ASSIGNEE:
+          return shared(new Key(type, text, NO_CHILDREN), null, text);
+        case VARIABLE:
+          {
+            Integer assignments = assignmentsByName.get(normalize(text));
+            int[] version = {generation, assignments == null ? 0 : assignments};
+            return shared(new Key(type, text, version), null, null);
+          }
+        case PROMPTVARIABLE:
+          // resolvers may store the answer to a prompt as the variable's value
+          assignmentsByName.merge(normalize(text), 1, Integer::sum);
+          return add(type, text, null, null, null);
+        case UNARY_OPERATOR:
+        case OPERATOR:
+        case FUNCTION:
+          {
+            int[] args = new int[node.getNumberOfChildren()];
+            boolean sharedArgs = true;
+            int i = 0;
+            for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+              args[i] = visit(child);
+              sharedArgs &= isShared(args[i]);
+              i++;
+            }
+
+            Function function = parser.getFunction(text);
+            if (function != null && mayAssignVariables(function)) {
+              String target = function instanceof Assignment ? assignmentTarget(node) : null;
+              if (target == null) generation++;
+              else assignmentsByName.merge(target, 1, Integer::sum);
+              return add(type, text, args, function, null);
+            }
+            if (function != null && !function.isDeterministic()) {
+              generation++;
+              return add(type, text, args, function, null);
+            }
+
+            if (sharedArgs && function != null && function.isDeterministic())
+              return shared(new Key(type, text, args), function, null);
+            return add(type, text, args, function, null);
+          }
+        default:
+          throw new IllegalArgumentException(
+              String.format("Unknown node type: name=%s, type=%d", text, type));
+      }
+    }
+
+    private boolean isShared(int index) {
+      return shareable.get(index);
+    }
+
+    private int shared(Key key, Function function, Object constant) {
+      Integer index = shared.get(key);
+      if (index == null) {
+        index = add(key.type, key.text, function == null ? null : key.children, function, constant);
+        shared.put(key, index);
+        shareable.set(index, true);
+      }
+      return index;
+    }
+
+    private int add(int type, String text, int[] args, Function function, Object constant) {
+      types.add(type);
+      texts.add(text);
+      children.add(args);
+      functions.add(function);
+      constants.add(constant);
+      occurrences.add(0);
+      shareable.add(false);
+      return types.size() - 1;
+    }
+  }
+
+  private static final class Key {
+    private final int type;
+    private final String text;
+    private final int[] children;
+    private final int hash;
+
+    Key(int type, String text, int[] children) {
+      this.type = type;
+      this.text = text;
+      this.children = children;
+      this.hash = 31 * (31 * type + text.hashCode()) + Arrays.hashCode(children);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return hash == other.hash
+          && type == other.type
+          && text.equals(other.text)
+          && Arrays.equals(children, other.children);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import static net.rptools.parser.ExpressionParserTokenTypes.FUNCTION;
+import static net.rptools.parser.ExpressionParserTokenTypes.OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.PROMPTVARIABLE;
+import static net.rptools.parser.ExpressionParserTokenTypes.STRING;
+import static net.rptools.parser.ExpressionParserTokenTypes.UNARY_OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.VARIABLE;
+
+import antlr.collections.AST;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import net.rptools.parser.function.Function;
+import net.rptools.parser.function.impl.Assignment;
+import net.rptools.parser.function.impl.Eval;
+
+/**
+ * What an expression uses, found in a single walk over its tree. Names are normalized to lower
+ * case, the way resolvers that ignore case see them, and kept in the order they first occur.
+ */
+final class ExpressionFeatures {
+  private final int functionsVersion;
+  private final Set<String> variables = new LinkedHashSet<>();
+  private final Set<String> spellings = new LinkedHashSet<>();
+  private final Set<String> promptVariables = new LinkedHashSet<>();
+  private final Set<String> promptSpellings = new LinkedHashSet<>();
+  private final Set<String> prefetchVariables = new LinkedHashSet<>();
+  private final Set<String> prefetchPromptVariables = new LinkedHashSet<>();
+  private final Set<String> assignedVariables = new LinkedHashSet<>();
+  private final Set<String> functions = new LinkedHashSet<>();
+  private boolean deterministic = true;
+  private boolean assigns;
+
+  private final Set<String> variablesView = Collections.unmodifiableSet(variables);
+  private final Set<String> spellingsView = Collections.unmodifiableSet(spellings);
+  private final Set<String> promptSpellingsView = Collections.unmodifiableSet(promptSpellings);
+  private final Set<String> prefetchVariablesView = Collections.unmodifiableSet(prefetchVariables);
+  private final Set<String> prefetchPromptVariablesView =
+      Collections.unmodifiableSet(prefetchPromptVariables);
+  private final Set<String> promptVariablesView = Collections.unmodifiableSet(promptVariables);
+  private final Set<String> assignedVariablesView = Collections.unmodifiableSet(assignedVariables);
+  private final Set<String> functionsView = Collections.unmodifiableSet(functions);
+
+  private ExpressionFeatures(Parser parser, AST tree) {
+    functionsVersion = parser.getFunctionsVersion();
+    visit(parser, tree);
+  }
+
+  static ExpressionFeatures of(Parser parser, AST tree) {
+    return new ExpressionFeatures(parser, tree);
+  }
+
+  private void visit(Parser parser, AST node) {
+    switch (node.getType()) {
+      case VARIABLE:
+        variables.add(ExpressionDag.normalize(node.getText()));
+        spellings.add(node.getText());
+        prefetchVariables.add(node.getText());
+        break;
+      case PROMPTVARIABLE:
+        promptVariables.add(ExpressionDag.normalize(node.getText()));
+        promptSpellings.add(node.getText());
+        prefetchPromptVariables.add(node.getText());
+        deterministic = false;
+        break;
+      case UNARY_OPERATOR:
+      case OPERATOR:
+      case FUNCTION:
+        {
+          functions.add(ExpressionDag.normalize(node.getText()));
+          Function function = parser.getFunction(node.getText());
+          if (function == null || function instanceof Eval || !function.isDeterministic())
+            deterministic = false;
+          if (function instanceof Assignment) {
+            assigns = true;
+            String target = ExpressionDag.assignmentTarget(node);
+            if (target != null) assignedVariables.add(target);
+          }
+          for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling())
+            visit(parser, child);
+          // eval reads the variables of its strings after its arguments
+          if (function instanceof Eval) addEvaluatedStrings(parser, node);
+          return;
+        }
+      default:
+        break;
+    }
+    for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling())
+      visit(parser, child);
+  }
+
+  /** Adds the variables read by the string literals passed to <code>eval</code>. */
+  private void addEvaluatedStrings(Parser parser, AST node) {
+    for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getType() != STRING) continue;
+
+      ExpressionFeatures evaluated;
+      try {
+        evaluated = parser.getFeatures(EvaluationTreeParser.stripQuotes(child.getText()));
+      } catch (ParserException e) {
+        // eval reports this when it gets there
+        continue;
+      }
+      prefetchVariables.addAll(evaluated.prefetchVariables);
+      prefetchPromptVariables.addAll(evaluated.prefetchPromptVariables);
+    }
+  }
+
+  /** @return the version of the functions of the parser these features were found with */
+  int getFunctionsVersion() {
+    return functionsVersion;
+  }
+
+  Set<String> getVariables() {
+    return variablesView;
+  }
+
+  Set<String> getPromptVariables() {
+    return promptVariablesView;
+  }
+
+  Set<String> getAssignedVariables() {
+    return assignedVariablesView;
+  }
+
+  Set<String> getFunctions() {
+    return functionsView;
+  }
+
+  boolean isDeterministic() {
+    return deterministic;
+  }
+
+  /**
+   * @return the variables read, as they are written, so that case is kept for resolvers that care
+   */
+  Set<String> getVariableSpellings() {
+    return spellingsView;
+  }
+
+  /** @return the prompt variables read, as they are written */
+  Set<String> getPromptVariableSpellings() {
+    return promptSpellingsView;
+  }
+
+  /**
+   * @return the variables that evaluating may read, as they are written, including those read by
+   *     string literals passed to <code>eval</code>
+   */
+  Set<String> getPrefetchVariables() {
+    return prefetchVariablesView;
+  }
+
+  /**
+   * @return the prompt variables that evaluating may read, as they are written, including those
+   *     read by string literals passed to <code>eval</code>
+   */
+  Set<String> getPrefetchPromptVariables() {
+    return prefetchPromptVariablesView;
+  }
+
+  /**
+   * @return true if the value depends only on the variables read, so that it can be reused while
+   *     they keep their values
+   */
+  boolean isMemoizable() {
+    return deterministic && !assigns;
+  }
+}
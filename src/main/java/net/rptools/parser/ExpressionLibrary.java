@@ -0,0 +1,285 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only file holding many named, pre-parsed expressions.
+ *
+ * <p>The file is memory mapped when opened, so libraries are shared between processes through the
+ * page cache. Only the header and the index are examined on open; an expression is decoded the
+ * first time it is asked for and then kept.
+ *
+ * <p>Layout:
+ *
+ * <pre>
+ *   int    MAGIC
+ *   short  VERSION
+ *   int    entry count
+ *   entry* (int nameOffset, int nameLength, int dataOffset, int dataLength), sorted by name
+ *   names  UTF-8 bytes of every name
+ *   data   every expression, as written by {@link Expression#writeTo(java.io.OutputStream)}
+ * </pre>
+ *
+ * Names are matched exactly (case sensitive) by a binary search over the mapped index.
+ */
+public final class ExpressionLibrary {
+  static final int MAGIC = 0x5250584c; // "RPXL"
+  static final short VERSION = 1;
+
+  private static final int HEADER_SIZE = 4 + 2 + 4;
+  private static final int ENTRY_SIZE = 4 * 4;
+
+  private final Parser parser;
+  private final ByteBuffer buffer;
+  private final int size;
+  private final Map<Integer, Expression> decoded = new ConcurrentHashMap<>();
+
+  private ExpressionLibrary(Parser parser, ByteBuffer buffer, int size) {
+    this.parser = parser;
+    this.buffer = buffer;
+    this.size = size;
+  }
+
+  /**
+   * Writes a library file containing the given expressions.
+   *
+   * @param file the file to create or replace
+   * @param expressions the expressions to store, by name
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(Path file, Map<String, Expression> expressions) throws IOException {
+    int count = expressions.size();
+    byte[][] names = new byte[count][];
+    Expression[] values = new Expression[count];
+
+    int i = 0;
+    for (Map.Entry<String, Expression> entry : expressions.entrySet()) {
+      names[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      values[i] = entry.getValue();
+      i++;
+    }
+
+    Integer[] order = new Integer[count];
+    for (i = 0; i < count; i++) order[i] = i;
+    Arrays.sort(order, (a, b) -> compare(names[a], names[b]));
+
+    ByteArrayOutputStream nameBlob = new ByteArrayOutputStream();
+    ByteArrayOutputStream dataBlob = new ByteArrayOutputStream();
+    int[] nameOffsets = new int[count];
+    int[] dataOffsets = new int[count];
+    int[] dataLengths = new int[count];
+    for (i = 0; i < count; i++) {
+      nameOffsets[i] = nameBlob.size();
+      nameBlob.write(names[i]);
+
+      dataOffsets[i] = dataBlob.size();
+      values[i].writeTo(dataBlob);
+      dataLengths[i] = dataBlob.size() - dataOffsets[i];
+    }
+
+    int namesStart = HEADER_SIZE + count * ENTRY_SIZE;
+    int dataStart = namesStart + nameBlob.size();
+
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeInt(count);
+      for (int index : order) {
+        out.writeInt(namesStart + nameOffsets[index]);
+        out.writeInt(names[index].length);
+        out.writeInt(dataStart + dataOffsets[index]);
+        out.writeInt(dataLengths[index]);
+      }
+      nameBlob.writeTo(out);
+      dataBlob.writeTo(out);
+    }
+  }
+
+  /**
+   * Maps a library file. Expressions are decoded against <code>parser</code>, whose functions must
+   * include all those used by the library.
+   *
+   * @param parser the parser the expressions belong to
+   * @param file the library file
+   * @return the library
+   * @throws IOException if the file cannot be mapped
+   * @throws ParserException if the file is not a supported library
+   */
+  public static ExpressionLibrary open(Parser parser, Path file)
+      throws IOException, ParserException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+      throw new ParserException(String.format("Not an expression library: %s", file));
+    if (buffer.getShort(4) != VERSION)
+      throw new ParserException(
+          String.format("Unsupported expression library version: %d", buffer.getShort(4)));
+
+    int size = buffer.getInt(6);
+    if (size < 0 || HEADER_SIZE + (long) size * ENTRY_SIZE > buffer.capacity())
+      throw new ParserException(String.format("Corrupt expression library: %s", file));
+    for (int i = 0; i < size; i++) {
+      int entry = HEADER_SIZE + i * ENTRY_SIZE;
+      if (!isInBounds(buffer, buffer.getInt(entry), buffer.getInt(entry + 4))
+          || !isInBounds(buffer, buffer.getInt(entry + 8), buffer.getInt(entry + 12)))
+        throw new ParserException(String.format("Corrupt expression library: %s", file));
+    }
+
+    return new ExpressionLibrary(parser, buffer, size);
+  }
+
+  private static boolean isInBounds(ByteBuffer buffer, int offset, int length) {
+    return offset >= 0 && length >= 0 && (long) offset + length <= buffer.capacity();
+  }
+
+  /** @return the number of expressions in the library */
+  public int size() {
+    return size;
+  }
+
+  public boolean contains(String name) {
+    return indexOf(name) >= 0;
+  }
+
+  /** @return the names of all expressions in the library, in index order */
+  public List<String> getNames() {
+    List<String> ret = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      int entry = HEADER_SIZE + i * ENTRY_SIZE;
+      byte[] name = new byte[buffer.getInt(entry + 4)];
+      readBytes(buffer.getInt(entry), name);
+      ret.add(new String(name, StandardCharsets.UTF_8));
+    }
+    return ret;
+  }
+
+  /**
+   * Returns the named expression, decoding it if this is the first request for it.
+   *
+   * @param name the name the expression was stored under
+   * @return the expression, or <code>null</code> if the library does not contain it
+   * @throws ParserException if the stored expression cannot be decoded against the parser
+   */
+  public Expression get(String name) throws ParserException {
+    int index = indexOf(name);
+    if (index < 0) return null;
+
+    Expression expression = decoded.get(index);
+    if (expression == null) {
+      expression = decode(index);
+      Expression existing = decoded.putIfAbsent(index, expression);
+      if (existing != null) expression = existing;
+    }
+    return expression;
+  }
+
+  private Expression decode(int index) throws ParserException {
+    int entry = HEADER_SIZE + index * ENTRY_SIZE;
+    ByteBuffer data = buffer.duplicate();
+    int offset = buffer.getInt(entry + 8);
+    int length = buffer.getInt(entry + 12);
+    data.limit(offset + length).position(offset);
+
+    try {
+      return ExpressionSerializer.read(parser, new ByteBufferInputStream(data), length);
+    } catch (IOException e) {
+      throw new ParserException(e);
+    }
+  }
+
+  private int indexOf(String name) {
+    byte[] key = name.getBytes(StandardCharsets.UTF_8);
+
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int entry = HEADER_SIZE + mid * ENTRY_SIZE;
+      int cmp = compare(buffer.getInt(entry), buffer.getInt(entry + 4), key);
+      if (cmp < 0) low = mid + 1;
+      else if (cmp > 0) high = mid - 1;
+      else return mid;
+    }
+    return -1;
+  }
+
+  /** Compares a name stored in the buffer with <code>key</code>, as unsigned bytes. */
+  private int compare(int offset, int length, byte[] key) {
+    int len = Math.min(length, key.length);
+    for (int i = 0; i < len; i++) {
+      int cmp = Integer.compare(buffer.get(offset + i) & 0xFF, key[i] & 0xFF);
+      if (cmp != 0) return cmp;
+    }
+    return Integer.compare(length, key.length);
+  }
+
+  private static int compare(byte[] a, byte[] b) {
+    int len = Math.min(a.length, b.length);
+    for (int i = 0; i < len; i++) {
+      int cmp = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+      if (cmp != 0) return cmp;
+    }
+    return Integer.compare(a.length, b.length);
+  }
+
+  private void readBytes(int offset, byte[] dst) {
+    for (int i = 0; i < dst.length; i++) dst[i] = buffer.get(offset + i);
+  }
+
+  /** Reads from a buffer view without copying it to the heap first. */
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) return 0;
+      if (!buffer.hasRemaining()) return -1;
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+  }
+}
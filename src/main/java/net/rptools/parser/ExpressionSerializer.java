@@ -0,0 +1,443 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import static net.rptools.parser.ExpressionParserTokenTypes.ASSIGNEE;
+import static net.rptools.parser.ExpressionParserTokenTypes.FALSE;
+import static net.rptools.parser.ExpressionParserTokenTypes.FUNCTION;
+import static net.rptools.parser.ExpressionParserTokenTypes.HEXNUMBER;
+import static net.rptools.parser.ExpressionParserTokenTypes.NUMBER;
+import static net.rptools.parser.ExpressionParserTokenTypes.OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.PROMPTVARIABLE;
+import static net.rptools.parser.ExpressionParserTokenTypes.STRING;
+import static net.rptools.parser.ExpressionParserTokenTypes.TRUE;
+import static net.rptools.parser.ExpressionParserTokenTypes.UNARY_OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.VARIABLE;
+
+import antlr.ASTFactory;
+import antlr.collections.AST;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the binary form of a parsed expression.
+ *
+ * <p>Layout (all counts and indexes are unsigned varints, strings are length prefixed UTF-8):
+ *
+ * <pre>
+ *   int    MAGIC
+ *   short  VERSION
+ *   count, string*   literal pool (numbers and strings)
+ *   count, string*   function aliases
+ *   count, string*   variable names
+ *   node             the tree in pre-order
+ *
+ *   node := byte kind, [index into the pool for its kind], [child count, node*]
+ * </pre>
+ *
+ * The node kinds are stable codes independent of the token types generated by ANTLR, so grammar
+ * changes do not invalidate stored expressions.
+ *
+ * <p>Data is read as untrusted: counts and lengths are checked against the bytes left and against
+ * fixed limits before anything is allocated for them, trees are limited in depth, number literals
+ * must be written as the grammar writes them, and operators must have as many operands as the
+ * grammar gives them.
+ */
+final class ExpressionSerializer {
+  static final int MAGIC = 0x52505850; // "RPXP"
+  static final short VERSION = 1;
+
+  private static final byte KIND_NUMBER = 0;
+  private static final byte KIND_HEXNUMBER = 1;
+  private static final byte KIND_STRING = 2;
+  private static final byte KIND_TRUE = 3;
+  private static final byte KIND_FALSE = 4;
+  private static final byte KIND_VARIABLE = 5;
+  private static final byte KIND_PROMPTVARIABLE = 6;
+  private static final byte KIND_ASSIGNEE = 7;
+  private static final byte KIND_OPERATOR = 8;
+  private static final byte KIND_UNARY_OPERATOR = 9;
+  private static final byte KIND_FUNCTION = 10;
+
+  private static final int MAX_POOL_SIZE = 1 << 20;
+  private static final int MAX_STRING_LENGTH = 1 << 24;
+  private static final int MAX_DEPTH = 2048;
+
+  private static final int[] TOKEN_TYPES = {
+    NUMBER,
+    HEXNUMBER,
+    STRING,
+    TRUE,
+    FALSE,
+    VARIABLE,
+    PROMPTVARIABLE,
+    ASSIGNEE,
+    OPERATOR,
+    UNARY_OPERATOR,
+    FUNCTION
+  };
+
+  /**
+   * Deserialized expressions never see a token stream, they only need a parser for its {@link
+   * ASTFactory}, which is safe to share.
+   */
+  private static final ExpressionParser DETACHED_PARSER =
+      new ExpressionParser(new ExpressionLexer(new StringReader("")));
+
+  private ExpressionSerializer() {}
+
+  static void write(AST tree, DataOutput out) throws IOException {
+    Pool literals = new Pool();
+    Pool functions = new Pool();
+    Pool variables = new Pool();
+    collect(tree, literals, functions, variables);
+
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    literals.write(out);
+    functions.write(out);
+    variables.write(out);
+    writeNode(tree, out, literals, functions, variables);
+  }
+
+  /**
+   * Reads an expression.
+   *
+   * @param in the stream to read from
+   * @param length the most bytes the expression can take, or {@link Long#MAX_VALUE} if unknown
+   */
+  static Expression read(Parser parser, InputStream in, long length)
+      throws IOException, ParserException {
+    BoundedInputStream bounded = new BoundedInputStream(in, length);
+    return read(parser, new DataInputStream(bounded), bounded);
+  }
+
+  private static Expression read(Parser parser, DataInput in, BoundedInputStream bounded)
+      throws IOException, ParserException {
+    int magic = in.readInt();
+    if (magic != MAGIC)
+      throw new ParserException(String.format("Not a serialized expression: 0x%08x", magic));
+
+    short version = in.readShort();
+    if (version != VERSION)
+      throw new ParserException(
+          String.format("Unsupported serialized expression version: %d", version));
+
+    String[] literals = readStrings(in, bounded);
+    String[] functions = readStrings(in, bounded);
+    String[] variables = readStrings(in, bounded);
+
+    for (String alias : functions) {
+      if (parser.getFunction(alias) == null)
+        throw new ParserException(ErrorCode.UNDEFINED_FUNCTION, alias);
+    }
+
+    ASTFactory factory = DETACHED_PARSER.getASTFactory();
+    AST tree = readNode(in, bounded, factory, literals, functions, variables, 0);
+
+    return new Expression(parser, DETACHED_PARSER, tree);
+  }
+
+  private static void collect(AST node, Pool literals, Pool functions, Pool variables) {
+    for (; node != null; node = node.getNextSibling()) {
+      switch (node.getType()) {
+        case NUMBER:
+        case HEXNUMBER:
+        case STRING:
+          literals.add(node.getText());
+          break;
+        case VARIABLE:
+        case PROMPTVARIABLE:
+        case ASSIGNEE:
+          variables.add(node.getText());
+          break;
+        case OPERATOR:
+        case UNARY_OPERATOR:
+        case FUNCTION:
+          functions.add(node.getText());
+          collect(node.getFirstChild(), literals, functions, variables);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  private static void writeNode(
+      AST node, DataOutput out, Pool literals, Pool functions, Pool variables) throws IOException {
+    switch (node.getType()) {
+      case NUMBER:
+        out.writeByte(KIND_NUMBER);
+        writeVarInt(out, literals.indexOf(node.getText()));
+        return;
+      case HEXNUMBER:
+        out.writeByte(KIND_HEXNUMBER);
+        writeVarInt(out, literals.indexOf(node.getText()));
+        return;
+      case STRING:
+        out.writeByte(KIND_STRING);
+        writeVarInt(out, literals.indexOf(node.getText()));
+        return;
+      case TRUE:
+        out.writeByte(KIND_TRUE);
+        return;
+      case FALSE:
+        out.writeByte(KIND_FALSE);
+        return;
+      case VARIABLE:
+        out.writeByte(KIND_VARIABLE);
+        writeVarInt(out, variables.indexOf(node.getText()));
+        return;
+      case PROMPTVARIABLE:
+        out.writeByte(KIND_PROMPTVARIABLE);
+        writeVarInt(out, variables.indexOf(node.getText()));
+        return;
+      case ASSIGNEE:
+        out.writeByte(KIND_ASSIGNEE);
+        writeVarInt(out, variables.indexOf(node.getText()));
+        return;
+      case OPERATOR:
+        out.writeByte(KIND_OPERATOR);
+        break;
+      case UNARY_OPERATOR:
+        out.writeByte(KIND_UNARY_OPERATOR);
+        break;
+      case FUNCTION:
+        out.writeByte(KIND_FUNCTION);
+        break;
+      default:
+        throw new IOException(
+            String.format("Unknown node type: name=%s, type=%d", node.getText(), node.getType()));
+    }
+
+    writeVarInt(out, functions.indexOf(node.getText()));
+    writeVarInt(out, node.getNumberOfChildren());
+    for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      writeNode(child, out, literals, functions, variables);
+    }
+  }
+
+  private static AST readNode(
+      DataInput in,
+      BoundedInputStream bounded,
+      ASTFactory factory,
+      String[] literals,
+      String[] functions,
+      String[] variables,
+      int depth)
+      throws IOException, ParserException {
+    if (depth > MAX_DEPTH)
+      throw new ParserException(String.format("Serialized tree deeper than %d", MAX_DEPTH));
+
+    byte kind = in.readByte();
+    if (kind < 0 || kind >= TOKEN_TYPES.length)
+      throw new ParserException(String.format("Unknown serialized node kind: %d", kind));
+
+    int type = TOKEN_TYPES[kind];
+    switch (kind) {
+      case KIND_NUMBER:
+      case KIND_HEXNUMBER:
+        {
+          String text = lookup(literals, readVarInt(in));
+          if (kind == KIND_NUMBER ? !isNumber(text) : !isHexNumber(text))
+            throw new ParserException(String.format("Invalid serialized number: %s", text));
+          return factory.create(type, text);
+        }
+      case KIND_STRING:
+        return factory.create(type, lookup(literals, readVarInt(in)));
+      case KIND_TRUE:
+        return factory.create(type, "true");
+      case KIND_FALSE:
+        return factory.create(type, "false");
+      case KIND_VARIABLE:
+      case KIND_PROMPTVARIABLE:
+      case KIND_ASSIGNEE:
+        return factory.create(type, lookup(variables, readVarInt(in)));
+      default:
+        AST node = factory.create(type, lookup(functions, readVarInt(in)));
+        // every child takes at least one byte
+        int children = readLength(in, bounded.remaining(), "child count");
+        int operands = kind == KIND_OPERATOR ? 2 : kind == KIND_UNARY_OPERATOR ? 1 : -1;
+        if (operands >= 0 && children != operands)
+          throw new ParserException(
+              String.format(
+                  "Invalid serialized operand count for %s: %d", node.getText(), children));
+        AST last = null;
+        for (int i = 0; i < children; i++) {
+          AST child = readNode(in, bounded, factory, literals, functions, variables, depth + 1);
+          if (last == null) node.setFirstChild(child);
+          else last.setNextSibling(child);
+          last = child;
+        }
+        return node;
+    }
+  }
+
+  /** @return true if <code>text</code> is a NUMBER token: digits, optionally with a fraction */
+  private static boolean isNumber(String text) {
+    int dot = text.indexOf('.');
+    if (dot < 0) return isDigits(text, 0, text.length(), 10);
+    return isDigits(text, 0, dot, 10) && isDigits(text, dot + 1, text.length(), 10);
+  }
+
+  /** @return true if <code>text</code> is a HEXNUMBER token: 0x and hexadecimal digits */
+  private static boolean isHexNumber(String text) {
+    return text.startsWith("0x") && isDigits(text, 2, text.length(), 16);
+  }
+
+  private static boolean isDigits(String text, int start, int end, int radix) {
+    if (start >= end) return false;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      // Character.digit accepts digits of every script, the grammar only ASCII ones
+      if (c >= 0x80 || Character.digit(c, radix) < 0) return false;
+    }
+    return true;
+  }
+
+  private static String lookup(String[] pool, int index) throws ParserException {
+    if (index >= pool.length)
+      throw new ParserException(String.format("Invalid serialized pool index: %d", index));
+    return pool[index];
+  }
+
+  private static String[] readStrings(DataInput in, BoundedInputStream bounded)
+      throws IOException, ParserException {
+    // every string takes at least the byte of its length
+    String[] ret =
+        new String[readLength(in, Math.min(bounded.remaining(), MAX_POOL_SIZE), "pool size")];
+    for (int i = 0; i < ret.length; i++) {
+      byte[] bytes =
+          new byte[readLength(in, Math.min(bounded.remaining(), MAX_STRING_LENGTH), "length")];
+      in.readFully(bytes);
+      ret[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return ret;
+  }
+
+  /** Reads a count or length, which must be at most <code>max</code>. */
+  private static int readLength(DataInput in, long max, String what)
+      throws IOException, ParserException {
+    int value = readVarInt(in);
+    if (value > max)
+      throw new ParserException(String.format("Invalid serialized %s: %d", what, value));
+    return value;
+  }
+
+  static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  static int readVarInt(DataInput in) throws IOException, ParserException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) throw new ParserException("Malformed varint");
+        return value;
+      }
+    }
+    throw new ParserException("Malformed varint");
+  }
+
+  /** Counts the bytes read, never reading past a limit, and without buffering. */
+  private static final class BoundedInputStream extends FilterInputStream {
+    private long remaining;
+
+    BoundedInputStream(InputStream in, long limit) {
+      super(in);
+      this.remaining = limit;
+    }
+
+    long remaining() {
+      return remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) return -1;
+      int b = in.read();
+      if (b >= 0) remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      if (remaining <= 0) return -1;
+      int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n > 0) remaining -= n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+  /** Insertion ordered set of strings, each written once. */
+  private static final class Pool {
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    void add(String value) {
+      if (!indexes.containsKey(value)) {
+        indexes.put(value, values.size());
+        values.add(value);
+      }
+    }
+
+    int indexOf(String value) {
+      return indexes.get(value);
+    }
+
+    void write(DataOutput out) throws IOException {
+      writeVarInt(out, values.size());
+      for (String value : values) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+      }
+    }
+  }
+}
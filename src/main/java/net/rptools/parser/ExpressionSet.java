@@ -0,0 +1,146 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import antlr.collections.AST;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A group of expressions that are always evaluated together, in order, against the same resolver.
+ *
+ * <p>The expressions are merged into one graph in which deterministic subexpressions and variable
+ * references that appear in several of them are a single node. Each call to {@link
+ * #evaluate(VariableResolver)} walks that graph once in a fixed order, computing every node and
+ * resolving every variable only once, while keeping side effects in the order the expressions were
+ * added. Deterministic functions must therefore also be free of side effects, as a repeated call to
+ * one runs only once.
+ *
+ * <p>Expressions may be added and the set evaluated from several threads; an evaluation uses the
+ * expressions added before it started.
+ */
+public class ExpressionSet {
+  private final Parser parser;
+  private final List<Expression> expressions = new ArrayList<>();
+
+  /**
+   * The graph of the expressions, built when first needed after they or the functions of the parser
+   * change.
+   */
+  private volatile Plan plan;
+
+  /**
+   * A graph, the variables and prompt variables all its expressions may read, and the version of
+   * the functions of the parser it calls.
+   */
+  private static final class Plan {
+    private final int functionsVersion;
+    private final ExpressionDag dag;
+    private final Set<String> prefetchVariables;
+    private final Set<String> prefetchPromptVariables;
+
+    Plan(
+        int functionsVersion,
+        ExpressionDag dag,
+        Set<String> prefetchVariables,
+        Set<String> prefetchPromptVariables) {
+      this.functionsVersion = functionsVersion;
+      this.dag = dag;
+      this.prefetchVariables = prefetchVariables;
+      this.prefetchPromptVariables = prefetchPromptVariables;
+    }
+  }
+
+  public ExpressionSet(Parser parser) {
+    this.parser = parser;
+  }
+
+  public Parser getParser() {
+    return parser;
+  }
+
+  public Expression add(String expression) throws ParserException {
+    Expression xp = parser.parseExpression(expression);
+    add(xp);
+    return xp;
+  }
+
+  public void add(Expression expression) {
+    if (expression.getParser() != parser)
+      throw new IllegalArgumentException("Expression belongs to a different parser");
+
+    synchronized (expressions) {
+      expressions.add(expression);
+      plan = null;
+    }
+  }
+
+  /** @return a copy of the expressions, in the order they were added */
+  public List<Expression> getExpressions() {
+    synchronized (expressions) {
+      return List.copyOf(expressions);
+    }
+  }
+
+  /**
+   * Evaluates every expression in the order they were added.
+   *
+   * @param resolver the resolver used by all expressions
+   * @return the result of each expression, in the same order
+   * @throws ParserException if any expression fails
+   */
+  public List<Object> evaluate(VariableResolver resolver) throws ParserException {
+    Plan current = getPlan();
+    PrefetchScope scope =
+        PrefetchScope.open(resolver, current.prefetchVariables, current.prefetchPromptVariables);
+    try {
+      return current.dag.evaluate(resolver);
+    } finally {
+      if (scope != null) scope.close();
+    }
+  }
+
+  private Plan getPlan() {
+    int version = parser.getFunctionsVersion();
+    Plan result = plan;
+    if (result != null && result.functionsVersion == version) return result;
+
+    synchronized (expressions) {
+      result = plan;
+      if (result == null || result.functionsVersion != version) {
+        List<AST> trees = new ArrayList<>(expressions.size());
+        Set<String> variables = new LinkedHashSet<>();
+        Set<String> promptVariables = new LinkedHashSet<>();
+        for (Expression expression : expressions) {
+          trees.add(expression.getTree());
+          variables.addAll(expression.getFeatures().getPrefetchVariables());
+          promptVariables.addAll(expression.getFeatures().getPrefetchPromptVariables());
+        }
+
+        result =
+            new Plan(
+                version,
+                ExpressionDag.build(parser, trees),
+                Collections.unmodifiableSet(variables),
+                Collections.unmodifiableSet(promptVariables));
+        plan = result;
+      }
+    }
+    return result;
+  }
+}
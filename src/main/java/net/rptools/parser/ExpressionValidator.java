@@ -0,0 +1,126 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import static net.rptools.parser.ExpressionParserTokenTypes.FUNCTION;
+import static net.rptools.parser.ExpressionParserTokenTypes.OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.UNARY_OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.VARIABLE;
+
+import antlr.collections.AST;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import net.rptools.parser.function.AbstractFunction;
+import net.rptools.parser.function.EvaluationException;
+import net.rptools.parser.function.Function;
+import net.rptools.parser.function.ParameterException;
+import net.rptools.parser.function.impl.Assignment;
+
+/**
+ * Finds the errors that evaluating a tree would certainly run into, without evaluating it: calls to
+ * undefined functions, calls with a number of arguments the function does not accept, and reads of
+ * variables that are neither defined beforehand nor assigned earlier in the tree.
+ *
+ * <p>Once the tree may have assigned a variable whose name is not spelled out in it, through <code>
+ * eval</code> or an assignment to a computed name, variables are no longer checked.
+ */
+final class ExpressionValidator<E extends Exception> {
+  /** Tells which variables are defined before the tree is evaluated. */
+  interface Variables<E extends Exception> {
+    boolean isDefined(String name) throws E;
+  }
+
+  private final Parser parser;
+  private final Variables<E> variables;
+  private final Set<String> assigned = new HashSet<>();
+  private final List<ParserException> problems = new ArrayList<>();
+  private boolean anyAssigned;
+
+  private ExpressionValidator(Parser parser, Variables<E> variables) {
+    this.parser = parser;
+    this.variables = variables;
+  }
+
+  /**
+   * @param parser the parser providing the functions
+   * @param tree the tree to check
+   * @param variables the variables defined beforehand, or null to skip checking variables
+   * @return the problems found, in evaluation order
+   * @throws E if <code>variables</code> fails
+   */
+  static <E extends Exception> List<ParserException> validate(
+      Parser parser, AST tree, Variables<E> variables) throws E {
+    ExpressionValidator<E> validator = new ExpressionValidator<>(parser, variables);
+    validator.visit(tree);
+    return validator.problems;
+  }
+
+  private void visit(AST node) throws E {
+    switch (node.getType()) {
+      case VARIABLE:
+        {
+          String name = node.getText();
+          if (variables == null
+              || anyAssigned
+              || assigned.contains(ExpressionDag.normalize(name))
+              || variables.isDefined(name)) return;
+          problems.add(new EvaluationException(ErrorCode.UNDEFINED_VARIABLE, name));
+          return;
+        }
+      case UNARY_OPERATOR:
+      case OPERATOR:
+      case FUNCTION:
+        {
+          int count = 0;
+          for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            visit(child);
+            count++;
+          }
+
+          String name = node.getText();
+          Function function = parser.getFunction(name);
+          if (function == null) {
+            problems.add(
+                new EvaluationException(
+                    node.getType() == UNARY_OPERATOR
+                        ? ErrorCode.UNDEFINED_UNARY_FUNCTION
+                        : ErrorCode.UNDEFINED_FUNCTION,
+                    name));
+            return;
+          }
+
+          ParameterException arity =
+              AbstractFunction.checkParameterCount(
+                  name,
+                  count,
+                  function.getMinimumParameterCount(),
+                  function.getMaximumParameterCount());
+          if (arity != null) problems.add(arity);
+
+          if (ExpressionDag.mayAssignVariables(function)) {
+            String target =
+                function instanceof Assignment ? ExpressionDag.assignmentTarget(node) : null;
+            if (target == null) anyAssigned = true;
+            else assigned.add(target);
+          }
+          return;
+        }
+      default:
+        return;
+    }
+  }
+}
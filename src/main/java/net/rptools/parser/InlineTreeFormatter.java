@@ -17,48 +17,86 @@ package net.rptools.parser;
 import static net.rptools.parser.ExpressionParserTokenTypes.*;
 
 import antlr.collections.AST;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.Arrays;
 
 public class InlineTreeFormatter {
 
-  private static Map<String, Integer> ORDER_OF_OPERATIONS = new HashMap<String, Integer>();
+  // P(1) E(2) MD(3) AS(4):
+  // provide order-of for all operators as per
+  // https://en.wikipedia.org/wiki/Order_of_operations#Programming_languages
+  // Note that parser historically places operator = first
+  //
+  // All operators share the OPERATOR token type in the tree, so the tables are indexed by the
+  // characters of the operator instead: one table for single character operators, one for the
+  // operators ending in '=' and one for the doubled operators.
+  private static final int[] SINGLE_CHAR_ORDER = new int[128];
+  private static final int[] EQUALS_SUFFIX_ORDER = new int[128];
+  private static final int[] DOUBLED_CHAR_ORDER = new int[128];
 
   static {
-    // P(1) E(2) MD(3) AS(4):
-    // provide order-of for all operators as per
-    // https://en.wikipedia.org/wiki/Order_of_operations#Programming_languages
-    // Note that parser historically places operator = first
-    ORDER_OF_OPERATIONS.put("=", 1);
-    ORDER_OF_OPERATIONS.put("^", 2);
-    ORDER_OF_OPERATIONS.put("*", 3);
-    ORDER_OF_OPERATIONS.put("/", 3);
-    ORDER_OF_OPERATIONS.put("+", 4);
-    ORDER_OF_OPERATIONS.put("-", 4);
-    ORDER_OF_OPERATIONS.put("<", 6);
-    ORDER_OF_OPERATIONS.put("<=", 6);
-    ORDER_OF_OPERATIONS.put(">", 6);
-    ORDER_OF_OPERATIONS.put(">=", 6);
-    ORDER_OF_OPERATIONS.put("==", 7);
-    ORDER_OF_OPERATIONS.put("!=", 7);
-    ORDER_OF_OPERATIONS.put("&&", 11);
-    ORDER_OF_OPERATIONS.put("||", 13);
+    Arrays.fill(SINGLE_CHAR_ORDER, Integer.MAX_VALUE);
+    Arrays.fill(EQUALS_SUFFIX_ORDER, Integer.MAX_VALUE);
+    Arrays.fill(DOUBLED_CHAR_ORDER, Integer.MAX_VALUE);
+
+    SINGLE_CHAR_ORDER['='] = 1;
+    SINGLE_CHAR_ORDER['^'] = 2;
+    SINGLE_CHAR_ORDER['*'] = 3;
+    SINGLE_CHAR_ORDER['/'] = 3;
+    SINGLE_CHAR_ORDER['+'] = 4;
+    SINGLE_CHAR_ORDER['-'] = 4;
+    SINGLE_CHAR_ORDER['<'] = 6;
+    SINGLE_CHAR_ORDER['>'] = 6;
+    EQUALS_SUFFIX_ORDER['<'] = 6;
+    EQUALS_SUFFIX_ORDER['>'] = 6;
+    EQUALS_SUFFIX_ORDER['='] = 7;
+    EQUALS_SUFFIX_ORDER['!'] = 7;
+    DOUBLED_CHAR_ORDER['&'] = 11;
+    DOUBLED_CHAR_ORDER['|'] = 13;
   }
 
   public String format(AST node) {
     StringBuilder sb = new StringBuilder();
-    format(node, sb);
+    try {
+      format(node, sb);
+    } catch (IOException e) {
+      // StringBuilder never throws
+      throw new IllegalStateException(e);
+    }
 
     return sb.toString();
   }
 
+  /**
+   * Writes the inline form of the tree to <code>out</code> without building an intermediate string.
+   *
+   * @param node the root of the tree to format
+   * @param out the buffer or writer to append to
+   * @throws IOException if <code>out</code> fails
+   */
+  public void format(AST node, Appendable out) throws IOException {
+    formatNode(node, out);
+  }
+
   private int getOrderOfOperator(String op) {
-    Integer result = ORDER_OF_OPERATIONS.get(op);
     // revert to a default high order of for any not mapped operator
-    return result == null ? Integer.MAX_VALUE : result;
+    char first = op.isEmpty() ? 0 : op.charAt(0);
+    if (first >= 128) return Integer.MAX_VALUE;
+
+    switch (op.length()) {
+      case 1:
+        return SINGLE_CHAR_ORDER[first];
+      case 2:
+        char second = op.charAt(1);
+        if (second == '=') return EQUALS_SUFFIX_ORDER[first];
+        if (second == first) return DOUBLED_CHAR_ORDER[first];
+        return Integer.MAX_VALUE;
+      default:
+        return Integer.MAX_VALUE;
+    }
   }
 
-  private void format(AST node, StringBuilder sb) {
+  private void formatNode(AST node, Appendable sb) throws IOException {
     if (node == null) return;
 
     switch (node.getType()) {
@@ -78,7 +116,7 @@ public class InlineTreeFormatter {
           if (!"+".equals(node.getText())) {
             sb.append(node.getText());
           }
-          format(node.getFirstChild(), sb);
+          formatNode(node.getFirstChild(), sb);
           return;
         }
       case OPERATOR:
@@ -90,10 +128,10 @@ public class InlineTreeFormatter {
             if (child.getType() == OPERATOR) {
               int childLevel = getOrderOfOperator(child.getText());
               if (currentLevel < childLevel) sb.append("(");
-              format(child, sb);
+              formatNode(child, sb);
               if (currentLevel < childLevel) sb.append(")");
             } else {
-              format(child, sb);
+              formatNode(child, sb);
             }
 
             child = child.getNextSibling();
@@ -108,7 +146,7 @@ public class InlineTreeFormatter {
           sb.append(node.getText()).append("(");
           AST child = node.getFirstChild();
           while (child != null) {
-            format(child, sb);
+            formatNode(child, sb);
             child = child.getNextSibling();
             if (child != null) sb.append(", ");
           }
@@ -25,6 +25,19 @@ import net.rptools.CaseInsensitiveHashMap;
  */
 public class MapVariableResolver implements VariableResolver {
   private final Map<String, Object> variables = new CaseInsensitiveHashMap<Object>();
+  private final Map<String, ValueType> types = new CaseInsensitiveHashMap<ValueType>();
+
+  /**
+   * Declares the type of a variable. Once declared, only values of that type can be set.
+   *
+   * @param name the name of the variable
+   * @param type the type of its values
+   * @throws ParserException if the variable already holds a value of another type
+   */
+  public void declareVariable(String name, ValueType type) throws ParserException {
+    if (variables.containsKey(name)) checkType(name, type, variables.get(name));
+    types.put(name, type);
+  }
 
   public boolean containsVariable(String name) throws ParserException {
     return containsVariable(name, VariableModifiers.None);
@@ -44,6 +57,8 @@ public class MapVariableResolver implements VariableResolver {
 
   public void setVariable(String name, VariableModifiers vType, Object value)
       throws ParserException {
+    ValueType type = types.get(name);
+    if (type != null) checkType(name, type, value);
     variables.put(name, value);
   }
 
@@ -55,4 +70,18 @@ public class MapVariableResolver implements VariableResolver {
   public Set<String> getVariables() {
     return Collections.unmodifiableSet(variables.keySet());
   }
+
+  @Override
+  public ValueType getVariableType(String name) {
+    ValueType type = types.get(name);
+    return type == null ? ValueType.UNKNOWN : type;
+  }
+
+  private static void checkType(String name, ValueType type, Object value) throws ParserException {
+    if (!type.isInstance(value))
+      throw new ParserException(
+          String.format(
+              "Illegal value type %s for variable %s, expecting %s",
+              value == null ? "null" : value.getClass().getName(), name, type));
+  }
 }
@@ -0,0 +1,238 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.lang.invoke.MethodHandle;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import net.rptools.parser.function.EvaluationException;
+
+/**
+ * A resolver that reads dotted variables such as <code>token.hp</code> straight from Java objects.
+ * The first part of the name is an object added with {@link #putObject(String, Object)}; each
+ * further part is a property of the value before it, read through a getter, a method without
+ * parameters named after a field (as records have), a public field, or a key of a {@link Map}. The
+ * accessors of each class are found once and kept as method handles, so reading a variable costs a
+ * few method calls and no reflection.
+ *
+ * <p>Numbers, booleans, characters and enums are turned into the values expressions work with:
+ * {@link BigDecimal} numbers, with booleans as 1 or 0, and strings. Other values are returned as
+ * they are. A path reaching a null before its last part is null too, and counts as defined, so
+ * <code>token.target.hp</code> is null while the token has no target. A property that does not
+ * exist is undefined. Names ignore case, except for map keys. Variables not starting with an object
+ * are left to another resolver, which also takes every assignment, prefetch and type declaration;
+ * the properties of objects cannot be assigned.
+ */
+public class ObjectVariableResolver implements VariableResolver {
+  private static final PropertyAccessors accessors = new PropertyAccessors();
+
+  /** A dotted name split into its parts, as written and normalized. */
+  private static final class Path {
+    private final String[] parts;
+    private final String[] keys;
+
+    Path(String name) {
+      parts = name.split("\\.", -1);
+      keys = new String[parts.length];
+      for (int i = 0; i < parts.length; i++) keys[i] = ExpressionDag.normalize(parts[i]);
+    }
+  }
+
+  private final VariableResolver variables;
+  private final Map<String, Object> objects = new ConcurrentHashMap<>();
+  /** The split names that start with an object; other names are not kept, so it stays small. */
+  private final Map<String, Path> paths = new ConcurrentHashMap<>();
+
+  public ObjectVariableResolver() {
+    this(new MapVariableResolver());
+  }
+
+  /** @param variables the resolver for variables that do not start with an object */
+  public ObjectVariableResolver(VariableResolver variables) {
+    this.variables = variables;
+  }
+
+  public VariableResolver getVariableResolver() {
+    return variables;
+  }
+
+  /**
+   * Makes an object and its properties readable as variables.
+   *
+   * @param name the name of the object, which must not contain dots
+   * @param object the object, which is read each time a variable is, never copied
+   */
+  public void putObject(String name, Object object) {
+    if (name.indexOf('.') >= 0) throw new IllegalArgumentException("Object names cannot have dots");
+    objects.put(ExpressionDag.normalize(name), object);
+  }
+
+  public void removeObject(String name) {
+    String key = ExpressionDag.normalize(name);
+    objects.remove(key);
+    paths.values().removeIf(path -> path.keys[0].equals(key));
+  }
+
+  @Override
+  public Object lookupVariable(String name, VariableModifiers vType) throws ParserException {
+    Path path = paths.get(name);
+    if (path == null) {
+      if (!isObjectPath(name)) return variables.lookupVariable(name, vType);
+      path = paths.computeIfAbsent(name, Path::new);
+    }
+    Object value = objects.get(path.keys[0]);
+    if (value == null) return variables.lookupVariable(name, vType);
+
+    for (int i = 1; i < path.keys.length && value != null; i++) {
+      value = property(value, path, i);
+      if (value == UNDEFINED) return UNDEFINED;
+    }
+    return toValue(value);
+  }
+
+  private static Object property(Object object, Path path, int index) throws ParserException {
+    if (object instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) object;
+      String key = path.parts[index];
+      Object value = map.get(key);
+      return value != null || map.containsKey(key) ? value : UNDEFINED;
+    }
+
+    MethodHandle accessor = accessors.get(object.getClass()).get(path.keys[index]);
+    if (accessor == null) return UNDEFINED;
+    try {
+      return (Object) accessor.invokeExact(object);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new EvaluationException(t);
+    }
+  }
+
+  /** @return the value expressions should see for a property value */
+  private static Object toValue(Object value) {
+    if (value instanceof BigDecimal) return value;
+    if (value instanceof Integer
+        || value instanceof Long
+        || value instanceof Short
+        || value instanceof Byte) return BigDecimal.valueOf(((Number) value).longValue());
+    if (value instanceof Double) {
+      double d = (Double) value;
+      return Double.isFinite(d) ? BigDecimal.valueOf(d) : value;
+    }
+    if (value instanceof Float) {
+      // through its own shortest text, so that 0.1f reads as 0.1 rather than its double expansion
+      float f = (Float) value;
+      return Float.isFinite(f) ? new BigDecimal(Float.toString(f)) : value;
+    }
+    if (value instanceof BigInteger) return new BigDecimal((BigInteger) value);
+    if (value instanceof Boolean) return (Boolean) value ? BigDecimal.ONE : BigDecimal.ZERO;
+    if (value instanceof Character || value instanceof CharSequence) return value.toString();
+    if (value instanceof Enum) return ((Enum<?>) value).name();
+    return value;
+  }
+
+  public boolean containsVariable(String name) throws ParserException {
+    return containsVariable(name, VariableModifiers.None);
+  }
+
+  public void setVariable(String name, Object value) throws ParserException {
+    setVariable(name, VariableModifiers.None, value);
+  }
+
+  public Object getVariable(String variableName) throws ParserException {
+    return getVariable(variableName, VariableModifiers.None);
+  }
+
+  public boolean containsVariable(String name, VariableModifiers vType) throws ParserException {
+    return lookupVariable(name, vType) != UNDEFINED;
+  }
+
+  public void setVariable(String name, VariableModifiers vType, Object value)
+      throws ParserException {
+    checkWritable(name);
+    variables.setVariable(name, vType, value);
+  }
+
+  @Override
+  public boolean compareAndSetVariable(String name, Object expected, Object value)
+      throws ParserException {
+    checkWritable(name);
+    return variables.compareAndSetVariable(name, expected, value);
+  }
+
+  @Override
+  public Object updateVariable(String name, VariableUpdate update) throws ParserException {
+    checkWritable(name);
+    return variables.updateVariable(name, update);
+  }
+
+  /** Passes on the names that do not start with an object. */
+  @Override
+  public void prefetch(Set<String> names, Set<String> promptNames) throws ParserException {
+    variables.prefetch(withoutObjects(names), withoutObjects(promptNames));
+  }
+
+  @Override
+  public ValueType getVariableType(String name) throws ParserException {
+    return isObjectPath(name) ? ValueType.UNKNOWN : variables.getVariableType(name);
+  }
+
+  private boolean isObjectPath(String name) {
+    if (objects.isEmpty()) return false;
+    Path path = paths.get(name);
+    if (path != null) return objects.containsKey(path.keys[0]);
+
+    int dot = name.indexOf('.');
+    return objects.containsKey(ExpressionDag.normalize(dot < 0 ? name : name.substring(0, dot)));
+  }
+
+  /** @return the number of split names kept */
+  int getPathCount() {
+    return paths.size();
+  }
+
+  private void checkWritable(String name) throws ParserException {
+    if (isObjectPath(name)) throw new EvaluationException(ErrorCode.READ_ONLY_VARIABLE, name);
+  }
+
+  private Set<String> withoutObjects(Set<String> names) {
+    Set<String> result = null;
+    for (String name : names) {
+      if (!isObjectPath(name)) continue;
+      if (result == null) result = new LinkedHashSet<>(names);
+      result.remove(name);
+    }
+    return result == null ? names : Collections.unmodifiableSet(result);
+  }
+
+  public Object getVariable(String variableName, VariableModifiers vType) throws ParserException {
+    Object value = lookupVariable(variableName, vType);
+    return value == UNDEFINED ? null : value;
+  }
+
+  /** @return the variables of the other resolver and the names of the objects */
+  @Override
+  public Set<String> getVariables() {
+    Set<String> names = new LinkedHashSet<>(variables.getVariables());
+    names.addAll(objects.keySet());
+    return Collections.unmodifiableSet(names);
+  }
+}
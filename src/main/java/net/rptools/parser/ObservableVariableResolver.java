@@ -0,0 +1,109 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link VariableResolver} that passes every call on to another resolver and tells its {@link
+ * VariableListener}s about each variable that is set.
+ */
+public class ObservableVariableResolver implements VariableResolver {
+  private final VariableResolver delegate;
+  private final List<VariableListener> listeners = new CopyOnWriteArrayList<>();
+
+  public ObservableVariableResolver() {
+    this(new MapVariableResolver());
+  }
+
+  public ObservableVariableResolver(VariableResolver delegate) {
+    this.delegate = delegate;
+  }
+
+  public VariableResolver getDelegate() {
+    return delegate;
+  }
+
+  public void addListener(VariableListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(VariableListener listener) {
+    listeners.remove(listener);
+  }
+
+  public boolean containsVariable(String name) throws ParserException {
+    return containsVariable(name, VariableModifiers.None);
+  }
+
+  public void setVariable(String name, Object value) throws ParserException {
+    setVariable(name, VariableModifiers.None, value);
+  }
+
+  public Object getVariable(String variableName) throws ParserException {
+    return getVariable(variableName, VariableModifiers.None);
+  }
+
+  public boolean containsVariable(String name, VariableModifiers vType) throws ParserException {
+    return delegate.containsVariable(name, vType);
+  }
+
+  public void setVariable(String name, VariableModifiers vType, Object value)
+      throws ParserException {
+    delegate.setVariable(name, vType, value);
+    for (VariableListener listener : listeners) listener.variableChanged(name, value);
+  }
+
+  public Object getVariable(String variableName, VariableModifiers vType) throws ParserException {
+    return delegate.getVariable(variableName, vType);
+  }
+
+  @Override
+  public Object lookupVariable(String name, VariableModifiers vType) throws ParserException {
+    return delegate.lookupVariable(name, vType);
+  }
+
+  @Override
+  public boolean compareAndSetVariable(String name, Object expected, Object value)
+      throws ParserException {
+    if (!delegate.compareAndSetVariable(name, expected, value)) return false;
+    for (VariableListener listener : listeners) listener.variableChanged(name, value);
+    return true;
+  }
+
+  @Override
+  public Object updateVariable(String name, VariableUpdate update) throws ParserException {
+    Object value = delegate.updateVariable(name, update);
+    for (VariableListener listener : listeners) listener.variableChanged(name, value);
+    return value;
+  }
+
+  @Override
+  public void prefetch(Set<String> names, Set<String> promptNames) throws ParserException {
+    delegate.prefetch(names, promptNames);
+  }
+
+  @Override
+  public Set<String> getVariables() {
+    return delegate.getVariables();
+  }
+
+  @Override
+  public ValueType getVariableType(String name) throws ParserException {
+    return delegate.getVariableType(name);
+  }
+}
@@ -17,15 +17,21 @@ package net.rptools.parser;
 import antlr.CommonAST;
 import antlr.RecognitionException;
 import antlr.TokenStreamException;
+import antlr.collections.AST;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import net.rptools.CaseInsensitiveHashMap;
+import net.rptools.parser.BoundedCache.EvictionPolicy;
 import net.rptools.parser.function.Function;
+import net.rptools.parser.function.MemoizedFunction;
 import net.rptools.parser.function.impl.AbsoluteValue;
+import net.rptools.parser.function.impl.AddAndGet;
 import net.rptools.parser.function.impl.Addition;
 import net.rptools.parser.function.impl.And;
 import net.rptools.parser.function.impl.Assignment;
@@ -34,6 +40,7 @@ import net.rptools.parser.function.impl.BitwiseNot;
 import net.rptools.parser.function.impl.BitwiseOr;
 import net.rptools.parser.function.impl.BitwiseXor;
 import net.rptools.parser.function.impl.Ceiling;
+import net.rptools.parser.function.impl.CompareAndSet;
 import net.rptools.parser.function.impl.Division;
 import net.rptools.parser.function.impl.Equals;
 import net.rptools.parser.function.impl.Eval;
@@ -63,10 +70,22 @@ import net.rptools.parser.function.impl.Subtraction;
 import net.rptools.parser.transform.Transformer;
 
 public class Parser {
+  private static final int FEATURES_CACHE_SIZE = 256;
+
   private final Map<String, Function> functions = new CaseInsensitiveHashMap<>();
 
+  /** Changes whenever a function is added, so that what was derived from the old ones is redone. */
+  private volatile int functionsVersion;
+
   private final List<Transformer> transforms = new ArrayList<>();
 
+  /**
+   * The features of recently parsed expressions, by the text they were parsed from, so that <code>
+   * eval</code> does not work them out again each time it parses the same string.
+   */
+  private final BoundedCache<String, ExpressionFeatures> featuresBySource =
+      new BoundedCache<>(FEATURES_CACHE_SIZE);
+
   private final EvaluationTreeParser evaluationTreeParser;
 
   ///////////////////////////////////////////////////////////////////////////
@@ -147,10 +166,47 @@ public class Parser {
     addFunction(new Eval());
   }
 
+  /**
+   * Adds the <code>compareAndSet</code> and <code>addAndGet</code> functions, which update
+   * variables atomically when the resolver supports it, such as {@link ConcurrentVariableResolver}.
+   * They are not among the default functions.
+   */
+  public void addAtomicFunctions() {
+    addFunction(new CompareAndSet());
+    addFunction(new AddAndGet());
+  }
+
   public void addFunction(Function function) {
     for (String alias : function.getAliases()) {
       functions.put(alias, function);
     }
+    functionsVersion++;
+  }
+
+  /**
+   * Adds a deterministic function whose results are remembered by its arguments.
+   *
+   * @param function the function
+   * @param maximumSize the most results to keep
+   * @return the memoizing function that was added, which reports how often results were reused
+   */
+  public MemoizedFunction addMemoizedFunction(Function function, int maximumSize) {
+    return addMemoizedFunction(function, maximumSize, EvictionPolicy.LEAST_RECENTLY_USED);
+  }
+
+  /**
+   * Adds a deterministic function whose results are remembered by its arguments.
+   *
+   * @param function the function
+   * @param maximumSize the most results to keep
+   * @param policy which result to drop when there is no room left
+   * @return the memoizing function that was added, which reports how often results were reused
+   */
+  public MemoizedFunction addMemoizedFunction(
+      Function function, int maximumSize, EvictionPolicy policy) {
+    MemoizedFunction memoized = new MemoizedFunction(function, maximumSize, policy);
+    addFunction(memoized);
+    return memoized;
   }
 
   public void addFunctions(Function[] functions) {
@@ -165,6 +221,11 @@ public class Parser {
     }
   }
 
+  /** @return a number that changes whenever a function is added or replaced */
+  int getFunctionsVersion() {
+    return functionsVersion;
+  }
+
   public Function getFunction(String functionName) {
     return functions.get(functionName);
   }
@@ -178,6 +239,8 @@ public class Parser {
   ///////////////////////////////////////////////////////////////////////////
   public void addTransformer(Transformer t) {
     transforms.add(t);
+    // the same text may now parse differently
+    featuresBySource.clear();
   }
 
   private String applyTransforms(String expression) {
@@ -208,7 +271,7 @@ public class Parser {
       parser.expression();
       CommonAST t = (CommonAST) parser.getAST();
 
-      return new Expression(this, parser, t);
+      return new Expression(this, parser, t, expression);
 
     } catch (RecognitionException e) {
       throw new ParserException(e);
@@ -216,4 +279,47 @@ public class Parser {
       throw new ParserException(e);
     }
   }
+
+  /**
+   * @param source the text <code>tree</code> was parsed from
+   * @param tree the tree
+   * @return the features of the tree, found again only if the functions have changed since
+   */
+  ExpressionFeatures getFeatures(String source, AST tree) {
+    ExpressionFeatures result = featuresBySource.get(source);
+    if (result == null || result.getFunctionsVersion() != functionsVersion) {
+      result = ExpressionFeatures.of(this, tree);
+      featuresBySource.put(source, result);
+    }
+    return result;
+  }
+
+  /**
+   * @param source the text of an expression
+   * @return the features of the expression, which is only parsed if they are not known
+   * @throws ParserException if <code>source</code> needs parsing and is not an expression
+   */
+  ExpressionFeatures getFeatures(String source) throws ParserException {
+    ExpressionFeatures result = featuresBySource.get(source);
+    if (result != null && result.getFunctionsVersion() == functionsVersion) return result;
+    return parseExpression(source).getFeatures();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // readExpression
+  ///////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Reads an expression written by {@link Expression#writeTo(java.io.OutputStream)}. Every function
+   * it calls must be registered with this parser.
+   *
+   * @param in the stream to read from; it is not closed
+   * @return the expression
+   * @throws IOException if reading from <code>in</code> fails
+   * @throws ParserException if the data is not a supported serialized expression, or refers to an
+   *     undefined function
+   */
+  public Expression readExpression(InputStream in) throws IOException, ParserException {
+    return ExpressionSerializer.read(this, in, Long.MAX_VALUE);
+  }
 }
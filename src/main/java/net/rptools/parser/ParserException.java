@@ -14,6 +14,8 @@
  */
 package net.rptools.parser;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,15 +23,54 @@ public class ParserException extends Exception {
 
   private static final long serialVersionUID = 1959865440126054220L;
 
+  private final ErrorCode errorCode;
+
+  /**
+   * The values filling in the message template of the error code, until it has been built. Guarded
+   * by the lock of the exception, as is the message built from them.
+   */
+  private transient Object[] arguments;
+
+  private String formattedMessage;
+
   /** The list of macro calls that resulted in the error. */
-  private final List<String> macroStackTrace = new ArrayList<>();
+  private List<String> macroStackTrace;
 
   public ParserException(Throwable cause) {
     super(cause);
+    this.errorCode = ErrorCode.GENERAL;
   }
 
   public ParserException(String msg) {
     super(msg);
+    this.errorCode = ErrorCode.GENERAL;
+  }
+
+  /**
+   * Creates an exception without a stack trace, whose message is only formatted if it is asked for.
+   * Use it for errors caused by bad input, which may be common and are reported by their message.
+   *
+   * @param errorCode the kind of error
+   * @param arguments the values for the message template of <code>errorCode</code>
+   */
+  public ParserException(ErrorCode errorCode, Object... arguments) {
+    super(null, null, false, false);
+    this.errorCode = errorCode;
+    this.arguments = arguments;
+  }
+
+  public ErrorCode getErrorCode() {
+    return errorCode;
+  }
+
+  @Override
+  public synchronized String getMessage() {
+    if (arguments == null) return formattedMessage == null ? super.getMessage() : formattedMessage;
+
+    String message = errorCode.format(arguments);
+    formattedMessage = message;
+    arguments = null;
+    return message;
   }
 
   /**
@@ -38,11 +79,19 @@ public class ParserException extends Exception {
    * @param name the macro or UDF name
    */
   public void addMacro(String name) {
+    if (macroStackTrace == null) macroStackTrace = new ArrayList<>();
     macroStackTrace.add(name);
   }
 
   /** @return an array representing the macro stack trace. */
   public String[] getMacroStackTrace() {
+    if (macroStackTrace == null) return new String[0];
     return macroStackTrace.toArray(new String[0]);
   }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    // the arguments need not be serializable, so send the message instead
+    getMessage();
+    out.defaultWriteObject();
+  }
 }
@@ -0,0 +1,220 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable map from strings, where adding an entry makes a new map sharing all but a few nodes
+ * with the old one. It is a hash array mapped trie: each level of the tree is indexed by five bits
+ * of the hash of the key, so lookups take a handful of steps however many entries there are.
+ *
+ * @param <V> the type of the values
+ */
+final class PersistentMap<V> {
+  private static final PersistentMap<?> EMPTY = new PersistentMap<>(null, 0);
+
+  private final Node root;
+  private final int size;
+
+  private PersistentMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <V> PersistentMap<V> empty() {
+    return (PersistentMap<V>) EMPTY;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** @return the value of <code>key</code>, or null if there is none */
+  @SuppressWarnings("unchecked")
+  V get(String key) {
+    return root == null ? null : (V) root.find(key, key.hashCode(), 0);
+  }
+
+  /** @return a map with <code>value</code> stored for <code>key</code>, which must not be null */
+  PersistentMap<V> put(String key, V value) {
+    boolean[] added = new boolean[1];
+    Node start = root == null ? BitmapNode.EMPTY : root;
+    Node node = start.put(key, key.hashCode(), 0, value, added);
+    if (node == root) return this;
+    return new PersistentMap<>(node, added[0] ? size + 1 : size);
+  }
+
+  /** @return a map with every entry of <code>other</code> added, replacing any with the same key */
+  @SuppressWarnings("unchecked")
+  PersistentMap<V> putAll(PersistentMap<? extends V> other) {
+    PersistentMap<?>[] result = {this};
+    other.forEach((key, value) -> result[0] = ((PersistentMap<V>) result[0]).put(key, value));
+    return (PersistentMap<V>) result[0];
+  }
+
+  @SuppressWarnings("unchecked")
+  void forEach(BiConsumer<String, ? super V> action) {
+    if (root != null) root.forEach((BiConsumer<String, Object>) action);
+  }
+
+  private abstract static class Node {
+    abstract Object find(String key, int hash, int shift);
+
+    abstract Node put(String key, int hash, int shift, Object value, boolean[] added);
+
+    abstract void forEach(BiConsumer<String, Object> action);
+  }
+
+  /**
+   * A level of the trie. Its array holds a pair of slots for each bit set in the bitmap: a key and
+   * its value, or null and the node for the keys sharing those bits of their hash.
+   */
+  private static final class BitmapNode extends Node {
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private final int bitmap;
+    private final Object[] array;
+
+    BitmapNode(int bitmap, Object[] array) {
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    @Override
+    Object find(String key, int hash, int shift) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) return null;
+
+      int index = index(bit);
+      Object k = array[2 * index];
+      Object v = array[2 * index + 1];
+      if (k == null) return ((Node) v).find(key, hash, shift + 5);
+      return key.equals(k) ? v : null;
+    }
+
+    @Override
+    Node put(String key, int hash, int shift, Object value, boolean[] added) {
+      int bit = bit(hash, shift);
+      int index = index(bit);
+
+      if ((bitmap & bit) == 0) {
+        added[0] = true;
+        Object[] copy = new Object[array.length + 2];
+        System.arraycopy(array, 0, copy, 0, 2 * index);
+        copy[2 * index] = key;
+        copy[2 * index + 1] = value;
+        System.arraycopy(array, 2 * index, copy, 2 * index + 2, array.length - 2 * index);
+        return new BitmapNode(bitmap | bit, copy);
+      }
+
+      Object k = array[2 * index];
+      Object v = array[2 * index + 1];
+      if (k == null) {
+        Node node = ((Node) v).put(key, hash, shift + 5, value, added);
+        return node == v ? this : with(2 * index + 1, node);
+      }
+      if (key.equals(k)) return v == value ? this : with(2 * index + 1, value);
+
+      added[0] = true;
+      Node node = pair(shift + 5, (String) k, v, key, hash, value);
+      Object[] copy = array.clone();
+      copy[2 * index] = null;
+      copy[2 * index + 1] = node;
+      return new BitmapNode(bitmap, copy);
+    }
+
+    @Override
+    void forEach(BiConsumer<String, Object> action) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (array[i] == null) ((Node) array[i + 1]).forEach(action);
+        else action.accept((String) array[i], array[i + 1]);
+      }
+    }
+
+    private BitmapNode with(int slot, Object value) {
+      Object[] copy = array.clone();
+      copy[slot] = value;
+      return new BitmapNode(bitmap, copy);
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static Node pair(
+        int shift, String key1, Object value1, String key2, int hash2, Object value2) {
+      int hash1 = key1.hashCode();
+      if (hash1 == hash2)
+        return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+
+      boolean[] ignored = new boolean[1];
+      return EMPTY
+          .put(key1, hash1, shift, value1, ignored)
+          .put(key2, hash2, shift, value2, ignored);
+    }
+  }
+
+  /** The keys whose hashes are all the same, in no particular order. */
+  private static final class CollisionNode extends Node {
+    private final int hash;
+    private final Object[] array;
+
+    CollisionNode(int hash, Object[] array) {
+      this.hash = hash;
+      this.array = array;
+    }
+
+    @Override
+    Object find(String key, int hash, int shift) {
+      for (int i = 0; i < array.length; i += 2) if (key.equals(array[i])) return array[i + 1];
+      return null;
+    }
+
+    @Override
+    Node put(String key, int hash, int shift, Object value, boolean[] added) {
+      if (hash != this.hash) {
+        Node wrapper = new BitmapNode(bit(this.hash, shift), new Object[] {null, this});
+        return wrapper.put(key, hash, shift, value, added);
+      }
+
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          if (array[i + 1] == value) return this;
+          Object[] copy = array.clone();
+          copy[i + 1] = value;
+          return new CollisionNode(hash, copy);
+        }
+      }
+
+      added[0] = true;
+      Object[] copy = Arrays.copyOf(array, array.length + 2);
+      copy[array.length] = key;
+      copy[array.length + 1] = value;
+      return new CollisionNode(hash, copy);
+    }
+
+    @Override
+    void forEach(BiConsumer<String, Object> action) {
+      for (int i = 0; i < array.length; i += 2) action.accept((String) array[i], array[i + 1]);
+    }
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & 31);
+  }
+}
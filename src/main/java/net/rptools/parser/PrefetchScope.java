@@ -0,0 +1,117 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The variables prefetched by the evaluations running on a thread. The variables of string literals
+ * passed to <code>eval</code> are prefetched by the evaluation calling it, so the evaluations
+ * <code>eval</code> starts only prefetch the ones no enclosing evaluation has, and a resolver
+ * asking for prompt variables in one batch does not ask for them twice.
+ */
+final class PrefetchScope {
+  private static final ThreadLocal<PrefetchScope> CURRENT = new ThreadLocal<>();
+
+  /** Whether a class of resolvers overrides {@link VariableResolver#prefetch}. */
+  private static final ClassValue<Boolean> PREFETCHING =
+      new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+          try {
+            return type.getMethod("prefetch", Set.class, Set.class).getDeclaringClass()
+                != VariableResolver.class;
+          } catch (NoSuchMethodException e) {
+            return true;
+          }
+        }
+      };
+
+  private final PrefetchScope outer;
+  private final VariableResolver resolver;
+  private final Set<String> names;
+  private final Set<String> promptNames;
+
+  private PrefetchScope(
+      PrefetchScope outer, VariableResolver resolver, Set<String> names, Set<String> promptNames) {
+    this.outer = outer;
+    this.resolver = resolver;
+    this.names = names;
+    this.promptNames = promptNames;
+  }
+
+  /**
+   * Calls {@link VariableResolver#prefetch} unless <code>resolver</code> keeps the default, which
+   * does nothing.
+   */
+  static void prefetch(VariableResolver resolver, Set<String> names, Set<String> promptNames)
+      throws ParserException {
+    if (PREFETCHING.get(resolver.getClass())) resolver.prefetch(names, promptNames);
+  }
+
+  /**
+   * Prefetches the variables of an evaluation that no enclosing evaluation on this thread has
+   * prefetched from the same resolver, and lets evaluations nested in it know about them.
+   *
+   * @return the scope to {@link #close()} when the evaluation ends, or null if <code>resolver
+   *     </code> does not prefetch
+   * @throws ParserException if <code>resolver</code> fails
+   */
+  static PrefetchScope open(VariableResolver resolver, Set<String> names, Set<String> promptNames)
+      throws ParserException {
+    if (!PREFETCHING.get(resolver.getClass())) return null;
+
+    PrefetchScope outer = CURRENT.get();
+    if (outer == null) {
+      resolver.prefetch(names, promptNames);
+    } else {
+      Set<String> newNames = outer.withoutPrefetched(resolver, names, false);
+      Set<String> newPromptNames = outer.withoutPrefetched(resolver, promptNames, true);
+      if (!newNames.isEmpty() || !newPromptNames.isEmpty())
+        resolver.prefetch(newNames, newPromptNames);
+    }
+
+    PrefetchScope scope = new PrefetchScope(outer, resolver, names, promptNames);
+    CURRENT.set(scope);
+    return scope;
+  }
+
+  /** Ends the evaluation this scope was opened for. */
+  void close() {
+    if (outer == null) CURRENT.remove();
+    else CURRENT.set(outer);
+  }
+
+  private Set<String> withoutPrefetched(
+      VariableResolver resolver, Set<String> candidates, boolean prompts) {
+    Set<String> result = null;
+    for (String name : candidates) {
+      if (!isPrefetched(resolver, name, prompts)) continue;
+      if (result == null) result = new LinkedHashSet<>(candidates);
+      result.remove(name);
+    }
+    return result == null ? candidates : Collections.unmodifiableSet(result);
+  }
+
+  private boolean isPrefetched(VariableResolver resolver, String name, boolean prompt) {
+    for (PrefetchScope scope = this; scope != null; scope = scope.outer) {
+      if (scope.resolver == resolver && (prompt ? scope.promptNames : scope.names).contains(name))
+        return true;
+    }
+    return false;
+  }
+}
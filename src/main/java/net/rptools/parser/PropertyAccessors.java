@@ -0,0 +1,160 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * The properties of each class, by normalized name, as method handles taking the object and
+ * returning the value. They are looked up by reflection once per class. A property is a getter such
+ * as <code>getHp()</code> or <code>isAlive()</code>, else a method without parameters named after
+ * an instance field of the class, as records have, else a public field. Other methods without
+ * parameters, such as <code>poll()</code> or <code>incrementAndGet()</code>, may change the object,
+ * so they are not properties; only the sizes of collections and character sequences are read
+ * through such methods.
+ *
+ * <p>Methods of classes that are not public are called through the public class or interface that
+ * declares them, so that <code>size</code> works on the lists of <code>List.of</code>.
+ */
+final class PropertyAccessors extends ClassValue<Map<String, MethodHandle>> {
+  private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  /** Methods without parameters known not to change the object, other than getters. */
+  private static final List<Method> READ_ONLY_METHODS;
+
+  static {
+    try {
+      READ_ONLY_METHODS =
+          List.of(Collection.class.getMethod("size"), CharSequence.class.getMethod("length"));
+    } catch (NoSuchMethodException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  @Override
+  protected Map<String, MethodHandle> computeValue(Class<?> type) {
+    Map<String, MethodHandle> accessors = new HashMap<>();
+
+    // from the least preferred kind of accessor to the most, so that later ones replace earlier
+    for (Field field : type.getFields()) {
+      if (Modifier.isStatic(field.getModifiers())) continue;
+      MethodHandle handle = unreflect(field);
+      if (handle != null) accessors.put(ExpressionDag.normalize(field.getName()), handle);
+    }
+    for (Method method : READ_ONLY_METHODS) {
+      if (method.getDeclaringClass().isAssignableFrom(type))
+        put(accessors, method.getName(), method);
+    }
+    Set<String> fields = instanceFieldNames(type);
+    for (Method method : type.getMethods()) {
+      if (isAccessor(method) && fields.contains(method.getName()))
+        put(accessors, method.getName(), publicMethod(type, method));
+    }
+    for (Method method : type.getMethods()) {
+      if (!isAccessor(method)) continue;
+      String name = method.getName();
+      if (name.length() > 3 && name.startsWith("get"))
+        put(accessors, name.substring(3), publicMethod(type, method));
+      else if (name.length() > 2
+          && name.startsWith("is")
+          && (method.getReturnType() == boolean.class || method.getReturnType() == Boolean.class))
+        put(accessors, name.substring(2), publicMethod(type, method));
+    }
+    return accessors;
+  }
+
+  private static boolean isAccessor(Method method) {
+    return !Modifier.isStatic(method.getModifiers())
+        && method.getParameterCount() == 0
+        && method.getReturnType() != void.class
+        && method.getDeclaringClass() != Object.class;
+  }
+
+  /** @return the names of the instance fields declared by <code>type</code> and its superclasses */
+  private static Set<String> instanceFieldNames(Class<?> type) {
+    Set<String> names = new HashSet<>();
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields())
+        if (!Modifier.isStatic(field.getModifiers())) names.add(field.getName());
+    }
+    return names;
+  }
+
+  /**
+   * @return the declaration of <code>method</code> in a public class or interface that <code>type
+   *     </code> extends, or <code>method</code> itself if there is none
+   */
+  private static Method publicMethod(Class<?> type, Method method) {
+    if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) return method;
+
+    Queue<Class<?>> supertypes = new ArrayDeque<>();
+    supertypes.add(type);
+    for (Class<?> c; (c = supertypes.poll()) != null; ) {
+      if (Modifier.isPublic(c.getModifiers())) {
+        try {
+          Method declared = c.getMethod(method.getName());
+          if (Modifier.isPublic(declared.getDeclaringClass().getModifiers())) return declared;
+        } catch (NoSuchMethodException e) {
+          // not declared this high up
+        }
+      }
+      if (c.getSuperclass() != null) supertypes.add(c.getSuperclass());
+      supertypes.addAll(List.of(c.getInterfaces()));
+    }
+    return method;
+  }
+
+  private static void put(Map<String, MethodHandle> accessors, String name, Method method) {
+    MethodHandle handle = unreflect(method);
+    if (handle != null) accessors.put(ExpressionDag.normalize(name), handle);
+  }
+
+  private static MethodHandle unreflect(AccessibleObject member) {
+    try {
+      return unreflect(MethodHandles.publicLookup(), member);
+    } catch (IllegalAccessException e) {
+      // a public member of a class that is not public itself
+    }
+    try {
+      member.setAccessible(true);
+      return unreflect(MethodHandles.lookup(), member);
+    } catch (IllegalAccessException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static MethodHandle unreflect(MethodHandles.Lookup lookup, AccessibleObject member)
+      throws IllegalAccessException {
+    MethodHandle handle =
+        member instanceof Field
+            ? lookup.unreflectGetter((Field) member)
+            : lookup.unreflect((Method) member);
+    return handle.asType(ACCESSOR_TYPE);
+  }
+}
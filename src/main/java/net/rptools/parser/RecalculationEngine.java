@@ -0,0 +1,280 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Keeps the results of a group of expressions up to date, spreadsheet style, by re-evaluating only
+ * the expressions affected by a change.
+ *
+ * <p>An expression depends on another when it reads a variable the other one assigns. Variables set
+ * through the resolver, whether by the application or by another expression, mark their readers as
+ * stale, and {@link #recalculate()} evaluates every stale expression and everything that depends on
+ * it, each once and after the expressions it depends on. Only the variables named in the trees are
+ * tracked; assignments to computed names and variables set inside <code>eval
+ * </code> are not.
+ *
+ * <p>Adding an expression that would make a dependency cycle, including one that reads the variable
+ * it assigns, is rejected.
+ */
+public class RecalculationEngine implements AutoCloseable {
+  private final Parser parser;
+  private final ObservableVariableResolver resolver;
+  private final VariableListener listener = this::variableChanged;
+
+  private final List<Entry> entries = new ArrayList<>();
+  private final Map<Expression, Entry> entriesByExpression = new IdentityHashMap<>();
+  private final Map<String, List<Entry>> readers = new HashMap<>();
+  private final Map<String, List<Entry>> writers = new HashMap<>();
+  private final BitSet stale = new BitSet();
+  private boolean recalculating;
+
+  public RecalculationEngine(Parser parser, ObservableVariableResolver resolver) {
+    this.parser = parser;
+    this.resolver = resolver;
+    resolver.addListener(listener);
+  }
+
+  public Parser getParser() {
+    return parser;
+  }
+
+  public ObservableVariableResolver getResolver() {
+    return resolver;
+  }
+
+  public Expression add(String expression) throws ParserException {
+    Expression xp = parser.parseExpression(expression);
+    add(xp);
+    return xp;
+  }
+
+  /**
+   * Adds an expression, which is evaluated by the next call to {@link #recalculate()}.
+   *
+   * @param expression the expression
+   * @throws ParserException if the expression would make a dependency cycle
+   */
+  public synchronized void add(Expression expression) throws ParserException {
+    if (expression.getParser() != parser)
+      throw new IllegalArgumentException("Expression belongs to a different parser");
+    if (entriesByExpression.containsKey(expression))
+      throw new IllegalArgumentException("Expression has already been added");
+
+    Entry entry = new Entry(entries.size(), expression);
+
+    List<String> cycle = findCycle(entry);
+    if (cycle != null) {
+      throw new ParserException(
+          String.format("Circular dependency: %s", String.join(" -> ", cycle)));
+    }
+
+    entries.add(entry);
+    entriesByExpression.put(expression, entry);
+    for (String name : entry.reads)
+      readers.computeIfAbsent(name, k -> new ArrayList<>()).add(entry);
+    for (String name : entry.writes)
+      writers.computeIfAbsent(name, k -> new ArrayList<>()).add(entry);
+    stale.set(entry.index);
+    rank();
+  }
+
+  public synchronized List<Expression> getExpressions() {
+    List<Expression> result = new ArrayList<>(entries.size());
+    for (Entry entry : entries) result.add(entry.expression);
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * @return the result of the last evaluation of <code>expression</code>, or null if none
+   * @throws IllegalArgumentException if <code>expression</code> was not added to this engine
+   */
+  public synchronized Object getValue(Expression expression) {
+    return entryOf(expression).value;
+  }
+
+  /**
+   * @return true if <code>expression</code> has not been evaluated since it was added, or since a
+   *     variable it reads changed
+   * @throws IllegalArgumentException if <code>expression</code> was not added to this engine
+   */
+  public synchronized boolean isStale(Expression expression) {
+    return stale.get(entryOf(expression).index);
+  }
+
+  private Entry entryOf(Expression expression) {
+    Entry entry = entriesByExpression.get(expression);
+    if (entry == null)
+      throw new IllegalArgumentException("Expression does not belong to this engine");
+    return entry;
+  }
+
+  /**
+   * Evaluates the stale expressions and the expressions that depend on them, in dependency order.
+   * If one of them fails, it and the ones that had not been evaluated yet stay stale.
+   *
+   * @return the expressions that were evaluated, in the order they were evaluated
+   * @throws ParserException if an expression fails to evaluate
+   */
+  public synchronized List<Expression> recalculate() throws ParserException {
+    List<Entry> affected = collectAffected();
+    List<Expression> evaluated = new ArrayList<>(affected.size());
+
+    recalculating = true;
+    try {
+      for (int i = 0; i < affected.size(); i++) {
+        Entry entry = affected.get(i);
+        try {
+          entry.value = entry.expression.evaluate(resolver);
+        } catch (ParserException | RuntimeException e) {
+          for (int j = i; j < affected.size(); j++) stale.set(affected.get(j).index);
+          throw e;
+        }
+        evaluated.add(entry.expression);
+      }
+    } finally {
+      recalculating = false;
+    }
+    return evaluated;
+  }
+
+  /** Stops listening to the resolver. */
+  @Override
+  public void close() {
+    resolver.removeListener(listener);
+  }
+
+  private synchronized void variableChanged(String name, Object value) {
+    // assignments made while recalculating are already accounted for by the dependency order
+    if (recalculating) return;
+
+    List<Entry> affected = readers.get(ExpressionDag.normalize(name));
+    if (affected != null) for (Entry entry : affected) stale.set(entry.index);
+  }
+
+  /** @return the stale entries and everything depending on them, sorted by rank */
+  private List<Entry> collectAffected() {
+    BitSet seen = new BitSet();
+    Deque<Entry> pending = new ArrayDeque<>();
+    for (int i = stale.nextSetBit(0); i >= 0; i = stale.nextSetBit(i + 1)) {
+      seen.set(i);
+      pending.add(entries.get(i));
+    }
+    stale.clear();
+
+    List<Entry> affected = new ArrayList<>();
+    while (!pending.isEmpty()) {
+      Entry entry = pending.remove();
+      affected.add(entry);
+      for (String name : entry.writes) {
+        for (Entry reader : readers.getOrDefault(name, List.of())) {
+          if (!seen.get(reader.index)) {
+            seen.set(reader.index);
+            pending.add(reader);
+          }
+        }
+      }
+    }
+
+    affected.sort((a, b) -> Integer.compare(a.rank, b.rank));
+    return affected;
+  }
+
+  /**
+   * Looks for a path from the variables <code>entry</code> assigns back to the ones it reads.
+   *
+   * @return the variables along the cycle, starting and ending with the same one, or null
+   */
+  private List<String> findCycle(Entry entry) {
+    Map<String, String> reachedFrom = new HashMap<>();
+    Deque<String> pending = new ArrayDeque<>();
+    for (String name : entry.writes) {
+      reachedFrom.put(name, null);
+      pending.add(name);
+    }
+
+    while (!pending.isEmpty()) {
+      String name = pending.remove();
+      if (entry.reads.contains(name)) {
+        List<String> cycle = new ArrayList<>();
+        for (String n = name; n != null; n = reachedFrom.get(n)) cycle.add(0, n);
+        cycle.add(0, name);
+        return cycle;
+      }
+      for (Entry reader : readers.getOrDefault(name, List.of())) {
+        for (String written : reader.writes) {
+          if (!reachedFrom.containsKey(written)) {
+            reachedFrom.put(written, name);
+            pending.add(written);
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Orders the entries so that each comes after every entry it depends on, keeping the order they
+   * were added in where there is a choice.
+   */
+  private void rank() {
+    int[] blockers = new int[entries.size()];
+    for (Entry entry : entries)
+      for (String name : entry.reads)
+        for (Entry writer : writers.getOrDefault(name, List.of())) blockers[entry.index]++;
+
+    PriorityQueue<Entry> ready =
+        new PriorityQueue<>(Math.max(1, entries.size()), (a, b) -> a.index - b.index);
+    for (Entry entry : entries) if (blockers[entry.index] == 0) ready.add(entry);
+
+    int rank = 0;
+    while (!ready.isEmpty()) {
+      Entry entry = ready.remove();
+      entry.rank = rank++;
+      for (String name : entry.writes) {
+        for (Entry reader : readers.getOrDefault(name, List.of())) {
+          if (--blockers[reader.index] == 0) ready.add(reader);
+        }
+      }
+    }
+  }
+
+  private static final class Entry {
+    private final int index;
+    private final Expression expression;
+    private final Set<String> reads;
+    private final Set<String> writes;
+    private int rank;
+    private Object value;
+
+    Entry(int index, Expression expression) {
+      this.index = index;
+      this.expression = expression;
+      this.reads = expression.getReferencedVariables();
+      this.writes = expression.getAssignedVariables();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A resolver for nested scopes, such as global, session and macro-local variables. A child scope
+ * sees the variables of its parents, and assignments always go to the scope they are made in,
+ * hiding any variable of the same name further out. Names ignore case.
+ *
+ * <p>Each scope keeps every variable it can see in one persistent map, so a lookup is a single
+ * probe however deep the scope is, and creating a child scope only shares the map of its parent. A
+ * scope whose parents have changed since it last looked rebuilds its map from theirs and its own
+ * assignments, the first time it is used again.
+ *
+ * <p>Scopes are not safe to use from several threads at once.
+ */
+public class ScopedVariableResolver implements VariableResolver {
+  /** Counts assignments in any scope of a tree, so that scopes can tell when to look at parents. */
+  private static final class Clock {
+    private long time;
+  }
+
+  /** A variable, keyed by its normalized name. */
+  private static final class Binding {
+    private final String name;
+    private final Object value;
+
+    Binding(String name, Object value) {
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  private final ScopedVariableResolver parent;
+  private final Clock clock;
+
+  /** The variables assigned in this scope. */
+  private PersistentMap<Binding> local = PersistentMap.empty();
+
+  /** Every variable visible from this scope, built on {@link #base}. */
+  private PersistentMap<Binding> visible;
+
+  /** The variables of the parent this scope last built {@link #visible} on. */
+  private PersistentMap<Binding> base;
+
+  /** The time at which {@link #visible} was known to be up to date. */
+  private long checked;
+
+  /** Creates an outermost scope. */
+  public ScopedVariableResolver() {
+    this(null);
+  }
+
+  private ScopedVariableResolver(ScopedVariableResolver parent) {
+    this.parent = parent;
+    this.clock = parent == null ? new Clock() : parent.clock;
+    this.base = parent == null ? PersistentMap.empty() : parent.getVisible();
+    this.visible = base;
+    this.checked = clock.time;
+  }
+
+  /** @return a new scope inside this one, in constant time */
+  public ScopedVariableResolver createChildScope() {
+    return new ScopedVariableResolver(this);
+  }
+
+  /** @return the scope this one is inside of, or null for an outermost scope */
+  public ScopedVariableResolver getParent() {
+    return parent;
+  }
+
+  /** @return true if the variable was assigned in this scope rather than in a parent */
+  public boolean isLocalVariable(String name) {
+    return local.get(ExpressionDag.normalize(name)) != null;
+  }
+
+  private PersistentMap<Binding> getVisible() {
+    if (checked == clock.time) return visible;
+
+    if (parent != null) {
+      PersistentMap<Binding> current = parent.getVisible();
+      if (current != base) {
+        base = current;
+        visible = current.putAll(local);
+      }
+    }
+    checked = clock.time;
+    return visible;
+  }
+
+  public boolean containsVariable(String name) throws ParserException {
+    return containsVariable(name, VariableModifiers.None);
+  }
+
+  public void setVariable(String name, Object value) throws ParserException {
+    setVariable(name, VariableModifiers.None, value);
+  }
+
+  public Object getVariable(String variableName) throws ParserException {
+    return getVariable(variableName, VariableModifiers.None);
+  }
+
+  public boolean containsVariable(String name, VariableModifiers vType) throws ParserException {
+    return getVisible().get(ExpressionDag.normalize(name)) != null;
+  }
+
+  public void setVariable(String name, VariableModifiers vType, Object value)
+      throws ParserException {
+    String key = ExpressionDag.normalize(name);
+    Binding binding = new Binding(name, value);
+    visible = getVisible().put(key, binding);
+    local = local.put(key, binding);
+    // no other scope sees this one, so only this scope is still up to date
+    checked = ++clock.time;
+  }
+
+  public Object getVariable(String variableName, VariableModifiers vType) throws ParserException {
+    Binding binding = getVisible().get(ExpressionDag.normalize(variableName));
+    return binding == null ? null : binding.value;
+  }
+
+  @Override
+  public Object lookupVariable(String name, VariableModifiers vType) {
+    Binding binding = getVisible().get(ExpressionDag.normalize(name));
+    return binding == null ? UNDEFINED : binding.value;
+  }
+
+  @Override
+  public Set<String> getVariables() {
+    Set<String> names = new LinkedHashSet<>();
+    getVisible().forEach((key, binding) -> names.add(binding.name));
+    return Collections.unmodifiableSet(names);
+  }
+}
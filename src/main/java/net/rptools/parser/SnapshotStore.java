@@ -0,0 +1,127 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Variables shared by evaluations that run in parallel, each against its own {@link
+ * SnapshotVariableResolver}. An evaluation sees the variables as they were when its snapshot was
+ * taken, plus its own assignments, and its assignments reach the store only when it commits them,
+ * all at once. Committing fails if another evaluation has committed a change to one of the same
+ * variables since the snapshot was taken. Neither taking snapshots nor reading from them locks.
+ * Names ignore case.
+ */
+public class SnapshotStore {
+  /** A committed variable, keyed by its normalized name. */
+  static final class Binding {
+    final String name;
+    final Object value;
+    /** The version of the store that last changed the variable. */
+    final long version;
+
+    Binding(String name, Object value, long version) {
+      this.name = name;
+      this.value = value;
+      this.version = version;
+    }
+  }
+
+  /** The committed variables, and the number of commits that made them. */
+  static final class State {
+    final PersistentMap<Binding> variables;
+    final long version;
+
+    State(PersistentMap<Binding> variables, long version) {
+      this.variables = variables;
+      this.version = version;
+    }
+  }
+
+  private final AtomicReference<State> state =
+      new AtomicReference<>(new State(PersistentMap.empty(), 0));
+
+  /** @return a resolver seeing the variables as they are now */
+  public SnapshotVariableResolver snapshot() {
+    return new SnapshotVariableResolver(this, state.get());
+  }
+
+  /** @return the number of commits so far */
+  public long getVersion() {
+    return state.get().version;
+  }
+
+  /** @return the committed value of a variable, or null if it does not exist */
+  public Object getVariable(String name) {
+    Binding binding = state.get().variables.get(ExpressionDag.normalize(name));
+    return binding == null ? null : binding.value;
+  }
+
+  public boolean containsVariable(String name) {
+    return state.get().variables.get(ExpressionDag.normalize(name)) != null;
+  }
+
+  /** Sets a variable straight away, as a commit of its own that never conflicts. */
+  public void setVariable(String name, Object value) {
+    while (true) {
+      State current = state.get();
+      long version = current.version + 1;
+      PersistentMap<Binding> variables =
+          current.variables.put(ExpressionDag.normalize(name), new Binding(name, value, version));
+      if (state.compareAndSet(current, new State(variables, version))) return;
+    }
+  }
+
+  public Set<String> getVariables() {
+    return names(state.get().variables);
+  }
+
+  static Set<String> names(PersistentMap<Binding> variables) {
+    Set<String> names = new LinkedHashSet<>();
+    variables.forEach((key, binding) -> names.add(binding.name));
+    return Collections.unmodifiableSet(names);
+  }
+
+  /**
+   * Applies the writes of a snapshot taken at <code>base</code>, unless one of the variables has
+   * changed since.
+   *
+   * @param base the state the snapshot was taken of
+   * @param writes the last value written to each variable, by normalized name
+   * @throws ParserException with {@link ErrorCode#WRITE_CONFLICT} if a variable has changed
+   */
+  void commit(State base, Map<String, Binding> writes) throws ParserException {
+    while (true) {
+      State current = state.get();
+      long version = current.version + 1;
+      PersistentMap<Binding> variables = current.variables;
+      for (Map.Entry<String, Binding> write : writes.entrySet()) {
+        Binding committed = current.variables.get(write.getKey());
+        if (committed != null && committed.version > base.version)
+          throw new ParserException(ErrorCode.WRITE_CONFLICT, write.getValue().name);
+
+        Binding binding = write.getValue();
+        variables =
+            variables.put(write.getKey(), new Binding(binding.name, binding.value, version));
+      }
+
+      if (state.compareAndSet(current, new State(variables, version))) return;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import net.rptools.parser.SnapshotStore.Binding;
+import net.rptools.parser.SnapshotStore.State;
+
+/**
+ * A resolver reading from a snapshot of a {@link SnapshotStore} and keeping its assignments to
+ * itself until {@link #commit()}. Each snapshot belongs to one evaluation, or to several run one
+ * after another; it is not safe to share between threads.
+ */
+public class SnapshotVariableResolver implements VariableResolver {
+  private final SnapshotStore store;
+  private final State base;
+
+  /** The snapshot with this resolver's writes applied. */
+  private PersistentMap<Binding> visible;
+
+  /** The last value written to each variable, by normalized name, in the order first written. */
+  private final Map<String, Binding> writes = new LinkedHashMap<>();
+
+  private boolean committed;
+
+  SnapshotVariableResolver(SnapshotStore store, State base) {
+    this.store = store;
+    this.base = base;
+    this.visible = base.variables;
+  }
+
+  public SnapshotStore getStore() {
+    return store;
+  }
+
+  /** @return the version of the store the snapshot was taken of */
+  public long getVersion() {
+    return base.version;
+  }
+
+  /** @return true if there are writes that have not been committed */
+  public boolean hasWrites() {
+    return !committed && !writes.isEmpty();
+  }
+
+  /**
+   * Applies the writes of this resolver to the store, atomically. Afterwards the resolver can still
+   * be read from, but not written to.
+   *
+   * @throws ParserException with {@link ErrorCode#WRITE_CONFLICT} if another snapshot has committed
+   *     a change to one of the variables written since this snapshot was taken, in which case
+   *     nothing is applied, or with {@link ErrorCode#COMMITTED_SNAPSHOT} if it was already
+   *     committed
+   */
+  public void commit() throws ParserException {
+    checkNotCommitted();
+    if (!writes.isEmpty()) store.commit(base, writes);
+    committed = true;
+  }
+
+  public boolean containsVariable(String name) throws ParserException {
+    return containsVariable(name, VariableModifiers.None);
+  }
+
+  public void setVariable(String name, Object value) throws ParserException {
+    setVariable(name, VariableModifiers.None, value);
+  }
+
+  public Object getVariable(String variableName) throws ParserException {
+    return getVariable(variableName, VariableModifiers.None);
+  }
+
+  public boolean containsVariable(String name, VariableModifiers vType) throws ParserException {
+    return visible.get(ExpressionDag.normalize(name)) != null;
+  }
+
+  public void setVariable(String name, VariableModifiers vType, Object value)
+      throws ParserException {
+    checkNotCommitted();
+
+    String key = ExpressionDag.normalize(name);
+    Binding binding = new Binding(name, value, base.version);
+    writes.put(key, binding);
+    visible = visible.put(key, binding);
+  }
+
+  public Object getVariable(String variableName, VariableModifiers vType) throws ParserException {
+    Binding binding = visible.get(ExpressionDag.normalize(variableName));
+    return binding == null ? null : binding.value;
+  }
+
+  @Override
+  public Object lookupVariable(String name, VariableModifiers vType) {
+    Binding binding = visible.get(ExpressionDag.normalize(name));
+    return binding == null ? UNDEFINED : binding.value;
+  }
+
+  @Override
+  public Set<String> getVariables() {
+    return SnapshotStore.names(visible);
+  }
+
+  private void checkNotCommitted() throws ParserException {
+    if (committed) throw new ParserException(ErrorCode.COMMITTED_SNAPSHOT, base.version);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import static net.rptools.parser.ExpressionParserTokenTypes.ASSIGNEE;
+import static net.rptools.parser.ExpressionParserTokenTypes.FALSE;
+import static net.rptools.parser.ExpressionParserTokenTypes.FUNCTION;
+import static net.rptools.parser.ExpressionParserTokenTypes.HEXNUMBER;
+import static net.rptools.parser.ExpressionParserTokenTypes.NUMBER;
+import static net.rptools.parser.ExpressionParserTokenTypes.OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.PROMPTVARIABLE;
+import static net.rptools.parser.ExpressionParserTokenTypes.STRING;
+import static net.rptools.parser.ExpressionParserTokenTypes.TRUE;
+import static net.rptools.parser.ExpressionParserTokenTypes.UNARY_OPERATOR;
+import static net.rptools.parser.ExpressionParserTokenTypes.VARIABLE;
+
+import antlr.collections.AST;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import net.rptools.parser.function.BinaryNumberFunction;
+import net.rptools.parser.function.Function;
+import net.rptools.parser.function.UnaryNumberFunction;
+
+/**
+ * Works out the types of the values in a tree from its literals, the variable types declared by a
+ * resolver and the return types of the functions, and picks the {@link
+ * Function#getSpecialization(List) specialization} of each call that matches its argument types.
+ */
+final class TypeInference {
+  private final Parser parser;
+  private final VariableResolver declarations;
+  private final IdentityHashMap<AST, Function> specializations = new IdentityHashMap<>();
+
+  private TypeInference(Parser parser, VariableResolver declarations) {
+    this.parser = parser;
+    this.declarations = declarations;
+  }
+
+  /**
+   * @param parser the parser providing the functions
+   * @param tree the tree to analyze
+   * @param declarations the resolver declaring variable types, or null if none are known
+   * @return the function to call in place of the registered one, for each call that has one
+   * @throws ParserException if <code>declarations</code> fails
+   */
+  static Map<AST, Function> specialize(Parser parser, AST tree, VariableResolver declarations)
+      throws ParserException {
+    TypeInference inference = new TypeInference(parser, declarations);
+    inference.typeOf(tree);
+    return inference.specializations;
+  }
+
+  /**
+   * @return the type of the value of <code>tree</code>
+   * @throws ParserException if <code>declarations</code> fails
+   */
+  static ValueType typeOf(Parser parser, AST tree, VariableResolver declarations)
+      throws ParserException {
+    return new TypeInference(parser, declarations).typeOf(tree);
+  }
+
+  /** Calls that go through a typed entry point gain nothing from a specialization. */
+  private static boolean hasTypedEntryPoint(Function function, List<ValueType> argumentTypes) {
+    if (!ValueType.allNumbers(argumentTypes)) return false;
+    switch (argumentTypes.size()) {
+      case 1:
+        return UnaryNumberFunction.isApplicable(function);
+      case 2:
+        return BinaryNumberFunction.isApplicable(function);
+      default:
+        return false;
+    }
+  }
+
+  private ValueType typeOf(AST node) throws ParserException {
+    switch (node.getType()) {
+      case NUMBER:
+      case HEXNUMBER:
+      case TRUE:
+      case FALSE:
+        return ValueType.NUMBER;
+      case STRING:
+      case ASSIGNEE:
+        return ValueType.STRING;
+      case VARIABLE:
+      case PROMPTVARIABLE:
+        return declarations == null
+            ? ValueType.UNKNOWN
+            : declarations.getVariableType(node.getText());
+      case UNARY_OPERATOR:
+      case OPERATOR:
+      case FUNCTION:
+        {
+          List<ValueType> argumentTypes = new ArrayList<>(node.getNumberOfChildren());
+          for (AST child = node.getFirstChild(); child != null; child = child.getNextSibling())
+            argumentTypes.add(typeOf(child));
+
+          Function function = parser.getFunction(node.getText());
+          if (function == null) return ValueType.UNKNOWN;
+
+          Function specialization = function.getSpecialization(argumentTypes);
+          if (specialization != function && !hasTypedEntryPoint(function, argumentTypes))
+            specializations.put(node, specialization);
+          return function.getReturnType(argumentTypes);
+        }
+      default:
+        return ValueType.UNKNOWN;
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Objects;
+
+/** The type of a value as far as it can be known before an expression is evaluated. */
+public enum ValueType {
+  /** A {@link BigDecimal}. */
+  NUMBER,
+  /** A {@link String}. */
+  STRING,
+  /** Anything, including a number or a string. */
+  UNKNOWN;
+
+  /** @return the type of <code>value</code> */
+  public static ValueType of(Object value) {
+    if (value instanceof BigDecimal) return NUMBER;
+    if (value instanceof String) return STRING;
+    return UNKNOWN;
+  }
+
+  /** @return true if every one of <code>types</code> is {@link #NUMBER} */
+  public static boolean allNumbers(List<ValueType> types) {
+    for (ValueType type : types) if (type != NUMBER) return false;
+    return true;
+  }
+
+  /**
+   * @return true if the values are equal, counting numbers as equal whatever their scale, so that 1
+   *     and 1.0 are the same value
+   */
+  public static boolean sameValue(Object a, Object b) {
+    if (a instanceof BigDecimal && b instanceof BigDecimal)
+      return ((BigDecimal) a).compareTo((BigDecimal) b) == 0;
+    return Objects.equals(a, b);
+  }
+
+  /** @return true if <code>value</code> can be used where this type is expected */
+  public boolean isInstance(Object value) {
+    return this == UNKNOWN || of(value) == this;
+  }
+}
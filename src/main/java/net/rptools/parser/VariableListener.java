@@ -0,0 +1,26 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+/** Receives the changes made through an {@link ObservableVariableResolver}. */
+public interface VariableListener {
+  /**
+   * Called after a variable has been set.
+   *
+   * @param name the name of the variable, as it was passed to the resolver
+   * @param value the new value
+   */
+  public void variableChanged(String name, Object value);
+}
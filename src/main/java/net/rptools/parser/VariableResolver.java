@@ -22,6 +22,15 @@ import java.util.Set;
  * through the default {@link MapVariableResolver} instance.
  */
 public interface VariableResolver {
+  /** Returned by {@link #lookupVariable(String, VariableModifiers)} for undefined variables. */
+  public static final Object UNDEFINED =
+      new Object() {
+        @Override
+        public String toString() {
+          return "UNDEFINED";
+        }
+      };
+
   public boolean containsVariable(String name) throws ParserException;
 
   public void setVariable(String name, Object value) throws ParserException;
@@ -36,4 +45,77 @@ public interface VariableResolver {
   public Object getVariable(String variableName, VariableModifiers vType) throws ParserException;
 
   public Set<String> getVariables();
+
+  /**
+   * Looks up a variable in a single call, for resolvers where asking whether it exists and then
+   * reading it costs twice as much as reading it. The evaluators use this rather than {@link
+   * #containsVariable(String, VariableModifiers)} followed by {@link #getVariable(String,
+   * VariableModifiers)}, which is what this does unless overridden.
+   *
+   * @param name the name of the variable
+   * @param vType the modifiers of the variable
+   * @return the value of the variable, or {@link #UNDEFINED} if it is not defined
+   */
+  public default Object lookupVariable(String name, VariableModifiers vType)
+      throws ParserException {
+    return containsVariable(name, vType) ? getVariable(name, vType) : UNDEFINED;
+  }
+
+  /**
+   * Declares the type every value of a variable will have, so that expressions using it can be
+   * specialized ahead of time. A resolver that declares a type must not hold other values under
+   * that name.
+   *
+   * @param name the name of the variable
+   * @return the declared type, or {@link ValueType#UNKNOWN}
+   */
+  public default ValueType getVariableType(String name) throws ParserException {
+    return ValueType.UNKNOWN;
+  }
+
+  /**
+   * Sets a variable if it holds the expected value, as far as {@link ValueType#sameValue} can tell.
+   * This is atomic only in resolvers made for sharing between threads, such as {@link
+   * ConcurrentVariableResolver}; by default it looks the variable up and then sets it.
+   *
+   * @param name the name of the variable
+   * @param expected the value the variable must hold, or {@link #UNDEFINED} if it must not exist
+   * @param value the new value
+   * @return true if the variable was set
+   */
+  public default boolean compareAndSetVariable(String name, Object expected, Object value)
+      throws ParserException {
+    if (!ValueType.sameValue(lookupVariable(name, VariableModifiers.None), expected)) return false;
+    setVariable(name, value);
+    return true;
+  }
+
+  /**
+   * Replaces the value of a variable by one computed from it. This is atomic only in resolvers made
+   * for sharing between threads, such as {@link ConcurrentVariableResolver}, which may call <code>
+   * update</code> more than once; by default it looks the variable up and then sets it.
+   *
+   * @param name the name of the variable
+   * @param update computes the new value from the current one, which is {@link #UNDEFINED} if the
+   *     variable does not exist
+   * @return the new value
+   */
+  public default Object updateVariable(String name, VariableUpdate update) throws ParserException {
+    Object value = update.apply(lookupVariable(name, VariableModifiers.None));
+    setVariable(name, value);
+    return value;
+  }
+
+  /**
+   * Called once before an expression is evaluated with every variable it reads, so that a resolver
+   * fetching values from elsewhere can load them in a single request, and one that asks the user
+   * for prompt variables can ask for all of them at once. This includes the variables read by
+   * string literals passed to <code>eval</code>, which prefetch again when they are evaluated.
+   * Variables read by <code>eval</code> of computed strings are not included, and some of the ones
+   * included may not end up being read.
+   *
+   * @param names the variables read, as they are written in the expression
+   * @param promptNames the prompt variables read, as they are written in the expression
+   */
+  public default void prefetch(Set<String> names, Set<String> promptNames) throws ParserException {}
 }
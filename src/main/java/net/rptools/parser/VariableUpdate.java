@@ -0,0 +1,30 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+/**
+ * Computes the new value of a variable from its current one.
+ *
+ * @see VariableResolver#updateVariable(String, VariableUpdate)
+ */
+@FunctionalInterface
+public interface VariableUpdate {
+  /**
+   * @param current the current value, or {@link VariableResolver#UNDEFINED} if there is none
+   * @return the new value
+   * @throws ParserException if the current value cannot be updated
+   */
+  public Object apply(Object current) throws ParserException;
+}
@@ -17,6 +17,7 @@ package net.rptools.parser.function;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.List;
+import net.rptools.parser.ErrorCode;
 
 public abstract class AbstractComparisonFunction extends AbstractLogicalOperatorFunction {
 
@@ -41,9 +42,9 @@ public abstract class AbstractComparisonFunction extends AbstractLogicalOperator
     for (Object param : parameters) {
       if (!(param instanceof BigDecimal) && !(param instanceof String))
         throw new ParameterException(
-            String.format(
-                "Illegal argument type %s, expecting %s",
-                param == null ? "null" : param.getClass().getName(), BigDecimal.class.getName()));
+            ErrorCode.ILLEGAL_ARGUMENT_TYPE,
+            param == null ? "null" : param.getClass().getName(),
+            BigDecimal.class.getName());
     }
   }
 
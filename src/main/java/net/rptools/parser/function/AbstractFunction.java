@@ -14,10 +14,13 @@
  */
 package net.rptools.parser.function;
 
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.util.List;
+import net.rptools.parser.ErrorCode;
 import net.rptools.parser.Parser;
 import net.rptools.parser.ParserException;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 
 public abstract class AbstractFunction implements Function {
@@ -26,14 +29,6 @@ public abstract class AbstractFunction implements Function {
   private final int maxParameters;
   private final boolean deterministic;
 
-  // Could use i18n instead, but would require additional dependency
-  private static final String WRONG_NUM_PARAM =
-      "Function '%s' requires exactly %d parameters; %d were provided.";
-  private static final String NOT_ENOUGH_PARAM =
-      "Function '%s' requires at least %d parameters; %d were provided.";
-  private static final String TOO_MANY_PARAM =
-      "Function '%s' requires no more than %d parameters; %d were provided.";
-
   public AbstractFunction(String... aliases) {
     this(0, UNLIMITED_PARAMETERS, aliases);
   }
@@ -84,20 +79,47 @@ public abstract class AbstractFunction implements Function {
    */
   public void checkParameters(String functionName, List<Object> parameters)
       throws ParameterException {
+    checkParameterCount(functionName, parameters);
+  }
+
+  /**
+   * Checks only the number of parameters.
+   *
+   * @param functionName the name of the function
+   * @param parameters the list of parameters
+   */
+  protected final void checkParameterCount(String functionName, List<Object> parameters)
+      throws ParameterException {
     int pCount = parameters == null ? 0 : parameters.size();
 
+    ParameterException e = checkParameterCount(functionName, pCount, minParameters, maxParameters);
+    if (e != null) throw e;
+  }
+
+  /**
+   * Checks a number of parameters against the limits of a function.
+   *
+   * @param functionName the name the function was called by
+   * @param pCount the number of parameters
+   * @param minParameters the least number of parameters allowed
+   * @param maxParameters the most parameters allowed, or {@link #UNLIMITED_PARAMETERS}
+   * @return the error to report, or null if the count is allowed
+   */
+  public static ParameterException checkParameterCount(
+      String functionName, int pCount, int minParameters, int maxParameters) {
     if (minParameters == maxParameters) {
       if (pCount != maxParameters)
-        throw new ParameterException(
-            String.format(WRONG_NUM_PARAM, functionName, maxParameters, pCount));
+        return new ParameterException(
+            ErrorCode.WRONG_PARAMETER_COUNT, functionName, maxParameters, pCount);
     } else {
       if (pCount < minParameters)
-        throw new ParameterException(
-            String.format(NOT_ENOUGH_PARAM, functionName, minParameters, pCount));
+        return new ParameterException(
+            ErrorCode.NOT_ENOUGH_PARAMETERS, functionName, minParameters, pCount);
       if (maxParameters != UNLIMITED_PARAMETERS && pCount > maxParameters)
-        throw new ParameterException(
-            String.format(TOO_MANY_PARAM, functionName, maxParameters, pCount));
+        return new ParameterException(
+            ErrorCode.TOO_MANY_PARAMETERS, functionName, maxParameters, pCount);
     }
+    return null;
   }
 
   protected boolean containsOnlyBigDecimals(List<Object> parameters) {
@@ -107,7 +129,93 @@ public abstract class AbstractFunction implements Function {
     return true;
   }
 
+  /**
+   * Evaluates a call once its parameters have been checked.
+   *
+   * @param parameters the values of the arguments, which belong to the function unless {@link
+   *     #isBorrowingParameters()} is true; see {@link Function#evaluate}
+   */
   public abstract Object childEvaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
       throws ParserException;
+
+  /**
+   * @return the method that evaluates calls to functions of class <code>type</code>: its {@link
+   *     #childEvaluate} if it is an <code>AbstractFunction</code>, else its {@link #evaluate}
+   */
+  static Method getEvaluation(Class<?> type) throws NoSuchMethodException {
+    return AbstractFunction.class.isAssignableFrom(type)
+        ? type.getMethod(
+            "childEvaluate", Parser.class, VariableResolver.class, String.class, List.class)
+        : type.getMethod(
+            "evaluate", Parser.class, VariableResolver.class, String.class, List.class);
+  }
+
+  /**
+   * Creates a specialization of this function that only checks the number of parameters before
+   * running <code>body</code>, for use by {@link #getSpecialization(List)} once the argument types
+   * are known to be right.
+   *
+   * @param body the evaluation for the known argument types
+   * @return the specialized function
+   */
+  protected final Function specialize(Body body) {
+    return new Specialization(this, body);
+  }
+
+  /** The evaluation performed by a specialization. */
+  @FunctionalInterface
+  protected interface Body {
+    Object evaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
+        throws ParserException;
+  }
+
+  private static final class Specialization implements Function {
+    private final AbstractFunction function;
+    private final Body body;
+
+    Specialization(AbstractFunction function, Body body) {
+      this.function = function;
+      this.body = body;
+    }
+
+    public String[] getAliases() {
+      return function.getAliases();
+    }
+
+    public Object evaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
+        throws ParserException {
+      function.checkParameterCount(functionName, parameters);
+      return body.evaluate(parser, resolver, functionName, parameters);
+    }
+
+    public void checkParameters(String functionName, List<Object> parameters)
+        throws ParameterException {
+      function.checkParameterCount(functionName, parameters);
+    }
+
+    public int getMinimumParameterCount() {
+      return function.getMinimumParameterCount();
+    }
+
+    public int getMaximumParameterCount() {
+      return function.getMaximumParameterCount();
+    }
+
+    public boolean isDeterministic() {
+      return function.isDeterministic();
+    }
+
+    @Override
+    public boolean isBorrowingParameters() {
+      return Function.canBorrowParameters(function);
+    }
+
+    @Override
+    public ValueType getReturnType(List<ValueType> argumentTypes) {
+      return function.getReturnType(argumentTypes);
+    }
+  }
 }
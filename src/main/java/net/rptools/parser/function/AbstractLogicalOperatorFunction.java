@@ -17,6 +17,7 @@ package net.rptools.parser.function;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.List;
+import net.rptools.parser.ErrorCode;
 
 public abstract class AbstractLogicalOperatorFunction extends AbstractFunction {
 
@@ -44,9 +45,9 @@ public abstract class AbstractLogicalOperatorFunction extends AbstractFunction {
           && !(param instanceof BigInteger)
           && !(param instanceof String))
         throw new ParameterException(
-            String.format(
-                "Illegal argument type %s, expecting %s",
-                param == null ? "null" : param.getClass().getName(), BigDecimal.class.getName()));
+            ErrorCode.ILLEGAL_ARGUMENT_TYPE,
+            param == null ? "null" : param.getClass().getName(),
+            BigDecimal.class.getName());
     }
   }
 
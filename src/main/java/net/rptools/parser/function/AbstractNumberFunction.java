@@ -16,8 +16,23 @@ package net.rptools.parser.function;
 
 import java.math.BigDecimal;
 import java.util.List;
+import net.rptools.parser.ErrorCode;
+import net.rptools.parser.ValueType;
 
 public abstract class AbstractNumberFunction extends AbstractFunction {
+  private static final ClassValue<Boolean> CHECKS_ONLY_TYPES =
+      new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+          try {
+            return type.getMethod("checkParameters", String.class, List.class).getDeclaringClass()
+                == AbstractNumberFunction.class;
+          } catch (NoSuchMethodException e) {
+            return false;
+          }
+        }
+      };
+
   public AbstractNumberFunction(String... aliases) {
     super(aliases);
   }
@@ -39,9 +54,19 @@ public abstract class AbstractNumberFunction extends AbstractFunction {
     for (Object param : parameters) {
       if (!(param instanceof BigDecimal))
         throw new ParameterException(
-            String.format(
-                "Illegal argument type %s, expecting %s",
-                param == null ? "null" : param.getClass().getName(), BigDecimal.class.getName()));
+            ErrorCode.ILLEGAL_ARGUMENT_TYPE,
+            param == null ? "null" : param.getClass().getName(),
+            BigDecimal.class.getName());
     }
   }
+
+  /**
+   * Skips the per-call check that every parameter is a number when that is already known, unless a
+   * subclass adds checks of its own.
+   */
+  @Override
+  public Function getSpecialization(List<ValueType> argumentTypes) {
+    if (!ValueType.allNumbers(argumentTypes) || !CHECKS_ONLY_TYPES.get(getClass())) return this;
+    return specialize(this::childEvaluate);
+  }
 }
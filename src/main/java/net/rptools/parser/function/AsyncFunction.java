@@ -0,0 +1,54 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser.function;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import net.rptools.parser.Parser;
+import net.rptools.parser.ParserException;
+import net.rptools.parser.VariableResolver;
+
+/**
+ * A function that completes without blocking the calling thread, for functions that wait on I/O.
+ * Asynchronous evaluation chains on the future it returns; synchronous evaluation waits for it.
+ */
+public interface AsyncFunction extends Function {
+  /**
+   * Starts evaluating the function. Unlike {@link #evaluate}, this is expected to check the
+   * parameters itself, and may report errors either by throwing or through the future.
+   *
+   * @param parser the parser
+   * @param resolver the resolver of the evaluation
+   * @param functionName the name the function was called by
+   * @param parameters the arguments, which the function may keep
+   * @return the result
+   */
+  public CompletableFuture<Object> evaluateAsync(
+      Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
+      throws ParserException;
+
+  /** Evaluates the function by waiting for {@link #evaluateAsync}. */
+  public default Object evaluate(
+      Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
+      throws ParserException {
+    try {
+      return evaluateAsync(parser, resolver, functionName, parameters).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof ParserException) throw (ParserException) e.getCause();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser.function;
+
+import java.math.BigDecimal;
+import net.rptools.parser.ParserException;
+
+/**
+ * A function with a direct entry point for calls with two number arguments, which the evaluator
+ * uses in place of {@link #evaluate} so that no parameter list has to be built. Two parameters must
+ * be an allowed count, and the result must be the same as {@link #evaluate} would return.
+ */
+public interface BinaryNumberFunction extends Function {
+  public BigDecimal apply(BigDecimal left, BigDecimal right) throws ParserException;
+
+  /**
+   * Tells whether evaluators may call {@link #apply(BigDecimal, BigDecimal)} in place of the
+   * list-based evaluation of <code>function</code>, as {@link
+   * UnaryNumberFunction#isApplicable(Function)} does for unary calls.
+   *
+   * @param function the function called
+   * @return true if <code>function</code> has a binary entry point that can be used
+   */
+  public static boolean isApplicable(Function function) {
+    return function instanceof BinaryNumberFunction
+        && NumberEntryPoints.BINARY.get(function.getClass());
+  }
+}
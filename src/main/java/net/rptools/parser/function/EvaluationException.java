@@ -14,6 +14,7 @@
  */
 package net.rptools.parser.function;
 
+import net.rptools.parser.ErrorCode;
 import net.rptools.parser.ParserException;
 
 public class EvaluationException extends ParserException {
@@ -26,4 +27,9 @@ public class EvaluationException extends ParserException {
   public EvaluationException(String msg) {
     super(msg);
   }
+
+  /** Creates a stackless exception whose message is formatted only when it is asked for. */
+  public EvaluationException(ErrorCode errorCode, Object... arguments) {
+    super(errorCode, arguments);
+  }
 }
@@ -17,6 +17,7 @@ package net.rptools.parser.function;
 import java.util.List;
 import net.rptools.parser.Parser;
 import net.rptools.parser.ParserException;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 
 public interface Function {
@@ -24,6 +25,19 @@ public interface Function {
 
   public String[] getAliases();
 
+  /**
+   * Evaluates a call.
+   *
+   * @param parser the parser evaluating the call
+   * @param resolver the resolver of the evaluation
+   * @param functionName the name the function was called by
+   * @param parameters the values of the arguments. The list belongs to the function unless {@link
+   *     #isBorrowingParameters()} is true; then it is only valid until this method returns, its
+   *     elements may be replaced but not added or removed, and its storage is reused by later
+   *     calls.
+   * @return the result
+   * @throws ParserException if the call fails
+   */
   public Object evaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
       throws ParserException;
@@ -36,4 +50,50 @@ public interface Function {
   public int getMaximumParameterCount();
 
   public boolean isDeterministic();
+
+  /**
+   * Tells whether {@link #evaluate} only uses its parameter list while it runs: it may read
+   * elements and replace them, but neither adds nor removes any, and does not keep the list once it
+   * returns. Evaluators then pass a view of storage reused by later calls, instead of a new list
+   * each time.
+   *
+   * <p>Evaluators only take this answer from the class that evaluates the call, or one of its
+   * subclasses, so a subclass that overrides the evaluation must say so again.
+   *
+   * @return true if the parameter list may be reused after a call
+   */
+  public default boolean isBorrowingParameters() {
+    return false;
+  }
+
+  /**
+   * @param function the function called
+   * @return true if evaluators may pass <code>function</code> a parameter list that they reuse
+   * @see #isBorrowingParameters()
+   */
+  public static boolean canBorrowParameters(Function function) {
+    return function.isBorrowingParameters() && ParameterBorrowing.INSTANCE.get(function.getClass());
+  }
+
+  /**
+   * Describes the result of a call whose argument types are known before it is evaluated.
+   *
+   * @param argumentTypes the type of each argument
+   * @return the type of the result
+   */
+  public default ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.UNKNOWN;
+  }
+
+  /**
+   * Returns a function to use in place of this one for calls whose arguments are known to have the
+   * given types, so that it can skip inspecting them on every call. The function returned must give
+   * the same results as this one for such arguments.
+   *
+   * @param argumentTypes the type of each argument
+   * @return the specialized function, or this one
+   */
+  public default Function getSpecialization(List<ValueType> argumentTypes) {
+    return this;
+  }
 }
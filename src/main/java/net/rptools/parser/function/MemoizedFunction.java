@@ -0,0 +1,122 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser.function;
+
+import java.util.List;
+import java.util.Locale;
+import net.rptools.parser.BoundedCache;
+import net.rptools.parser.BoundedCache.EvictionPolicy;
+import net.rptools.parser.CacheStatistics;
+import net.rptools.parser.Parser;
+import net.rptools.parser.ParserException;
+import net.rptools.parser.ValueType;
+import net.rptools.parser.VariableResolver;
+import net.rptools.parser.function.impl.Assignment;
+import net.rptools.parser.function.impl.Eval;
+
+/**
+ * Remembers the results of a deterministic function by its arguments, so that calling it again with
+ * the same ones does not evaluate it. Calls with an argument that is neither a number nor a string
+ * are always evaluated.
+ *
+ * <p>The function must not read the resolver or the parser, since they are not part of what is
+ * remembered. Threads sharing a parser share the results; two threads missing the same arguments at
+ * once may both evaluate the function.
+ *
+ * @see Parser#addMemoizedFunction(Function, int, EvictionPolicy)
+ */
+public class MemoizedFunction implements Function {
+  private final Function function;
+  private final BoundedCache<List<Object>, Object> results;
+
+  /**
+   * @param function the function to memoize
+   * @param maximumSize the most results to keep
+   * @param policy which result to drop when there is no room left
+   */
+  public MemoizedFunction(Function function, int maximumSize, EvictionPolicy policy) {
+    if (!function.isDeterministic() || function instanceof Assignment || function instanceof Eval)
+      throw new IllegalArgumentException("Only deterministic functions can be memoized");
+    this.function = function;
+    this.results = new BoundedCache<>(maximumSize, policy);
+  }
+
+  public Function getFunction() {
+    return function;
+  }
+
+  /** @return how often remembered results were reused */
+  public CacheStatistics getStatistics() {
+    return results.getStatistics();
+  }
+
+  /** Forgets every result, for when whatever the function looks up has changed. */
+  public void clear() {
+    results.clear();
+  }
+
+  public String[] getAliases() {
+    return function.getAliases();
+  }
+
+  public Object evaluate(
+      Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
+      throws ParserException {
+    // parameters is reused once this call returns, so the key needs its own copy
+    Object[] key = new Object[parameters.size() + 1];
+    key[0] = functionName.toLowerCase(Locale.ROOT);
+    for (int i = 0; i < parameters.size(); i++) {
+      Object value = parameters.get(i);
+      if (ValueType.of(value) == ValueType.UNKNOWN)
+        return function.evaluate(parser, resolver, functionName, parameters);
+      key[i + 1] = value;
+    }
+
+    List<Object> arguments = List.of(key);
+    Object result = results.get(arguments);
+    if (result == null) {
+      result = function.evaluate(parser, resolver, functionName, parameters);
+      results.put(arguments, result);
+    }
+    return result;
+  }
+
+  public void checkParameters(String functionName, List<Object> parameters)
+      throws ParameterException {
+    function.checkParameters(functionName, parameters);
+  }
+
+  public int getMinimumParameterCount() {
+    return function.getMinimumParameterCount();
+  }
+
+  public int getMaximumParameterCount() {
+    return function.getMaximumParameterCount();
+  }
+
+  public boolean isDeterministic() {
+    return true;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return Function.canBorrowParameters(function);
+  }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return function.getReturnType(argumentTypes);
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser.function;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Whether the typed entry points of a class of functions can stand in for its list-based
+ * evaluation. They cannot when a subclass overrides the evaluation or the parameter checks of a
+ * function but not the <code>apply</code> method the evaluators would call instead.
+ */
+final class NumberEntryPoints extends ClassValue<Boolean> {
+  static final NumberEntryPoints UNARY = new NumberEntryPoints(BigDecimal.class);
+  static final NumberEntryPoints BINARY = new NumberEntryPoints(BigDecimal.class, BigDecimal.class);
+
+  private final Class<?>[] applyParameters;
+
+  private NumberEntryPoints(Class<?>... applyParameters) {
+    this.applyParameters = applyParameters;
+  }
+
+  @Override
+  protected Boolean computeValue(Class<?> type) {
+    try {
+      Class<?> apply = type.getMethod("apply", applyParameters).getDeclaringClass();
+      Method evaluate = AbstractFunction.getEvaluation(type);
+      Method check = type.getMethod("checkParameters", String.class, List.class);
+
+      return evaluate.getDeclaringClass().isAssignableFrom(apply)
+          && check.getDeclaringClass().isAssignableFrom(apply);
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+}
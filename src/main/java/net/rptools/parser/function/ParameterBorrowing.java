@@ -0,0 +1,36 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser.function;
+
+/**
+ * Whether the functions of a class may be passed a reused parameter list: the class or one of its
+ * superclasses says so through {@link Function#isBorrowingParameters()}, and that is the class
+ * evaluating the calls or a subclass of it.
+ */
+final class ParameterBorrowing extends ClassValue<Boolean> {
+  static final ParameterBorrowing INSTANCE = new ParameterBorrowing();
+
+  private ParameterBorrowing() {}
+
+  @Override
+  protected Boolean computeValue(Class<?> type) {
+    try {
+      Class<?> borrowing = type.getMethod("isBorrowingParameters").getDeclaringClass();
+      return AbstractFunction.getEvaluation(type).getDeclaringClass().isAssignableFrom(borrowing);
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+}
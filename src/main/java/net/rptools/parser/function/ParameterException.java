@@ -14,6 +14,7 @@
  */
 package net.rptools.parser.function;
 
+import net.rptools.parser.ErrorCode;
 import net.rptools.parser.ParserException;
 
 public class ParameterException extends ParserException {
@@ -22,4 +23,9 @@ public class ParameterException extends ParserException {
   public ParameterException(String msg) {
     super(msg);
   }
+
+  /** Creates a stackless exception whose message is formatted only when it is asked for. */
+  public ParameterException(ErrorCode errorCode, Object... arguments) {
+    super(errorCode, arguments);
+  }
 }
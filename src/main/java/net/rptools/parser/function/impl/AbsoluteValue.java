@@ -17,10 +17,12 @@ package net.rptools.parser.function.impl;
 import java.math.BigDecimal;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractNumberFunction;
+import net.rptools.parser.function.UnaryNumberFunction;
 
-public class AbsoluteValue extends AbstractNumberFunction {
+public class AbsoluteValue extends AbstractNumberFunction implements UnaryNumberFunction {
   public AbsoluteValue() {
     super(1, 1, "abs", "absolutevalue");
   }
@@ -28,8 +30,20 @@ public class AbsoluteValue extends AbstractNumberFunction {
   @Override
   public Object childEvaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters) {
-    BigDecimal value = (BigDecimal) parameters.get(0);
+    return apply((BigDecimal) parameters.get(0));
+  }
 
+  public BigDecimal apply(BigDecimal value) {
     return value.abs();
   }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.NUMBER;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
@@ -0,0 +1,80 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser.function.impl;
+
+import java.math.BigDecimal;
+import java.util.List;
+import net.rptools.parser.ErrorCode;
+import net.rptools.parser.Parser;
+import net.rptools.parser.ParserException;
+import net.rptools.parser.VariableResolver;
+import net.rptools.parser.function.EvaluationException;
+import net.rptools.parser.function.ParameterException;
+
+/**
+ * Adds to a number variable, 1 unless told otherwise, and returns its new value. A variable that
+ * does not exist counts as 0. With a resolver shared between threads, such as {@link
+ * net.rptools.parser.ConcurrentVariableResolver}, this is atomic.
+ */
+public class AddAndGet extends Assignment {
+  public AddAndGet() {
+    super(1, 2, false, "addAndGet");
+  }
+
+  @Override
+  public Object childEvaluate(
+      Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
+      throws ParserException {
+    String name = (String) parameters.get(0);
+    BigDecimal delta = parameters.size() > 1 ? (BigDecimal) parameters.get(1) : BigDecimal.ONE;
+
+    return resolver.updateVariable(
+        name,
+        current -> {
+          if (current == VariableResolver.UNDEFINED) return delta;
+          if (!(current instanceof BigDecimal))
+            throw new EvaluationException(
+                ErrorCode.ILLEGAL_ARGUMENT_TYPE,
+                current == null ? "null" : current.getClass().getName(),
+                BigDecimal.class.getName());
+          return ((BigDecimal) current).add(delta);
+        });
+  }
+
+  @Override
+  public void checkParameters(String functionName, List<Object> parameters)
+      throws ParameterException {
+    super.checkParameters(functionName, parameters);
+
+    Object name = parameters.get(0);
+    if (!(name instanceof String))
+      throw new ParameterException(
+          ErrorCode.ILLEGAL_ARGUMENT_TYPE,
+          name == null ? "null" : name.getClass().getName(),
+          String.class.getName());
+    if (parameters.size() > 1 && !(parameters.get(1) instanceof BigDecimal)) {
+      Object delta = parameters.get(1);
+      throw new ParameterException(
+          ErrorCode.ILLEGAL_ARGUMENT_TYPE,
+          delta == null ? "null" : delta.getClass().getName(),
+          BigDecimal.class.getName());
+    }
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
+}
@@ -17,12 +17,17 @@ package net.rptools.parser.function.impl;
 import java.math.BigDecimal;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractFunction;
+import net.rptools.parser.function.BinaryNumberFunction;
 import net.rptools.parser.function.EvaluationException;
+import net.rptools.parser.function.Function;
 import net.rptools.parser.function.ParameterException;
+import net.rptools.parser.function.UnaryNumberFunction;
 
-public class Addition extends AbstractFunction {
+public class Addition extends AbstractFunction
+    implements UnaryNumberFunction, BinaryNumberFunction {
   public Addition() {
     super(1, -1, "add", "sum", "+", "concat");
   }
@@ -34,25 +39,61 @@ public class Addition extends AbstractFunction {
     if (parameters.size() == 1) {
       // unary usage
       return parameters.get(0);
+    } else if (!containsOnlyBigDecimals(parameters)) {
+      return concatenate(parameters);
     } else {
+      return add(parameters);
+    }
+  }
 
-      if (!containsOnlyBigDecimals(parameters)) {
-        StringBuilder sb = new StringBuilder();
-        for (Object param : parameters) {
-          sb.append(param.toString());
-        }
-        return sb.toString();
-      } else {
-        BigDecimal total = new BigDecimal(0);
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    if (argumentTypes.size() == 1) return argumentTypes.get(0);
+    if (argumentTypes.contains(ValueType.STRING)) return ValueType.STRING;
+    if (ValueType.allNumbers(argumentTypes)) return ValueType.NUMBER;
+    return ValueType.UNKNOWN;
+  }
 
-        for (Object param : parameters) {
-          BigDecimal n = (BigDecimal) param;
+  @Override
+  public Function getSpecialization(List<ValueType> argumentTypes) {
+    if (argumentTypes.size() < 2) return this;
+    if (argumentTypes.contains(ValueType.STRING))
+      return specialize((parser, resolver, functionName, parameters) -> concatenate(parameters));
+    if (ValueType.allNumbers(argumentTypes))
+      return specialize((parser, resolver, functionName, parameters) -> add(parameters));
+    return this;
+  }
+
+  private static String concatenate(List<Object> parameters) {
+    StringBuilder sb = new StringBuilder();
+    for (Object param : parameters) {
+      sb.append(param.toString());
+    }
+    return sb.toString();
+  }
 
-          total = total.add(n);
-        }
+  private BigDecimal add(List<Object> parameters) {
+    BigDecimal total = (BigDecimal) parameters.get(0);
 
-        return total;
-      }
+    for (int i = 1; i < parameters.size(); i++) {
+      total = apply(total, (BigDecimal) parameters.get(i));
     }
+
+    return total;
+  }
+
+  public BigDecimal apply(BigDecimal value) {
+    return value;
+  }
+
+  public BigDecimal apply(BigDecimal left, BigDecimal right) {
+    BigDecimal sum = left.add(right);
+    // sums have always started from zero, so their scale is never negative
+    return sum.scale() < 0 ? sum.setScale(0) : sum;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
   }
 }
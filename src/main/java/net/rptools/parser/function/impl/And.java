@@ -38,4 +38,9 @@ public class And extends AbstractLogicalOperatorFunction {
 
     return BooleanAsBigDecimal(value);
   }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
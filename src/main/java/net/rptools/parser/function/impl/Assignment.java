@@ -25,6 +25,15 @@ public class Assignment extends AbstractFunction {
     super(2, 2, "=", "set");
   }
 
+  /**
+   * For functions that assign the variable named by their first argument, so that evaluators treat
+   * them the way they treat assignments.
+   */
+  protected Assignment(
+      int minParameters, int maxParameters, boolean deterministic, String... aliases) {
+    super(minParameters, maxParameters, deterministic, aliases);
+  }
+
   @Override
   public Object childEvaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
@@ -38,4 +47,9 @@ public class Assignment extends AbstractFunction {
 
     return value;
   }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
@@ -18,6 +18,7 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractNumberFunction;
 import net.rptools.parser.function.EvaluationException;
@@ -45,4 +46,14 @@ public class BitwiseAnd extends AbstractNumberFunction {
 
     return new BigDecimal(value);
   }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.NUMBER;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
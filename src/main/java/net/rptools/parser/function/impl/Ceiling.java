@@ -17,12 +17,14 @@ package net.rptools.parser.function.impl;
 import java.math.BigDecimal;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractNumberFunction;
 import net.rptools.parser.function.EvaluationException;
 import net.rptools.parser.function.ParameterException;
+import net.rptools.parser.function.UnaryNumberFunction;
 
-public class Ceiling extends AbstractNumberFunction {
+public class Ceiling extends AbstractNumberFunction implements UnaryNumberFunction {
   public Ceiling() {
     super(1, 1, "ceil", "ceiling");
   }
@@ -31,7 +33,20 @@ public class Ceiling extends AbstractNumberFunction {
   public Object childEvaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
       throws EvaluationException, ParameterException {
-    BigDecimal value = (BigDecimal) parameters.get(0);
+    return apply((BigDecimal) parameters.get(0));
+  }
+
+  public BigDecimal apply(BigDecimal value) {
     return new BigDecimal(Math.ceil(value.doubleValue()));
   }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.NUMBER;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
@@ -0,0 +1,61 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser.function.impl;
+
+import java.math.BigDecimal;
+import java.util.List;
+import net.rptools.parser.ErrorCode;
+import net.rptools.parser.Parser;
+import net.rptools.parser.ParserException;
+import net.rptools.parser.VariableResolver;
+import net.rptools.parser.function.ParameterException;
+
+/**
+ * Sets a variable only if it holds the expected value, returning true if it did. With a resolver
+ * shared between threads, such as {@link net.rptools.parser.ConcurrentVariableResolver}, this is
+ * atomic.
+ */
+public class CompareAndSet extends Assignment {
+  public CompareAndSet() {
+    super(3, 3, false, "compareAndSet");
+  }
+
+  @Override
+  public Object childEvaluate(
+      Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
+      throws ParserException {
+    String name = (String) parameters.get(0);
+    boolean set = resolver.compareAndSetVariable(name, parameters.get(1), parameters.get(2));
+    return set ? BigDecimal.ONE : BigDecimal.ZERO;
+  }
+
+  @Override
+  public void checkParameters(String functionName, List<Object> parameters)
+      throws ParameterException {
+    super.checkParameters(functionName, parameters);
+
+    Object name = parameters.get(0);
+    if (!(name instanceof String))
+      throw new ParameterException(
+          ErrorCode.ILLEGAL_ARGUMENT_TYPE,
+          name == null ? "null" : name.getClass().getName(),
+          String.class.getName());
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
+}
@@ -18,12 +18,14 @@ import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractNumberFunction;
+import net.rptools.parser.function.BinaryNumberFunction;
 import net.rptools.parser.function.EvaluationException;
 import net.rptools.parser.function.ParameterException;
 
-public class Division extends AbstractNumberFunction {
+public class Division extends AbstractNumberFunction implements BinaryNumberFunction {
   public Division() {
     super(2, -1, "divide", "/");
   }
@@ -32,20 +34,26 @@ public class Division extends AbstractNumberFunction {
   public Object childEvaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
       throws EvaluationException, ParameterException {
-    BigDecimal total = null;
-    boolean first = true;
-
-    for (Object param : parameters) {
-      BigDecimal n = (BigDecimal) param;
-
-      if (first) {
-        total = n;
-        first = false;
-      } else {
-        total = total.divide(n, MathContext.DECIMAL128);
-      }
+    BigDecimal total = (BigDecimal) parameters.get(0);
+
+    for (int i = 1; i < parameters.size(); i++) {
+      total = apply(total, (BigDecimal) parameters.get(i));
     }
 
     return total;
   }
+
+  public BigDecimal apply(BigDecimal left, BigDecimal right) {
+    return left.divide(right, MathContext.DECIMAL128);
+  }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.NUMBER;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
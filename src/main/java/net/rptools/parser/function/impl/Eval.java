@@ -15,6 +15,7 @@
 package net.rptools.parser.function.impl;
 
 import java.util.List;
+import net.rptools.parser.ErrorCode;
 import net.rptools.parser.Expression;
 import net.rptools.parser.Parser;
 import net.rptools.parser.ParserException;
@@ -42,7 +43,7 @@ public class Eval extends AbstractFunction {
       try {
         expression = parser.parseExpression(x);
       } catch (ParserException e) {
-        throw new ParameterException(String.format("Unable to evaluate expression %s", x));
+        throw new ParameterException(ErrorCode.INVALID_EXPRESSION, x);
       }
 
       ret = expression.evaluate(resolver);
@@ -59,9 +60,12 @@ public class Eval extends AbstractFunction {
     for (Object param : parameters) {
       if (!(param instanceof String))
         throw new ParameterException(
-            String.format(
-                "Illegal argument type %s, expecting %s",
-                param.getClass().getName(), String.class.getName()));
+            ErrorCode.ILLEGAL_ARGUMENT_TYPE, param.getClass().getName(), String.class.getName());
     }
   }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
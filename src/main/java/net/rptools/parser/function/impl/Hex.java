@@ -18,6 +18,7 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractNumberFunction;
 import net.rptools.parser.function.EvaluationException;
@@ -37,4 +38,14 @@ public class Hex extends AbstractNumberFunction {
 
     return "0x" + value.toString(16).toUpperCase();
   }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.STRING;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
@@ -17,12 +17,14 @@ package net.rptools.parser.function.impl;
 import java.math.BigDecimal;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractNumberFunction;
+import net.rptools.parser.function.BinaryNumberFunction;
 import net.rptools.parser.function.EvaluationException;
 import net.rptools.parser.function.ParameterException;
 
-public class Lesser extends AbstractNumberFunction {
+public class Lesser extends AbstractNumberFunction implements BinaryNumberFunction {
   public Lesser() {
     super(2, -1, "lt", "<");
   }
@@ -31,15 +33,27 @@ public class Lesser extends AbstractNumberFunction {
   public Object childEvaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
       throws EvaluationException, ParameterException {
-    boolean value = true;
-
     for (int i = 0; i < parameters.size() - 1; i++) {
       BigDecimal d1 = (BigDecimal) parameters.get(i);
       BigDecimal d2 = (BigDecimal) parameters.get(i + 1);
 
-      value &= (d1.compareTo(d2) < 0);
+      if (apply(d1, d2).signum() == 0) return BigDecimal.ZERO;
     }
 
-    return value ? BigDecimal.ONE : BigDecimal.ZERO;
+    return BigDecimal.ONE;
+  }
+
+  public BigDecimal apply(BigDecimal left, BigDecimal right) {
+    return left.compareTo(right) < 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+  }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.NUMBER;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
   }
 }
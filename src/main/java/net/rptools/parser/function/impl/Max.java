@@ -17,12 +17,16 @@ package net.rptools.parser.function.impl;
 import java.math.BigDecimal;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractNumberFunction;
+import net.rptools.parser.function.BinaryNumberFunction;
 import net.rptools.parser.function.EvaluationException;
 import net.rptools.parser.function.ParameterException;
+import net.rptools.parser.function.UnaryNumberFunction;
 
-public class Max extends AbstractNumberFunction {
+public class Max extends AbstractNumberFunction
+    implements UnaryNumberFunction, BinaryNumberFunction {
   public Max() {
     super(1, -1, "max");
   }
@@ -31,20 +35,31 @@ public class Max extends AbstractNumberFunction {
   public Object childEvaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
       throws EvaluationException, ParameterException {
-    BigDecimal result = null;
-    boolean first = true;
-
-    for (Object param : parameters) {
-      BigDecimal n = (BigDecimal) param;
-
-      if (first) {
-        result = n;
-        first = false;
-      } else {
-        result = result.max(n);
-      }
+    BigDecimal result = (BigDecimal) parameters.get(0);
+    if (parameters.size() == 1) return apply(result);
+
+    for (int i = 1; i < parameters.size(); i++) {
+      result = apply(result, (BigDecimal) parameters.get(i));
     }
 
     return result;
   }
+
+  public BigDecimal apply(BigDecimal value) {
+    return value;
+  }
+
+  public BigDecimal apply(BigDecimal left, BigDecimal right) {
+    return left.max(right);
+  }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.NUMBER;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
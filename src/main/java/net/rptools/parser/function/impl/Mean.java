@@ -17,6 +17,7 @@ package net.rptools.parser.function.impl;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.List;
+import net.rptools.parser.ErrorCode;
 import net.rptools.parser.Parser;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractFunction;
@@ -57,9 +58,14 @@ public class Mean extends AbstractFunction {
     for (Object param : parameters) {
       if (!(param instanceof BigDecimal))
         throw new ParameterException(
-            String.format(
-                "Illegal argument type %s, expecting %s",
-                param.getClass().getName(), BigDecimal.class.getName()));
+            ErrorCode.ILLEGAL_ARGUMENT_TYPE,
+            param.getClass().getName(),
+            BigDecimal.class.getName());
     }
   }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
@@ -19,6 +19,7 @@ import java.math.MathContext;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import net.rptools.parser.ErrorCode;
 import net.rptools.parser.Parser;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractFunction;
@@ -73,9 +74,14 @@ public class Median extends AbstractFunction {
     for (Object param : parameters) {
       if (!(param instanceof BigDecimal))
         throw new ParameterException(
-            String.format(
-                "Illegal argument type %s, expecting %s",
-                param.getClass().getName(), BigDecimal.class.getName()));
+            ErrorCode.ILLEGAL_ARGUMENT_TYPE,
+            param.getClass().getName(),
+            BigDecimal.class.getName());
     }
   }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
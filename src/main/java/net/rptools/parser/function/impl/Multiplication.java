@@ -17,12 +17,14 @@ package net.rptools.parser.function.impl;
 import java.math.BigDecimal;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractNumberFunction;
+import net.rptools.parser.function.BinaryNumberFunction;
 import net.rptools.parser.function.EvaluationException;
 import net.rptools.parser.function.ParameterException;
 
-public class Multiplication extends AbstractNumberFunction {
+public class Multiplication extends AbstractNumberFunction implements BinaryNumberFunction {
   public Multiplication() {
     super(2, -1, "multiply", "*");
   }
@@ -31,14 +33,26 @@ public class Multiplication extends AbstractNumberFunction {
   public Object childEvaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
       throws EvaluationException, ParameterException {
-    BigDecimal total = BigDecimal.ONE;
+    BigDecimal total = (BigDecimal) parameters.get(0);
 
-    for (Object param : parameters) {
-      BigDecimal n = (BigDecimal) param;
-
-      total = total.multiply(n);
+    for (int i = 1; i < parameters.size(); i++) {
+      total = apply(total, (BigDecimal) parameters.get(i));
     }
 
     return total;
   }
+
+  public BigDecimal apply(BigDecimal left, BigDecimal right) {
+    return BigDecimal.ONE.multiply(left).multiply(right);
+  }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.NUMBER;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
@@ -32,4 +32,9 @@ public class Not extends AbstractLogicalOperatorFunction {
       throws EvaluationException, ParameterException {
     return BooleanAsBigDecimal(!ConvertToBoolean(parameters.get(0)));
   }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
@@ -17,12 +17,15 @@ package net.rptools.parser.function.impl;
 import java.math.BigDecimal;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractFunction;
+import net.rptools.parser.function.BinaryNumberFunction;
 import net.rptools.parser.function.EvaluationException;
+import net.rptools.parser.function.Function;
 import net.rptools.parser.function.ParameterException;
 
-public class NotEquals extends AbstractFunction {
+public class NotEquals extends AbstractFunction implements BinaryNumberFunction {
   public NotEquals() {
     super(2, -1, "ne", "!=");
   }
@@ -31,24 +34,56 @@ public class NotEquals extends AbstractFunction {
   public Object childEvaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
       throws EvaluationException, ParameterException {
-    boolean value = true;
-
     if (!containsOnlyBigDecimals(parameters)) {
-      for (int i = 0; i < parameters.size() - 1; i++) {
-        String s1 = parameters.get(i).toString();
-        String s2 = parameters.get(i + 1).toString();
-
-        value &= !s1.trim().equalsIgnoreCase(s2.trim());
-      }
+      return compareStrings(parameters);
     } else {
-      for (int i = 0; i < parameters.size() - 1; i++) {
-        BigDecimal d1 = (BigDecimal) parameters.get(i);
-        BigDecimal d2 = (BigDecimal) parameters.get(i + 1);
+      return compareNumbers(parameters);
+    }
+  }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.NUMBER;
+  }
+
+  @Override
+  public Function getSpecialization(List<ValueType> argumentTypes) {
+    if (argumentTypes.contains(ValueType.STRING))
+      return specialize((parser, resolver, functionName, parameters) -> compareStrings(parameters));
+    if (ValueType.allNumbers(argumentTypes))
+      return specialize((parser, resolver, functionName, parameters) -> compareNumbers(parameters));
+    return this;
+  }
 
-        value &= (d1.compareTo(d2) != 0);
-      }
+  private static BigDecimal compareStrings(List<Object> parameters) {
+    boolean value = true;
+
+    for (int i = 0; i < parameters.size() - 1; i++) {
+      String s1 = parameters.get(i).toString();
+      String s2 = parameters.get(i + 1).toString();
+      value &= !s1.trim().equalsIgnoreCase(s2.trim());
     }
 
     return value ? BigDecimal.ONE : BigDecimal.ZERO;
   }
+
+  private BigDecimal compareNumbers(List<Object> parameters) {
+    for (int i = 0; i < parameters.size() - 1; i++) {
+      BigDecimal d1 = (BigDecimal) parameters.get(i);
+      BigDecimal d2 = (BigDecimal) parameters.get(i + 1);
+
+      if (apply(d1, d2).signum() == 0) return BigDecimal.ZERO;
+    }
+
+    return BigDecimal.ONE;
+  }
+
+  public BigDecimal apply(BigDecimal left, BigDecimal right) {
+    return left.compareTo(right) != 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
+  }
 }
@@ -18,12 +18,16 @@ import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractNumberFunction;
+import net.rptools.parser.function.BinaryNumberFunction;
 import net.rptools.parser.function.EvaluationException;
 import net.rptools.parser.function.ParameterException;
+import net.rptools.parser.function.UnaryNumberFunction;
 
-public class Power extends AbstractNumberFunction {
+public class Power extends AbstractNumberFunction
+    implements UnaryNumberFunction, BinaryNumberFunction {
   private static final int DEFAULT_SCALE = 2;
 
   public Power() {
@@ -35,12 +39,26 @@ public class Power extends AbstractNumberFunction {
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
       throws EvaluationException, ParameterException {
     BigDecimal value = (BigDecimal) parameters.get(0);
+    if (parameters.size() == 2) return apply(value, (BigDecimal) parameters.get(1));
 
-    int scale = DEFAULT_SCALE;
-    if (parameters.size() == 2) {
-      scale = ((BigDecimal) parameters.get(1)).intValue();
-    }
+    return apply(value);
+  }
+
+  public BigDecimal apply(BigDecimal value) {
+    return value.pow(DEFAULT_SCALE, MathContext.DECIMAL128);
+  }
+
+  public BigDecimal apply(BigDecimal left, BigDecimal right) {
+    return left.pow(right.intValue(), MathContext.DECIMAL128);
+  }
 
-    return value.pow(scale, MathContext.DECIMAL128);
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.NUMBER;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
   }
 }
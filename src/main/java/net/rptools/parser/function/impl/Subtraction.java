@@ -17,12 +17,16 @@ package net.rptools.parser.function.impl;
 import java.math.BigDecimal;
 import java.util.List;
 import net.rptools.parser.Parser;
+import net.rptools.parser.ValueType;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.AbstractNumberFunction;
+import net.rptools.parser.function.BinaryNumberFunction;
 import net.rptools.parser.function.EvaluationException;
 import net.rptools.parser.function.ParameterException;
+import net.rptools.parser.function.UnaryNumberFunction;
 
-public class Subtraction extends AbstractNumberFunction {
+public class Subtraction extends AbstractNumberFunction
+    implements UnaryNumberFunction, BinaryNumberFunction {
   public Subtraction() {
     super(1, -1, "subtract", "-");
   }
@@ -31,26 +35,32 @@ public class Subtraction extends AbstractNumberFunction {
   public Object childEvaluate(
       Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
       throws EvaluationException, ParameterException {
-    if (parameters.size() == 1) {
-      // unary usage
-      BigDecimal f = (BigDecimal) parameters.get(0);
-      return f.negate();
-    } else {
-      BigDecimal total = null;
-      boolean first = true;
-
-      for (Object param : parameters) {
-        BigDecimal n = (BigDecimal) param;
-
-        if (first) {
-          total = n;
-          first = false;
-        } else {
-          total = total.subtract(n);
-        }
-      }
-
-      return total;
+    BigDecimal total = (BigDecimal) parameters.get(0);
+    // unary usage
+    if (parameters.size() == 1) return apply(total);
+
+    for (int i = 1; i < parameters.size(); i++) {
+      total = apply(total, (BigDecimal) parameters.get(i));
     }
+
+    return total;
+  }
+
+  public BigDecimal apply(BigDecimal value) {
+    return value.negate();
+  }
+
+  public BigDecimal apply(BigDecimal left, BigDecimal right) {
+    return left.subtract(right);
+  }
+
+  @Override
+  public ValueType getReturnType(List<ValueType> argumentTypes) {
+    return ValueType.NUMBER;
+  }
+
+  @Override
+  public boolean isBorrowingParameters() {
+    return true;
   }
 }
@@ -0,0 +1,223 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link Transformer} that applies a whole list of regular expression rules in a single scan of
+ * the input.
+ *
+ * <p>All rules are compiled into one alternation, so the cost of a transform depends on the length
+ * of the input rather than on the number of rules. Unlike {@link RegexpStringTransformer}, the
+ * rules are not applied one after another: at each position the first rule (in declaration order)
+ * that matches wins, and replaced text is never rescanned by the remaining rules.
+ *
+ * <p>Replacements use the same syntax as {@link Matcher#replaceAll(String)}; group numbers and back
+ * references are local to their own rule. Named groups must be unique across all rules.
+ */
+public class FusedRegexpStringTransformer implements Transformer {
+
+  private final Pattern pattern;
+
+  /** Index of the group wrapping each rule in the combined pattern. */
+  private final int[] ruleGroups;
+
+  private final Object[][] replacements;
+
+  public FusedRegexpStringTransformer(String[][] regexps) {
+    this(column(regexps, 0), column(regexps, 1));
+  }
+
+  public FusedRegexpStringTransformer(String[] patterns, String[] replacements) {
+    if (patterns.length != replacements.length)
+      throw new IllegalArgumentException(
+          String.format(
+              "Expected one replacement per pattern; got %d patterns and %d replacements",
+              patterns.length, replacements.length));
+
+    this.ruleGroups = new int[patterns.length];
+    this.replacements = new Object[patterns.length][];
+
+    StringBuilder combined = new StringBuilder();
+    int group = 1;
+    for (int i = 0; i < patterns.length; i++) {
+      int groupCount = Pattern.compile(patterns[i]).matcher("").groupCount();
+
+      if (i > 0) combined.append('|');
+      combined.append('(');
+      appendRenumbered(combined, patterns[i], groupCount, group);
+      combined.append(')');
+
+      this.ruleGroups[i] = group;
+      this.replacements[i] = compileReplacement(replacements[i], groupCount, group);
+      group += groupCount + 1;
+    }
+
+    this.pattern = Pattern.compile(combined.toString());
+  }
+
+  public String transform(String str) {
+    Matcher m = pattern.matcher(str);
+    if (!m.find()) return str;
+
+    StringBuilder sb = new StringBuilder(str.length() + 16);
+    int last = 0;
+    do {
+      sb.append(str, last, m.start());
+
+      for (Object part : replacements[matchedRule(m)]) {
+        if (part instanceof Integer) {
+          String value = m.group((Integer) part);
+          if (value != null) sb.append(value);
+        } else if (part instanceof GroupName) {
+          String value = m.group(((GroupName) part).name);
+          if (value != null) sb.append(value);
+        } else {
+          sb.append((String) part);
+        }
+      }
+
+      last = m.end();
+    } while (m.find());
+
+    sb.append(str, last, str.length());
+    return sb.toString();
+  }
+
+  private int matchedRule(Matcher m) {
+    for (int i = 0; i < ruleGroups.length; i++) {
+      if (m.start(ruleGroups[i]) != -1) return i;
+    }
+    throw new IllegalStateException("Match did not belong to any rule");
+  }
+
+  private static String[] column(String[][] regexps, int index) {
+    String[] ret = new String[regexps.length];
+    for (int i = 0; i < regexps.length; i++) ret[i] = regexps[i][index];
+    return ret;
+  }
+
+  /**
+   * Copies a pattern into the combined pattern, shifting numeric back references so that they still
+   * point at the groups of their own rule.
+   */
+  private static void appendRenumbered(
+      StringBuilder sb, String pattern, int groupCount, int wrapperGroup) {
+    int len = pattern.length();
+    for (int i = 0; i < len; i++) {
+      char c = pattern.charAt(i);
+      if (c != '\\' || i + 1 >= len) {
+        sb.append(c);
+        continue;
+      }
+
+      char next = pattern.charAt(i + 1);
+      if (next == 'Q') {
+        // quoted section, copy verbatim up to and including \E
+        int end = pattern.indexOf("\\E", i + 2);
+        end = end < 0 ? len : end + 2;
+        sb.append(pattern, i, end);
+        i = end - 1;
+      } else if (next >= '1' && next <= '9') {
+        int[] ref = parseGroupNumber(pattern, i + 1, groupCount);
+        sb.append('\\').append(ref[0] + wrapperGroup);
+        i = ref[1] - 1;
+      } else {
+        sb.append(c).append(next);
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Splits a replacement string into literal text and group references, following the rules of
+   * {@link Matcher#appendReplacement}.
+   */
+  private static Object[] compileReplacement(String replacement, int groupCount, int wrapperGroup) {
+    List<Object> parts = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+
+    int len = replacement.length();
+    for (int i = 0; i < len; i++) {
+      char c = replacement.charAt(i);
+      if (c == '\\') {
+        if (++i >= len) throw new IllegalArgumentException("character to be escaped is missing");
+        literal.append(replacement.charAt(i));
+      } else if (c == '$') {
+        if (++i >= len)
+          throw new IllegalArgumentException("Illegal group reference: group index is missing");
+
+        if (literal.length() > 0) {
+          parts.add(literal.toString());
+          literal.setLength(0);
+        }
+
+        if (replacement.charAt(i) == '{') {
+          int end = replacement.indexOf('}', i);
+          if (end < 0)
+            throw new IllegalArgumentException("named capturing group is missing trailing '}'");
+          parts.add(new GroupName(replacement.substring(i + 1, end)));
+          i = end;
+        } else {
+          char digit = replacement.charAt(i);
+          if (digit < '0' || digit > '9')
+            throw new IllegalArgumentException("Illegal group reference");
+          int[] ref = parseGroupNumber(replacement, i, groupCount);
+          if (ref[0] > groupCount)
+            throw new IndexOutOfBoundsException(String.format("No group %d", ref[0]));
+          parts.add(ref[0] + wrapperGroup);
+          i = ref[1] - 1;
+        }
+      } else {
+        literal.append(c);
+      }
+    }
+
+    if (literal.length() > 0) parts.add(literal.toString());
+    return parts.toArray();
+  }
+
+  /**
+   * Reads a group number the way java.util.regex does: the first digit is always consumed, further
+   * digits only as long as the result remains a valid group.
+   *
+   * @return the group number and the index just past it
+   */
+  private static int[] parseGroupNumber(String s, int start, int groupCount) {
+    int number = s.charAt(start) - '0';
+    int i = start + 1;
+    while (i < s.length()) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') break;
+      int candidate = number * 10 + (c - '0');
+      if (candidate > groupCount) break;
+      number = candidate;
+      i++;
+    }
+    return new int[] {number, i};
+  }
+
+  private static final class GroupName {
+    private final String name;
+
+    private GroupName(String name) {
+      this.name = name;
+    }
+  }
+}
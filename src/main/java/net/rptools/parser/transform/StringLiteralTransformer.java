@@ -14,75 +14,126 @@
  */
 package net.rptools.parser.transform;
 
-import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Replaces quoted string literals with opaque tokens so that other transformers can rewrite an
+ * expression without touching the contents of its strings, and puts them back afterwards.
+ *
+ * <p>{@link #removeStrings(String)} keeps the extracted literals in the returned {@link Literals}
+ * and shares no state between calls, so it can be used from any number of threads. The {@link
+ * #getRemoveTransformer()} / {@link #getReplaceTransformer()} pair stores literals in this instance
+ * between the two calls.
+ */
 public class StringLiteralTransformer {
-  private int id = 0;
-  private HashMap<String, String> strings = new HashMap<String, String>();
+  private static final String TOKEN_PREFIX = "StringLiteralTransformer";
+  private static final String TOKEN_SUFFIX = "TOKEN";
+  private static final int MAX_TOKEN_DIGITS = 9;
+
+  private final AtomicInteger id = new AtomicInteger();
+  private final Map<Integer, String> strings = new ConcurrentHashMap<>();
 
   public StringLiteralTransformer() {}
 
-  private String getNextToken() {
-    return String.format("StringLiteralTransformer%dTOKEN", id++);
+  /**
+   * Replaces every string literal in <code>str</code> with a token.
+   *
+   * @param str the text to remove the strings from
+   * @return the transformed text together with the literals needed to restore it
+   */
+  public static Literals removeStrings(String str) {
+    List<String> literals = new ArrayList<>();
+    String text =
+        removeStrings(
+            str,
+            literal -> {
+              literals.add(literal);
+              return literals.size() - 1;
+            });
+    return new Literals(text, literals);
   }
 
-  private synchronized String removeStringsTransform(String str) {
+  private String removeStringsTransform(String str) {
+    return removeStrings(
+        str,
+        literal -> {
+          int token = id.getAndIncrement();
+          strings.put(token, literal);
+          return token;
+        });
+  }
 
-    StringBuilder ret = new StringBuilder();
+  private String replaceStringsTransform(String str) {
+    return replaceStrings(str, token -> strings.remove(token));
+  }
 
-    StringBuilder currentString = new StringBuilder();
-    boolean inString = false;
-    char currentStringChar = '\'';
+  private static String removeStrings(String str, ToIntFunction<String> store) {
+    int len = str.length();
+    StringBuilder ret = new StringBuilder(len);
 
-    for (char c : str.toCharArray()) {
-      if (inString) {
-        currentString.append(c);
+    int start = 0;
+    while (start < len) {
+      int open = start;
+      char c = 0;
+      while (open < len && (c = str.charAt(open)) != '\'' && c != '"') open++;
 
-        if (c == currentStringChar) {
-          inString = false;
+      ret.append(str, start, open);
+      if (open == len) break;
 
-          String token = getNextToken();
+      int close = str.indexOf(c, open + 1);
+      if (close < 0) {
+        // unterminated strings are dropped, as they always have been
+        break;
+      }
 
-          strings.put(token, currentString.toString());
+      int token = store.applyAsInt(str.substring(open, close + 1));
+      ret.append(TOKEN_PREFIX).append(token).append(TOKEN_SUFFIX);
 
-          currentString = new StringBuilder();
-          ret.append(token);
-        }
-      } else {
-        switch (c) {
-          case '\'':
-          case '"':
-            currentStringChar = c;
-            currentString.append(c);
-            inString = true;
-            break;
-          default:
-            ret.append(c);
-            break;
-        }
-      }
+      start = close + 1;
     }
 
     return ret.toString();
   }
 
-  private Pattern tokenRegex = Pattern.compile("StringLiteralTransformer\\d+TOKEN");
-
-  private synchronized String replaceStringsTransform(String str) {
-    Matcher m = tokenRegex.matcher(str);
-    StringBuffer sb = new StringBuffer();
+  private static String replaceStrings(String str, IntFunction<String> lookup) {
+    int found = str.indexOf(TOKEN_PREFIX);
+    if (found < 0) return str;
+
+    StringBuilder ret = new StringBuilder(str.length() * 2);
+    int start = 0;
+    while (found >= 0) {
+      int digitsStart = found + TOKEN_PREFIX.length();
+      int digitsEnd = digitsStart;
+      int token = 0;
+      while (digitsEnd < str.length()
+          && digitsEnd - digitsStart < MAX_TOKEN_DIGITS
+          && str.charAt(digitsEnd) >= '0'
+          && str.charAt(digitsEnd) <= '9') {
+        token = token * 10 + (str.charAt(digitsEnd) - '0');
+        digitsEnd++;
+      }
 
-    while (m.find()) {
-      String token = m.group();
+      String literal = null;
+      if (digitsEnd > digitsStart && str.startsWith(TOKEN_SUFFIX, digitsEnd))
+        literal = lookup.apply(token);
 
-      m.appendReplacement(sb, strings.remove(token));
+      if (literal != null) {
+        ret.append(str, start, found).append(literal);
+        start = digitsEnd + TOKEN_SUFFIX.length();
+        found = str.indexOf(TOKEN_PREFIX, start);
+      } else {
+        found = str.indexOf(TOKEN_PREFIX, digitsStart);
+      }
     }
+    ret.append(str, start, str.length());
 
-    m.appendTail(sb);
-
-    return sb.toString();
+    return ret.toString();
   }
 
   public Transformer getRemoveTransformer() {
@@ -100,4 +151,36 @@ public class StringLiteralTransformer {
       }
     };
   }
+
+  /** The string literals removed by one call to {@link #removeStrings(String)}. */
+  public static final class Literals {
+    private final String text;
+    private final List<String> literals;
+
+    private Literals(String text, List<String> literals) {
+      this.text = text;
+      this.literals = literals;
+    }
+
+    /** @return the text with every string literal replaced by a token */
+    public String getText() {
+      return text;
+    }
+
+    /** @return the number of literals that were removed */
+    public int size() {
+      return literals.size();
+    }
+
+    /**
+     * Puts the literals back into <code>str</code>, which is usually {@link #getText()} after
+     * further transformation. Tokens may be restored any number of times.
+     *
+     * @param str the text containing tokens
+     * @return the text with the tokens replaced by their literals
+     */
+    public String restore(String str) {
+      return replaceStrings(str, token -> token < literals.size() ? literals.get(token) : null);
+    }
+  }
 }
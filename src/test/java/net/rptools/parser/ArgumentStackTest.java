@@ -0,0 +1,225 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+import net.rptools.parser.function.AbstractFunction;
+
+public class ArgumentStackTest extends TestCase {
+  public void testFramesAreReused() {
+    ArgumentStack stack = new ArgumentStack();
+    int outer = stack.reserve(2);
+    stack.set(outer, "a");
+    stack.set(outer + 1, "b");
+    List<Object> outerFrame = stack.frame(outer, 2);
+
+    int inner = stack.reserve(40);
+    for (int i = 0; i < 40; i++) stack.set(inner + i, i);
+    List<Object> innerFrame = stack.frame(inner, 40);
+    assertEquals(40, innerFrame.size());
+    assertEquals(39, innerFrame.get(39));
+    stack.release(inner);
+
+    assertEquals(List.of("a", "b"), outerFrame);
+    outerFrame.set(0, "c");
+    assertEquals("c", stack.get(outer));
+    stack.release(outer);
+    assertEquals(0, stack.getDepth());
+
+    int again = stack.reserve(1);
+    assertSame(outerFrame, stack.frame(again, 1));
+    assertNull(outerFrame.get(0));
+    try {
+      outerFrame.get(1);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {
+    }
+  }
+
+  public void testStackIsUnwoundAfterErrors() throws ParserException {
+    Parser parser = new Parser();
+    try {
+      parser.parseExpression("max(1, 2, undefined(3, 4))").evaluate();
+      fail();
+    } catch (ParserException expected) {
+    }
+    assertEquals(0, ArgumentStack.get().getDepth());
+  }
+
+  public void testParametersCanBeSorted() throws ParserException {
+    Parser parser = new Parser();
+    assertEquals(new BigDecimal(3), parser.parseExpression("median(5, 1, 3, 9, 2) + 0").evaluate());
+  }
+
+  public void testBorrowingFunctionsShareParameterLists() throws ParserException {
+    Parser parser = new Parser();
+    First first = new First(true);
+    parser.addFunction(first);
+    Expression xp = parser.parseExpression("first(first(x, y), first(z, x))");
+    VariableResolver resolver = new ConstantResolver();
+
+    xp.evaluate(resolver);
+    xp.evaluate(resolver);
+    assertEquals(6, first.seen.size());
+    // the two inner calls are at the same depth, so see the same view
+    assertSame(first.seen.get(0), first.seen.get(1));
+    assertSame(first.seen.get(0), first.seen.get(3));
+    assertSame(first.seen.get(2), first.seen.get(5));
+    assertNotSame(first.seen.get(0), first.seen.get(2));
+  }
+
+  public void testOtherFunctionsOwnTheirParameters() throws ParserException {
+    Parser parser = new Parser();
+    First first = new First(false);
+    parser.addFunction(first);
+    Expression xp = parser.parseExpression("first(first(1, 2), first(3, 4))");
+
+    assertEquals(BigDecimal.ONE, xp.evaluate());
+    assertEquals(BigDecimal.ONE, xp.evaluate());
+    assertEquals(6, first.seen.size());
+    assertEquals(List.of(BigDecimal.ONE, new BigDecimal(2), "kept"), first.seen.get(0));
+    assertEquals(List.of(new BigDecimal(3), new BigDecimal(4), "kept"), first.seen.get(1));
+    assertNotSame(first.seen.get(0), first.seen.get(3));
+  }
+
+  public void testOverridingEvaluationDropsTheOptIn() throws ParserException {
+    Parser parser = new Parser();
+    First first =
+        new First(true) {
+          @Override
+          public Object childEvaluate(
+              Parser parser,
+              VariableResolver resolver,
+              String functionName,
+              List<Object> parameters) {
+            parameters.add("kept");
+            return super.childEvaluate(parser, resolver, functionName, parameters);
+          }
+        };
+    parser.addFunction(first);
+
+    assertEquals(new BigDecimal(2), parser.parseExpression("first(2, 3)").evaluate());
+    assertEquals(List.of(new BigDecimal(2), new BigDecimal(3), "kept"), first.seen.get(0));
+  }
+
+  /**
+   * Counts the bytes allocated by evaluations whose calls borrow their parameters, and by the same
+   * evaluations when the calls are given copies. Skipped where the JVM cannot count allocations.
+   */
+  public void testBorrowedParametersAreNotCopied() throws ParserException {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled())
+      return;
+
+    long borrowing = allocatedPerEvaluation(threads, true);
+    long copying = allocatedPerEvaluation(threads, false);
+
+    // a new ArrayList for each of the four calls takes over 200 bytes
+    assertTrue("allocated " + borrowing + " bytes per evaluation", borrowing < 16);
+    assertTrue("allocated " + copying + " bytes per evaluation with copies", copying > 200);
+  }
+
+  private static long allocatedPerEvaluation(
+      com.sun.management.ThreadMXBean threads, boolean borrowing) throws ParserException {
+    Parser parser = new Parser();
+    parser.addFunction(new Head(borrowing));
+    Expression xp = parser.parseExpression("head(head(x, y, z), head(y, z), head(z, x, y, x))");
+    VariableResolver resolver = new ConstantResolver();
+
+    final int iterations = 200_000;
+    for (int i = 0; i < iterations; i++) xp.evaluate(resolver);
+
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < iterations; i++) xp.evaluate(resolver);
+    return (threads.getThreadAllocatedBytes(thread) - before) / iterations;
+  }
+
+  /** Returns its first argument, allocating nothing. */
+  private static class Head extends AbstractFunction {
+    private final boolean borrowing;
+
+    Head(boolean borrowing) {
+      super(1, -1, "head");
+      this.borrowing = borrowing;
+    }
+
+    @Override
+    public Object childEvaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters) {
+      return parameters.get(0);
+    }
+
+    @Override
+    public boolean isBorrowingParameters() {
+      return borrowing;
+    }
+  }
+
+  /**
+   * Returns its first argument and keeps every parameter list it is given. Unless it borrows them,
+   * it also adds to each list.
+   */
+  private static class First extends AbstractFunction {
+    private final boolean borrowing;
+    private final List<List<Object>> seen = new ArrayList<>();
+
+    First(boolean borrowing) {
+      super(1, -1, "first");
+      this.borrowing = borrowing;
+    }
+
+    @Override
+    public Object childEvaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters) {
+      seen.add(parameters);
+      if (!borrowing && !parameters.contains("kept")) parameters.add("kept");
+      return parameters.get(0);
+    }
+
+    @Override
+    public boolean isBorrowingParameters() {
+      return borrowing;
+    }
+  }
+
+  /** Holds every variable, with the same value. */
+  private static class ConstantResolver extends MapVariableResolver {
+    private static final BigDecimal VALUE = BigDecimal.TEN;
+
+    @Override
+    public boolean containsVariable(String name, VariableModifiers vType) {
+      return true;
+    }
+
+    @Override
+    public Object getVariable(String variableName, VariableModifiers vType) {
+      return VALUE;
+    }
+
+    @Override
+    public Set<String> getVariables() {
+      return Collections.emptySet();
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import junit.framework.TestCase;
+import net.rptools.parser.function.AbstractFunction;
+import net.rptools.parser.function.AsyncFunction;
+
+public class AsyncEvaluationTest extends TestCase {
+  private Parser parser;
+  private PendingResolver resolver;
+
+  @Override
+  protected void setUp() throws ParserException {
+    parser = new Parser();
+    parser.addFunction(new Fetch());
+    resolver = new PendingResolver();
+    resolver.setVariable("x", new BigDecimal(3));
+    resolver.setVariable("y", new BigDecimal(4));
+  }
+
+  public void testIndependentArgumentsAreResolvedConcurrently() throws ParserException {
+    CompletableFuture<Object> result =
+        parser.parseExpression("max(x * 2, y, 1)").evaluateAsync(resolver);
+
+    assertFalse(result.isDone());
+    assertEquals(List.of("x", "y"), new ArrayList<>(resolver.pending.keySet()));
+
+    resolver.complete("y");
+    resolver.complete("x");
+    assertEquals(new BigDecimal(6), result.join());
+  }
+
+  public void testAssignmentsKeepEvaluationOrder() throws ParserException {
+    CompletableFuture<Object> result =
+        parser.parseExpression("x + set('x', y + 1) + x").evaluateAsync(resolver);
+
+    assertEquals(List.of("x"), new ArrayList<>(resolver.pending.keySet()));
+    resolver.complete("x");
+    assertEquals(List.of("y"), new ArrayList<>(resolver.pending.keySet()));
+    resolver.complete("y");
+    assertEquals(List.of("x"), new ArrayList<>(resolver.pending.keySet()));
+    resolver.complete("x");
+
+    assertEquals(new BigDecimal(13), result.join());
+  }
+
+  public void testAsyncFunction() throws ParserException {
+    Fetch fetch = (Fetch) parser.getFunction("fetch");
+    CompletableFuture<Object> result =
+        parser.parseExpression("fetch('a') + fetch('b')").evaluateAsync(resolver);
+
+    assertEquals(List.of("a", "b"), new ArrayList<>(fetch.pending.keySet()));
+    fetch.pending.get("b").complete(BigDecimal.ONE);
+    fetch.pending.get("a").complete(BigDecimal.TEN);
+    assertEquals(new BigDecimal(11), result.join());
+  }
+
+  public void testMatchesSynchronousEvaluation() throws ParserException {
+    resolver.immediate = true;
+    for (String source : List.of("1 + 2 * 3", "'a' + x", "-x + abs(-y)", "x == 3 && y > 2")) {
+      Expression xp = parser.parseExpression(source);
+      assertEquals(xp.evaluate(resolver), xp.evaluateAsync(resolver).join());
+    }
+  }
+
+  public void testErrorsFailTheFuture() throws ParserException {
+    resolver.immediate = true;
+    for (String source : List.of("missing + 1", "undefined(x)", "sqrt(x, 1, 2)")) {
+      try {
+        parser.parseExpression(source).evaluateAsync(resolver).join();
+        fail();
+      } catch (CompletionException expected) {
+        assertTrue(expected.getCause() instanceof ParserException);
+      }
+    }
+  }
+
+  public void testPrefetchesBeforeLookingUp() throws ParserException {
+    CompletableFuture<Object> result =
+        parser.parseExpression("x + ?y + fetch('a')").evaluateAsync(resolver);
+
+    assertEquals(List.of(List.of("x"), List.of("y")), resolver.prefetches);
+    assertEquals(List.of("x", "y"), new ArrayList<>(resolver.pending.keySet()));
+    resolver.complete("x");
+    resolver.complete("y");
+    ((Fetch) parser.getFunction("fetch")).pending.get("a").complete(BigDecimal.ONE);
+    assertEquals(new BigDecimal(8), result.join());
+  }
+
+  public void testFailedPrefetchFailsTheFuture() throws ParserException {
+    resolver.failPrefetch = true;
+    try {
+      parser.parseExpression("x + 1").evaluateAsync(resolver).join();
+      fail();
+    } catch (CompletionException expected) {
+      assertTrue(expected.getCause() instanceof ParserException);
+    }
+    assertTrue(resolver.pending.isEmpty());
+  }
+
+  /** Answers lookups only when told to, unless it is immediate, and records prefetches. */
+  private static class PendingResolver extends MapVariableResolver
+      implements AsyncVariableResolver {
+    private final Map<String, CompletableFuture<Object>> pending = new LinkedHashMap<>();
+    private final List<List<String>> prefetches = new ArrayList<>();
+    private boolean immediate;
+    private boolean failPrefetch;
+
+    @Override
+    public void prefetch(Set<String> names, Set<String> promptNames) throws ParserException {
+      if (failPrefetch) throw new ParserException("prefetch failed");
+      assertTrue(pending.isEmpty());
+      prefetches.add(List.copyOf(names));
+      prefetches.add(List.copyOf(promptNames));
+    }
+
+    @Override
+    public CompletableFuture<Object> lookupVariableAsync(String name, VariableModifiers vType) {
+      if (immediate) return AsyncVariableResolver.super.lookupVariableAsync(name, vType);
+      CompletableFuture<Object> future = new CompletableFuture<>();
+      pending.put(name, future);
+      return future;
+    }
+
+    void complete(String name) throws ParserException {
+      pending.remove(name).complete(lookupVariable(name, VariableModifiers.None));
+    }
+  }
+
+  /** Returns a future for each call, which the test completes. */
+  private static class Fetch extends AbstractFunction implements AsyncFunction {
+    private final Map<String, CompletableFuture<Object>> pending = new LinkedHashMap<>();
+
+    Fetch() {
+      super(1, 1, "fetch");
+    }
+
+    @Override
+    public CompletableFuture<Object> evaluateAsync(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
+        throws ParserException {
+      checkParameters(functionName, parameters);
+      CompletableFuture<Object> future = new CompletableFuture<>();
+      pending.put((String) parameters.get(0), future);
+      return future;
+    }
+
+    @Override
+    public Object childEvaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
+        throws ParserException {
+      return evaluateAsync(parser, resolver, functionName, parameters).join();
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.List;
+import junit.framework.TestCase;
+import net.rptools.parser.function.AbstractNumberFunction;
+
+public class CommonSubexpressionsTest extends TestCase {
+  private Parser parser;
+  private CountingFunction counting;
+  private CountingFunction nonDeterministic;
+  private VariableResolver resolver;
+
+  @Override
+  protected void setUp() throws ParserException {
+    parser = new Parser();
+    parser.getEvaluationTreeParser().setSharingSubexpressions(true);
+    counting = new CountingFunction(true, "count");
+    nonDeterministic = new CountingFunction(false, "roll");
+    parser.addFunction(counting);
+    parser.addFunction(nonDeterministic);
+
+    resolver = new MapVariableResolver();
+    resolver.setVariable("x", new BigDecimal(3));
+    resolver.setVariable("y", new BigDecimal(4));
+  }
+
+  public void testRepeatedSubtreeIsEvaluatedOnce() throws ParserException {
+    Expression xp =
+        parser.parseExpression("count(x*x+y*y) + count(x*x+y*y) * count(x * x + y * y)");
+
+    assertEquals(new BigDecimal(650), xp.evaluate(resolver));
+    assertEquals(1, counting.calls);
+
+    xp.evaluate(resolver);
+    assertEquals(2, counting.calls);
+  }
+
+  public void testSharingIsOptIn() throws ParserException {
+    parser.getEvaluationTreeParser().setSharingSubexpressions(false);
+    Expression xp = parser.parseExpression("count(x) + count(x)");
+
+    assertEquals(new BigDecimal(6), xp.evaluate(resolver));
+    assertEquals(2, counting.calls);
+  }
+
+  public void testDifferentArgumentsAreNotShared() throws ParserException {
+    Expression xp = parser.parseExpression("count(x) + count(y) + count(x, y)");
+
+    assertEquals(new BigDecimal(14), xp.evaluate(resolver));
+    assertEquals(3, counting.calls);
+  }
+
+  public void testNonDeterministicCallsAreNotShared() throws ParserException {
+    Expression xp = parser.parseExpression("roll(x) + roll(x) + count(roll(x)) + count(roll(x))");
+
+    xp.evaluate(resolver);
+    assertEquals(4, nonDeterministic.calls);
+    assertEquals(2, counting.calls);
+  }
+
+  public void testAssignmentInvalidatesSharedValues() throws ParserException {
+    Expression xp = parser.parseExpression("count(x) + set('x', count(x) + 1) + count(x)");
+
+    assertEquals(new BigDecimal(11), xp.evaluate(resolver));
+    assertEquals(2, counting.calls);
+    assertEquals(new BigDecimal(4), resolver.getVariable("x"));
+  }
+
+  public void testExpressionSetSharesAcrossExpressions() throws ParserException {
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("count(x * y) + 1");
+    set.add("count(x * y) * 2");
+    set.add("z = count(x * y) - x");
+    set.add("count(x * y) + z");
+
+    List<Object> results = set.evaluate(resolver);
+
+    assertEquals(
+        List.of(new BigDecimal(13), new BigDecimal(24), new BigDecimal(9), new BigDecimal(21)),
+        results);
+    assertEquals(1, counting.calls);
+  }
+
+  public void testExpressionSetSeesEarlierAssignments() throws ParserException {
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("count(x) + 1");
+    set.add("x = 10");
+    set.add("count(x) + 1");
+
+    assertEquals(
+        List.of(new BigDecimal(4), new BigDecimal(10), new BigDecimal(11)), set.evaluate(resolver));
+    assertEquals(2, counting.calls);
+  }
+
+  /** Sums its arguments and counts how often it is called. */
+  private static class CountingFunction extends AbstractNumberFunction {
+    private int calls;
+
+    CountingFunction(boolean deterministic, String name) {
+      super(1, -1, deterministic, name);
+    }
+
+    @Override
+    public Object childEvaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters) {
+      calls++;
+      BigDecimal total = BigDecimal.ZERO;
+      for (Object param : parameters) total = total.add((BigDecimal) param);
+      return total;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.TestCase;
+
+public class ConcurrentVariableResolverTest extends TestCase {
+  private Parser parser;
+  private ConcurrentVariableResolver resolver;
+
+  @Override
+  protected void setUp() {
+    parser = new Parser();
+    parser.addAtomicFunctions();
+    resolver = new ConcurrentVariableResolver();
+  }
+
+  public void testBasicAccess() throws ParserException {
+    resolver.setVariable("Hp", new BigDecimal(5));
+    resolver.setVariable("none", null);
+
+    assertEquals(new BigDecimal(10), parser.parseExpression("hp * 2").evaluate(resolver));
+    assertTrue(resolver.containsVariable("HP"));
+    assertTrue(resolver.containsVariable("none"));
+    assertNull(resolver.lookupVariable("none", VariableModifiers.None));
+    assertSame(VariableResolver.UNDEFINED, resolver.lookupVariable("x", VariableModifiers.None));
+    assertEquals(2, resolver.getVariables().size());
+  }
+
+  public void testCompareAndSet() throws ParserException {
+    resolver.setVariable("x", new BigDecimal(1));
+
+    assertEquals(
+        BigDecimal.ZERO, parser.parseExpression("compareAndSet('x', 2, 3)").evaluate(resolver));
+    assertEquals(
+        BigDecimal.ONE, parser.parseExpression("compareAndSet('X', 1.0, 3)").evaluate(resolver));
+    assertEquals(new BigDecimal(3), resolver.getVariable("x"));
+
+    assertFalse(resolver.compareAndSetVariable("y", BigDecimal.ONE, BigDecimal.TEN));
+    assertTrue(resolver.compareAndSetVariable("y", VariableResolver.UNDEFINED, BigDecimal.TEN));
+    assertFalse(resolver.compareAndSetVariable("y", VariableResolver.UNDEFINED, BigDecimal.ONE));
+  }
+
+  public void testAddAndGet() throws ParserException {
+    assertEquals(BigDecimal.ONE, parser.parseExpression("addAndGet('n')").evaluate(resolver));
+    assertEquals(new BigDecimal(6), parser.parseExpression("addAndGet('n', 5)").evaluate(resolver));
+
+    resolver.setVariable("s", "text");
+    try {
+      parser.parseExpression("addAndGet('s')").evaluate(resolver);
+      fail();
+    } catch (ParserException expected) {
+      assertEquals(ErrorCode.ILLEGAL_ARGUMENT_TYPE, expected.getErrorCode());
+    }
+  }
+
+  public void testAddAndGetRereadsVariable() throws ParserException {
+    resolver.setVariable("n", BigDecimal.ONE);
+    parser.getEvaluationTreeParser().setResolvingVariablesOnce(true);
+
+    assertEquals(
+        new BigDecimal(3), parser.parseExpression("n + addAndGet('n') - n + n").evaluate(resolver));
+  }
+
+  public void testSharedCounter() throws Exception {
+    Expression increment = parser.parseExpression("addAndGet('counter')");
+    Expression casLoop = parser.parseExpression("compareAndSet('total', total, total + 2)");
+    resolver.setVariable("total", BigDecimal.ZERO);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 1000; i++) {
+                    increment.evaluate(resolver);
+                    while (BigDecimal.ZERO.equals(casLoop.evaluate(resolver))) {}
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) future.get();
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(new BigDecimal(8000), resolver.getVariable("counter"));
+    assertEquals(new BigDecimal(16000), resolver.getVariable("total"));
+  }
+
+  public void testAtomicFunctionsAreNotDefaults() {
+    Parser defaults = new Parser();
+    assertNull(defaults.getFunction("compareAndSet"));
+    assertNull(defaults.getFunction("addAndGet"));
+    assertNotNull(defaults.getFunction("eval"));
+  }
+
+  public void testDefaultsWorkWithOtherResolvers() throws ParserException {
+    MapVariableResolver map = new MapVariableResolver();
+    parser.parseExpression("addAndGet('n', 2) + compareAndSet('n', 2, 7)").evaluate(map);
+    assertEquals(new BigDecimal(7), map.getVariable("n"));
+  }
+}
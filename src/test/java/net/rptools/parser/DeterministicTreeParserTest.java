@@ -97,6 +97,108 @@ public class DeterministicTreeParserTest extends TestCase {
     assertEquals(" ( + 1 10 )", dxp.getTree().toStringTree());
   }
 
+  public void testSpecialize() throws ParserException {
+    Parser p = new Parser();
+    VariableResolver known = new MapVariableResolver();
+    known.setVariable("base", new BigDecimal(10));
+    known.setVariable("bonus", new BigDecimal(2));
+
+    Expression xp = p.parseExpression("roll * (base + bonus * 3) + max(base, bonus)");
+    Expression sxp = xp.specialize(known);
+
+    assertEquals(" ( + ( * roll 16 ) 10 )", sxp.getTree().toStringTree());
+    assertEquals(
+        " ( + ( * roll ( + base ( * bonus 3 ) ) ) ( max base bonus ) )",
+        xp.getTree().toStringTree());
+
+    VariableResolver r = new MapVariableResolver();
+    r.setVariable("roll", new BigDecimal(4));
+    assertEquals(new BigDecimal(74), sxp.evaluate(r));
+  }
+
+  public void testSpecialize_NothingKnown() throws ParserException {
+    Parser p = new Parser();
+    Expression xp = p.parseExpression("a + b * c");
+
+    assertSame(xp, xp.specialize(new MapVariableResolver()));
+  }
+
+  public void testSpecialize_Strings() throws ParserException {
+    Parser p = new Parser();
+    VariableResolver known = new MapVariableResolver();
+    known.setVariable("name", "'quoted'");
+
+    Expression sxp = p.parseExpression("name + ' ' + 'x'").specialize(known);
+
+    assertEquals(0, sxp.getTree().getNumberOfChildren());
+    assertEquals("'quoted' x", sxp.evaluate());
+  }
+
+  public void testSpecialize_StringsWithQuotes() throws ParserException {
+    Parser p = new Parser();
+    VariableResolver known = new MapVariableResolver();
+    known.setVariable("double", "say \"hi\"");
+    known.setVariable("both", "it's \"hi\"");
+
+    Expression sxp = p.parseExpression("double + both").specialize(known);
+
+    assertEquals(" ( + 'say \"hi\"' both )", sxp.getTree().toStringTree());
+    VariableResolver r = new MapVariableResolver();
+    r.setVariable("both", "!");
+    assertEquals("say \"hi\"!", sxp.evaluate(r));
+    assertEquals(
+        sxp.getTree().toStringTree(), p.parseExpression(sxp.format()).getTree().toStringTree());
+  }
+
+  public void testSpecialize_StopsAtPromptsAndNonDeterministicCalls() throws ParserException {
+    Parser p = new Parser();
+    p.addFunction(new NonDeterministicFunction());
+    VariableResolver known = new MapVariableResolver();
+    known.setVariable("a", new BigDecimal(3));
+    known.setVariable("b", new BigDecimal(4));
+
+    Expression sxp = p.parseExpression("a + ?a + a + b").specialize(known);
+    assertEquals(" ( + ( + ( + 3 a ) a ) 4 )", sxp.getTree().toStringTree());
+
+    sxp = p.parseExpression("a + nondeterministic(b, 1) + a + b").specialize(known);
+    assertEquals(" ( + ( + ( + 3 ( nondeterministic 4 1 ) ) a ) b )", sxp.getTree().toStringTree());
+  }
+
+  public void testSpecialize_KeepsNonDeterministicCalls() throws ParserException {
+    Parser p = new Parser();
+    p.addFunction(new NonDeterministicFunction());
+    VariableResolver known = new MapVariableResolver();
+    known.setVariable("a", new BigDecimal(3));
+
+    Expression sxp = p.parseExpression("nondeterministic(a, a * 2) + 1").specialize(known);
+
+    assertEquals(" ( + ( nondeterministic 3 6 ) 1 )", sxp.getTree().toStringTree());
+  }
+
+  public void testSpecialize_StopsAtAssignments() throws ParserException {
+    Parser p = new Parser();
+    VariableResolver known = new MapVariableResolver();
+    known.setVariable("a", new BigDecimal(3));
+    known.setVariable("b", new BigDecimal(4));
+
+    Expression sxp = p.parseExpression("a + set('a', b) + a + b").specialize(known);
+
+    assertEquals(" ( + ( + ( + 3 ( set 'a' 4 ) ) a ) 4 )", sxp.getTree().toStringTree());
+
+    Expression exp = p.parseExpression("a + eval('b = 1') + b").specialize(known);
+    assertEquals(" ( + ( + 3 ( eval 'b = 1' ) ) b )", exp.getTree().toStringTree());
+  }
+
+  public void testSpecialize_LeavesFailingCalls() throws ParserException {
+    Parser p = new Parser();
+    VariableResolver known = new MapVariableResolver();
+    known.setVariable("zero", BigDecimal.ZERO);
+
+    Expression sxp = p.parseExpression("x + 1 / zero").specialize(known);
+
+    assertEquals(" ( + x ( / 1 0 ) )", sxp.getTree().toStringTree());
+  }
+
   /**
    * Test function that declares itself non-deterministic for the purposes of comparing the result
    * of getting a deterministic expression from another expression.
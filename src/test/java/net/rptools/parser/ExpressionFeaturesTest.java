@@ -0,0 +1,73 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import junit.framework.TestCase;
+
+public class ExpressionFeaturesTest extends TestCase {
+  private Parser parser;
+
+  @Override
+  protected void setUp() {
+    parser = new Parser();
+  }
+
+  public void testReferencedNames() throws ParserException {
+    Expression xp = parser.parseExpression("set('Total', max(X, y) + x * 2) + ?Bonus + total");
+
+    assertEquals(List.of("x", "y", "total"), List.copyOf(xp.getReferencedVariables()));
+    assertEquals(Set.of("bonus"), xp.getReferencedPromptVariables());
+    assertEquals(Set.of("total"), xp.getAssignedVariables());
+    assertEquals(List.of("+", "set", "max", "*"), List.copyOf(xp.getReferencedFunctions()));
+  }
+
+  public void testNamesIgnoreDefaultLocale() throws ParserException {
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+      assertEquals(Set.of("hit"), parser.parseExpression("HIT + 1").getReferencedVariables());
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  public void testAssignmentTargets() throws ParserException {
+    assertEquals(
+        Set.of("a", "b"), parser.parseExpression("a = set('b', 1)").getAssignedVariables());
+    assertEquals(Set.of(), parser.parseExpression("set('n' + 1, 1)").getAssignedVariables());
+    assertEquals(Set.of(), parser.parseExpression("eval('c = 1')").getAssignedVariables());
+  }
+
+  public void testDeterministic() throws ParserException {
+    assertTrue(parser.parseExpression("a = sqrt(x) + max(1, y)").isDeterministic());
+    assertFalse(parser.parseExpression("?x + 1").isDeterministic());
+    assertFalse(parser.parseExpression("eval('1 + 1')").isDeterministic());
+    assertFalse(parser.parseExpression("undefined(1)").isDeterministic());
+  }
+
+  public void testIsCached() throws ParserException {
+    Expression xp = parser.parseExpression("x + y");
+
+    assertSame(xp.getReferencedVariables(), xp.getReferencedVariables());
+    try {
+      xp.getReferencedVariables().add("z");
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class ExpressionLibraryTest extends TestCase {
+  private Path file;
+
+  @Override
+  protected void setUp() throws IOException {
+    file = Files.createTempFile("expressions", ".lib");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  public void testWriteAndOpen() throws IOException, ParserException {
+    Parser p = new Parser();
+    Map<String, Expression> expressions = new HashMap<>();
+    expressions.put("damage", p.parseExpression("base * 2 + bonus"));
+    expressions.put("greeting", p.parseExpression("'Hello ' + name"));
+    expressions.put("\u00e9tat", p.parseExpression("max(1, 2, 3)"));
+    ExpressionLibrary.write(file, expressions);
+
+    ExpressionLibrary library = ExpressionLibrary.open(p, file);
+    assertEquals(3, library.size());
+    assertEquals(List.of("damage", "greeting", "\u00e9tat"), library.getNames());
+    assertTrue(library.contains("greeting"));
+    assertFalse(library.contains("Greeting"));
+    assertNull(library.get("missing"));
+
+    VariableResolver r = new MapVariableResolver();
+    r.setVariable("base", new BigDecimal(5));
+    r.setVariable("bonus", BigDecimal.ONE);
+    r.setVariable("name", "World");
+
+    assertEquals(new BigDecimal(11), library.get("damage").evaluate(r));
+    assertEquals("Hello World", library.get("greeting").evaluate(r));
+    assertEquals(new BigDecimal(3), library.get("\u00e9tat").evaluate(r));
+    assertSame(library.get("damage"), library.get("damage"));
+  }
+
+  public void testEmptyLibrary() throws IOException, ParserException {
+    ExpressionLibrary.write(file, new HashMap<>());
+
+    ExpressionLibrary library = ExpressionLibrary.open(new Parser(), file);
+    assertEquals(0, library.size());
+    assertNull(library.get("anything"));
+  }
+
+  public void testUndefinedFunctionIsReportedOnUse() throws IOException, ParserException {
+    Map<String, Expression> expressions = new HashMap<>();
+    expressions.put("roll", new Parser().parseExpression("roll(2, 6)"));
+    ExpressionLibrary.write(file, expressions);
+
+    ExpressionLibrary library = ExpressionLibrary.open(new Parser(), file);
+    try {
+      library.get("roll");
+      fail("Expected undefined function to be rejected");
+    } catch (ParserException e) {
+      assertEquals("Undefined function: roll", e.getMessage());
+    }
+  }
+
+  public void testOpenRejectsCorruptIndex() throws IOException, ParserException {
+    Map<String, Expression> expressions = new HashMap<>();
+    expressions.put("damage", new Parser().parseExpression("base * 2 + bonus"));
+    ExpressionLibrary.write(file, expressions);
+    byte[] data = Files.readAllBytes(file);
+
+    // the file cut short of the expression data
+    Files.write(file, Arrays.copyOf(data, data.length - 4));
+    assertRejected();
+
+    // a name length past the end of the file
+    byte[] corrupt = data.clone();
+    ByteBuffer.wrap(corrupt).putInt(10 + 4, Integer.MAX_VALUE);
+    Files.write(file, corrupt);
+    assertRejected();
+
+    // a negative data offset
+    corrupt = data.clone();
+    ByteBuffer.wrap(corrupt).putInt(10 + 8, -1);
+    Files.write(file, corrupt);
+    assertRejected();
+  }
+
+  private void assertRejected() throws IOException {
+    try {
+      ExpressionLibrary.open(new Parser(), file);
+      fail("Expected corrupt library to be rejected");
+    } catch (ParserException e) {
+      // expected
+    }
+  }
+
+  public void testOpenRejectsOtherFiles() throws IOException {
+    Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11});
+
+    try {
+      ExpressionLibrary.open(new Parser(), file);
+      fail("Expected bad magic to be rejected");
+    } catch (ParserException e) {
+      // expected
+    }
+  }
+}
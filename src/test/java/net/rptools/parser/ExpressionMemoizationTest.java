@@ -0,0 +1,145 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import net.rptools.parser.function.AbstractNumberFunction;
+
+public class ExpressionMemoizationTest extends TestCase {
+  private Parser parser;
+  private CountingFunction counting;
+  private MapVariableResolver resolver;
+
+  @Override
+  protected void setUp() throws ParserException {
+    parser = new Parser();
+    counting = new CountingFunction(true, "count");
+    parser.addFunction(counting);
+    parser.addFunction(new CountingFunction(false, "roll"));
+
+    resolver = new MapVariableResolver();
+    resolver.setVariable("x", new BigDecimal(3));
+    resolver.setVariable("y", new BigDecimal(4));
+  }
+
+  public void testReusesResultForSameValues() throws ParserException {
+    Expression xp = parser.parseExpression("count(x * x + y)").getMemoizedExpression(10);
+
+    assertEquals(new BigDecimal(13), xp.evaluate(resolver));
+    assertEquals(new BigDecimal(13), xp.evaluate(resolver));
+    assertEquals(1, counting.calls);
+
+    resolver.setVariable("y", new BigDecimal(5));
+    assertEquals(new BigDecimal(14), xp.evaluate(resolver));
+    assertEquals(2, counting.calls);
+
+    CacheStatistics statistics = xp.getMemoStatistics();
+    assertEquals(1, statistics.getHitCount());
+    assertEquals(2, statistics.getMissCount());
+    assertEquals(1.0 / 3, statistics.getHitRate(), 1e-9);
+    assertEquals(2, statistics.getSize());
+  }
+
+  public void testMissReadsVariablesOnce() throws ParserException {
+    List<String> lookups = new ArrayList<>();
+    VariableResolver counted =
+        new MapVariableResolver() {
+          @Override
+          public Object lookupVariable(String name, VariableModifiers vType)
+              throws ParserException {
+            lookups.add(name);
+            return super.lookupVariable(name, vType);
+          }
+        };
+    counted.setVariable("x", new BigDecimal(3));
+    counted.setVariable("y", new BigDecimal(4));
+    Expression xp = parser.parseExpression("count(x * x + y + x)").getMemoizedExpression(10);
+
+    assertEquals(new BigDecimal(16), xp.evaluate(counted));
+    assertEquals(List.of("x", "y"), lookups);
+    assertEquals(new BigDecimal(16), xp.evaluate(counted));
+    assertEquals(List.of("x", "y", "x", "y"), lookups);
+  }
+
+  public void testEvictsLeastRecentlyUsed() throws ParserException {
+    Expression xp = parser.parseExpression("count(x)").getMemoizedExpression(2);
+
+    for (int x : new int[] {1, 2, 1, 3, 1, 2}) {
+      resolver.setVariable("x", new BigDecimal(x));
+      assertEquals(new BigDecimal(x), xp.evaluate(resolver));
+    }
+
+    assertEquals(4, counting.calls);
+    assertEquals(2, xp.getMemoStatistics().getEvictionCount());
+    assertEquals(2, xp.getMemoStatistics().getSize());
+  }
+
+  public void testBypassesExpressionsThatCannotBeMemoized() throws ParserException {
+    for (String source : List.of("count(roll(x))", "count(set('z', x))", "count(?x)")) {
+      Expression xp = parser.parseExpression(source).getMemoizedExpression(10);
+      xp.evaluate(resolver);
+      xp.evaluate(resolver);
+      assertEquals(0, xp.getMemoStatistics().getRequestCount());
+    }
+    assertEquals(6, counting.calls);
+  }
+
+  public void testBypassesValuesOfOtherTypes() throws ParserException {
+    Expression xp = parser.parseExpression("count(x) + y").getMemoizedExpression(10);
+    resolver.setVariable("y", new Object() {});
+
+    try {
+      xp.evaluate(resolver);
+    } catch (ParserException expected) {
+    }
+    assertEquals(0, xp.getMemoStatistics().getRequestCount());
+  }
+
+  public void testUndefinedVariableIsStillReported() throws ParserException {
+    Expression xp = parser.parseExpression("count(missing)").getMemoizedExpression(10);
+
+    try {
+      xp.evaluate(resolver);
+      fail();
+    } catch (ParserException expected) {
+      assertEquals(ErrorCode.UNDEFINED_VARIABLE, expected.getErrorCode());
+    }
+  }
+
+  public void testNotMemoizedByDefault() throws ParserException {
+    assertNull(parser.parseExpression("x").getMemoStatistics());
+  }
+
+  /** Sums its arguments and counts how often it is called. */
+  private static class CountingFunction extends AbstractNumberFunction {
+    private int calls;
+
+    CountingFunction(boolean deterministic, String name) {
+      super(1, -1, deterministic, name);
+    }
+
+    @Override
+    public Object childEvaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters) {
+      calls++;
+      BigDecimal total = BigDecimal.ZERO;
+      for (Object param : parameters) total = total.add((BigDecimal) param);
+      return total;
+    }
+  }
+}
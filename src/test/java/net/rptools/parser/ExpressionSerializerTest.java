@@ -0,0 +1,169 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class ExpressionSerializerTest extends TestCase {
+
+  public void testRoundTrip() throws ParserException, IOException {
+    Parser p = new Parser();
+    String[] expressions = {
+      "1+2*3",
+      "a=max(x, 0x1F, y)/2",
+      "!true || false && 'text' == \"other\"",
+      "-x^2 + sum(1.5, 2.25, x, x)",
+      "eval('1+1')"
+    };
+
+    for (String expression : expressions) {
+      Expression original = p.parseExpression(expression);
+      Expression copy = roundTrip(p, original);
+
+      assertEquals(original.getTree().toStringTree(), copy.getTree().toStringTree());
+      assertEquals(original.format(), copy.format());
+    }
+
+    Expression prompt = p.parseExpression("?prompt + 1");
+    assertEquals(prompt.getTree().toStringTree(), roundTrip(p, prompt).getTree().toStringTree());
+  }
+
+  public void testEvaluateDeserialized() throws ParserException, IOException {
+    Parser p = new Parser();
+    VariableResolver r = new MapVariableResolver();
+    r.setVariable("x", new BigDecimal(3));
+
+    Expression copy = roundTrip(p, p.parseExpression("y = hypot(x, 4) + 0x10"));
+
+    assertEquals(0, new BigDecimal(21).compareTo((BigDecimal) copy.evaluate(r)));
+    assertEquals(0, new BigDecimal(21).compareTo((BigDecimal) r.getVariable("y")));
+  }
+
+  public void testSeveralExpressionsInOneStream() throws ParserException, IOException {
+    Parser p = new Parser();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    p.parseExpression("1+1").writeTo(out);
+    p.parseExpression("'a' + 'b'").writeTo(out);
+
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    assertEquals(new BigDecimal(2), p.readExpression(in).evaluate());
+    assertEquals("ab", p.readExpression(in).evaluate());
+  }
+
+  public void testUndefinedFunctionIsRejected() throws ParserException, IOException {
+    Parser p = new Parser();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    p.parseExpression("1 + roll(2, 6)").writeTo(out);
+
+    try {
+      p.readExpression(new ByteArrayInputStream(out.toByteArray()));
+      fail("Expected undefined function to be rejected");
+    } catch (ParserException e) {
+      assertEquals("Undefined function: roll", e.getMessage());
+    }
+  }
+
+  public void testUnknownFormatIsRejected() throws IOException {
+    try {
+      new Parser().readExpression(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 0, 1}));
+      fail("Expected bad magic to be rejected");
+    } catch (ParserException e) {
+      // expected
+    }
+  }
+
+  public void testCorruptLengthsAreRejected() throws IOException {
+    assertRejected(header().varInt(Integer.MAX_VALUE));
+    assertRejected(header().varInt(1).varInt(1 << 30).bytes("1"));
+    assertRejected(header().varInt(1).varInt(1).bytes("1").varInt(-1));
+  }
+
+  public void testDeepTreesAreRejected() throws IOException {
+    Bytes data = header().varInt(1).varInt(1).bytes("1");
+    data.varInt(1).varInt(3).bytes("abs").varInt(0);
+    for (int i = 0; i < 2100; i++) data.varInt(10).varInt(0).varInt(1);
+    data.varInt(0).varInt(0);
+
+    assertRejected(data);
+  }
+
+  public void testMalformedLiteralsAreRejected() throws IOException {
+    for (String number : List.of("1e5", "-1", "1.", ".5", "", "\u0661")) {
+      assertRejected(header().varInt(1).string(number).varInt(0).varInt(0).varInt(0).varInt(0));
+    }
+    for (String hex : List.of("12", "0x", "0xZZ", "0X1f")) {
+      assertRejected(header().varInt(1).string(hex).varInt(0).varInt(0).varInt(1).varInt(0));
+    }
+  }
+
+  public void testOperandCountsAreChecked() throws IOException {
+    Bytes plus = header().varInt(1).varInt(1).bytes("1").varInt(1).varInt(1).bytes("+");
+    assertRejected(plus.varInt(0).varInt(8).varInt(0).varInt(1).varInt(0).varInt(0));
+
+    Bytes minus = header().varInt(1).varInt(1).bytes("1").varInt(1).varInt(1).bytes("-");
+    assertRejected(
+        minus.varInt(0).varInt(9).varInt(0).varInt(2).varInt(0).varInt(0).varInt(0).varInt(0));
+  }
+
+  private static Bytes header() throws IOException {
+    Bytes data = new Bytes();
+    data.out.writeInt(ExpressionSerializer.MAGIC);
+    data.out.writeShort(ExpressionSerializer.VERSION);
+    return data;
+  }
+
+  private static void assertRejected(Bytes data) throws IOException {
+    try {
+      new Parser().readExpression(new ByteArrayInputStream(data.buffer.toByteArray()));
+      fail("Expected corrupt data to be rejected");
+    } catch (ParserException e) {
+      // expected
+    }
+  }
+
+  private static final class Bytes {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(buffer);
+
+    Bytes varInt(int value) throws IOException {
+      ExpressionSerializer.writeVarInt(out, value);
+      return this;
+    }
+
+    Bytes bytes(String value) throws IOException {
+      out.write(value.getBytes(StandardCharsets.UTF_8));
+      return this;
+    }
+
+    Bytes string(String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      return varInt(bytes.length).bytes(value);
+    }
+  }
+
+  private Expression roundTrip(Parser p, Expression expression)
+      throws IOException, ParserException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    expression.writeTo(out);
+    return p.readExpression(new ByteArrayInputStream(out.toByteArray()));
+  }
+}
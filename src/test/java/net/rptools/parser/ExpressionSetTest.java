@@ -0,0 +1,162 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import net.rptools.parser.function.AbstractFunction;
+import net.rptools.parser.function.EvaluationException;
+
+public class ExpressionSetTest extends TestCase {
+  private Parser parser;
+  private RecordingResolver resolver;
+
+  @Override
+  protected void setUp() throws ParserException {
+    parser = new Parser();
+    resolver = new RecordingResolver();
+    resolver.setVariable("x", new BigDecimal(3));
+    resolver.setVariable("y", new BigDecimal(4));
+    resolver.reads.clear();
+  }
+
+  public void testEachVariableIsResolvedOnce() throws ParserException {
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("x * x + y");
+    set.add("x * x + y * y");
+    set.add("max(x, y, X)");
+
+    assertEquals(
+        List.of(new BigDecimal(13), new BigDecimal(25), new BigDecimal(4)), set.evaluate(resolver));
+    assertEquals(List.of("x", "y", "X"), resolver.reads);
+  }
+
+  public void testVariablesAreResolvedAgainAfterAssignment() throws ParserException {
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("x + y");
+    set.add("x = x + 1");
+    set.add("x + y");
+
+    assertEquals(
+        List.of(new BigDecimal(7), new BigDecimal(4), new BigDecimal(8)), set.evaluate(resolver));
+    assertEquals(List.of("x", "y", "x"), resolver.reads);
+  }
+
+  public void testVariablesAreResolvedAgainAfterNonDeterministicCall() throws ParserException {
+    parser.addFunction(
+        new AbstractFunction(0, 0, false, "bump") {
+          @Override
+          public Object childEvaluate(
+              Parser parser,
+              VariableResolver resolver,
+              String functionName,
+              List<Object> parameters)
+              throws ParserException {
+            resolver.setVariable("y", BigDecimal.TEN);
+            return BigDecimal.ZERO;
+          }
+        });
+
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("x + y");
+    set.add("bump()");
+    set.add("x + y");
+
+    assertEquals(
+        List.of(new BigDecimal(7), BigDecimal.ZERO, new BigDecimal(13)), set.evaluate(resolver));
+    assertEquals(List.of("x", "y", "x", "y"), resolver.reads);
+  }
+
+  public void testVariablesAreResolvedAgainAfterPrompt() throws ParserException {
+    VariableResolver prompting =
+        new MapVariableResolver() {
+          @Override
+          public Object lookupVariable(String name, VariableModifiers vType)
+              throws ParserException {
+            if (vType == VariableModifiers.Prompt) setVariable(name, BigDecimal.TEN);
+            return super.lookupVariable(name, vType);
+          }
+        };
+    prompting.setVariable("x", BigDecimal.ONE);
+
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("x + 1");
+    set.add("?x");
+    set.add("x + 1");
+
+    assertEquals(
+        List.of(new BigDecimal(2), BigDecimal.TEN, new BigDecimal(11)), set.evaluate(prompting));
+  }
+
+  public void testEvaluationCanBeRepeated() throws ParserException {
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("x * 2");
+    set.add("x * 2 + 1");
+
+    assertEquals(List.of(new BigDecimal(6), new BigDecimal(7)), set.evaluate(resolver));
+
+    resolver.setVariable("x", BigDecimal.ONE);
+    assertEquals(List.of(new BigDecimal(2), new BigDecimal(3)), set.evaluate(resolver));
+  }
+
+  public void testMatchesSeparateEvaluation() throws ParserException {
+    String[] sources = {"1 + 2 * 3", "'a' + 'b'", "0x1F - x", "true && !false", "-x + -(x)"};
+
+    ExpressionSet set = new ExpressionSet(parser);
+    List<Object> expected = new ArrayList<>();
+    for (String source : sources) expected.add(set.add(source).evaluate(resolver));
+
+    assertEquals(expected, set.evaluate(resolver));
+  }
+
+  public void testUndefinedVariable() throws ParserException {
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("x + 1");
+    set.add("missing + 1");
+
+    try {
+      set.evaluate(resolver);
+      fail();
+    } catch (EvaluationException expected) {
+      assertEquals("Undefined variable: missing", expected.getMessage());
+    }
+  }
+
+  public void testEmptySet() throws ParserException {
+    assertEquals(List.of(), new ExpressionSet(parser).evaluate(resolver));
+  }
+
+  public void testRejectsExpressionFromOtherParser() throws ParserException {
+    Expression xp = new Parser().parseExpression("1");
+    try {
+      new ExpressionSet(parser).add(xp);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  /** Records the name of every variable that is read. */
+  private static class RecordingResolver extends MapVariableResolver {
+    private final List<String> reads = new ArrayList<>();
+
+    @Override
+    public Object getVariable(String variableName, VariableModifiers vType) throws ParserException {
+      reads.add(variableName);
+      return super.getVariable(variableName, vType);
+    }
+  }
+}
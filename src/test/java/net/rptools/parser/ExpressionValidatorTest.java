@@ -0,0 +1,91 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+
+public class ExpressionValidatorTest extends TestCase {
+  private Parser parser;
+  private MapVariableResolver resolver;
+
+  @Override
+  protected void setUp() throws ParserException {
+    parser = new Parser();
+    resolver = new MapVariableResolver();
+    resolver.setVariable("x", new BigDecimal(3));
+  }
+
+  public void testValidExpression() throws ParserException {
+    assertEquals(List.of(), parser.parseExpression("max(x, 2) + abs(-x)").validate(resolver));
+  }
+
+  public void testReportsAllProblems() throws ParserException {
+    Expression xp = parser.parseExpression("abs(x, 1) + nope(y) + sqrt() + round(1, 2, 3)");
+
+    assertEquals(
+        List.of(
+            "Function 'abs' requires exactly 1 parameters; 2 were provided.",
+            "Undefined variable: y",
+            "Undefined function: nope",
+            "Function 'sqrt' requires at least 1 parameters; 0 were provided.",
+            "Function 'round' requires no more than 2 parameters; 3 were provided."),
+        messages(xp.validate(resolver)));
+
+    List<ParserException> problems = xp.validate(resolver);
+    assertEquals(ErrorCode.WRONG_PARAMETER_COUNT, problems.get(0).getErrorCode());
+    assertEquals(ErrorCode.UNDEFINED_VARIABLE, problems.get(1).getErrorCode());
+    assertEquals(ErrorCode.UNDEFINED_FUNCTION, problems.get(2).getErrorCode());
+  }
+
+  public void testDoesNotEvaluate() throws ParserException {
+    parser.parseExpression("set('x', 10) + set('y', 2)").validate(resolver);
+
+    assertEquals(new BigDecimal(3), resolver.getVariable("x"));
+    assertFalse(resolver.containsVariable("y"));
+  }
+
+  public void testAssignedVariablesAreDefined() throws ParserException {
+    assertEquals(
+        List.of(), parser.parseExpression("set('y', 2) + set('z', y) + z + Y").validate(resolver));
+    assertEquals(
+        List.of("Undefined variable: y"),
+        messages(parser.parseExpression("y + set('y', 2)").validate(resolver)));
+  }
+
+  public void testComputedAssignmentStopsVariableChecks() throws ParserException {
+    assertEquals(
+        List.of("Undefined variable: a"),
+        messages(parser.parseExpression("a + eval('b = 1') + b").validate(resolver)));
+    assertEquals(List.of(), parser.parseExpression("set('n' + 1, 1) + n1").validate(resolver));
+  }
+
+  public void testDeclaredVariables() throws ParserException {
+    Expression xp = parser.parseExpression("Width * height + depth");
+
+    assertEquals(
+        List.of("Undefined variable: depth"), messages(xp.validate(Set.of("width", "HEIGHT"))));
+    assertEquals(List.of(), xp.validate((Set<String>) null));
+  }
+
+  private static List<String> messages(List<ParserException> problems) {
+    List<String> messages = new ArrayList<>();
+    for (ParserException problem : problems) messages.add(problem.getMessage());
+    return messages;
+  }
+}
@@ -14,6 +14,8 @@
  */
 package net.rptools.parser;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import junit.framework.TestCase;
 import net.rptools.parser.function.EvaluationException;
 import net.rptools.parser.function.ParameterException;
@@ -78,6 +80,24 @@ public class InlineTreeFormatterTest extends TestCase {
     compare("false", "false");
   }
 
+  public void testFormatToAppendable() throws ParserException, IOException {
+    Parser p = new Parser();
+    Expression xp = p.parseExpression("a=(1+2)*max(3,b)||!c");
+
+    StringWriter writer = new StringWriter();
+    xp.format(writer);
+    assertEquals("a = ((1 + 2) * max(3, b) || !c)", writer.toString());
+
+    StringBuilder sb = new StringBuilder("result: ");
+    xp.format(sb);
+    assertEquals("result: a = ((1 + 2) * max(3, b) || !c)", sb.toString());
+  }
+
+  public void testFormatIsCached() throws ParserException {
+    Expression xp = new Parser().parseExpression("1 + 2 * 3");
+    assertSame(xp.format(), xp.format());
+  }
+
   private void compare(String expression, String expected)
       throws ParserException, EvaluationException, ParameterException {
     Parser p = new Parser();
@@ -0,0 +1,258 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class ObjectVariableResolverTest extends TestCase {
+  public enum Size {
+    SMALL,
+    LARGE
+  }
+
+  public static class Token {
+    private int hp = 10;
+    private final Stats stats = new Stats(3, 14.5);
+    private final Map<String, Object> properties = new HashMap<>();
+    public String name = "Goblin";
+    public Size size = Size.SMALL;
+
+    public int getHp() {
+      return hp;
+    }
+
+    public void setHp(int hp) {
+      this.hp = hp;
+    }
+
+    public boolean isAlive() {
+      return hp > 0;
+    }
+
+    public Stats getStats() {
+      return stats;
+    }
+
+    public Map<String, Object> getProperties() {
+      return properties;
+    }
+
+    public Token getTarget() {
+      return null;
+    }
+  }
+
+  /** Written the way records are, with accessors named after their fields. */
+  public static final class Stats {
+    private final long str;
+    private final double speed;
+    private final float reach = 0.1f;
+
+    public Stats(long str, double speed) {
+      this.str = str;
+      this.speed = speed;
+    }
+
+    public long str() {
+      return str;
+    }
+
+    public double speed() {
+      return speed;
+    }
+
+    public float reach() {
+      return reach;
+    }
+  }
+
+  private Parser parser;
+  private ObjectVariableResolver resolver;
+  private Token token;
+
+  @Override
+  protected void setUp() {
+    parser = new Parser();
+    resolver = new ObjectVariableResolver();
+    token = new Token();
+    resolver.putObject("token", token);
+  }
+
+  private Object evaluate(String expression) throws ParserException {
+    return parser.parseExpression(expression).evaluate(resolver);
+  }
+
+  public void testProperties() throws ParserException {
+    assertEquals(new BigDecimal(20), evaluate("token.hp * 2"));
+    assertEquals(BigDecimal.ONE, evaluate("token.alive"));
+    assertEquals("Goblin", evaluate("token.name"));
+    assertEquals("SMALL", evaluate("token.size"));
+    assertSame(token, evaluate("token"));
+  }
+
+  public void testNestedProperties() throws ParserException {
+    assertEquals(new BigDecimal(3), evaluate("token.stats.str"));
+    assertEquals(new BigDecimal("14.5"), evaluate("token.stats.speed"));
+    assertEquals(new BigDecimal("0.1"), evaluate("token.stats.reach"));
+    assertNull(resolver.getVariable("token.target.hp"));
+    assertTrue(resolver.containsVariable("token.target.hp"));
+  }
+
+  public void testOnlyObjectPathsAreKept() throws ParserException {
+    for (int i = 0; i < 1000; i++) resolver.containsVariable("other" + i);
+    resolver.containsVariable("token.hp");
+    resolver.containsVariable("Token.Stats.Str");
+    assertEquals(2, resolver.getPathCount());
+
+    resolver.removeObject("token");
+    assertEquals(0, resolver.getPathCount());
+  }
+
+  public void testMaps() throws ParserException {
+    token.getProperties().put("Darkvision", 60);
+    token.getProperties().put("none", null);
+
+    assertEquals(new BigDecimal(60), evaluate("token.properties.Darkvision"));
+    assertTrue(resolver.containsVariable("token.properties.none"));
+    assertFalse(resolver.containsVariable("token.properties.darkvision"));
+  }
+
+  public void testCaseInsensitive() throws ParserException {
+    assertEquals(new BigDecimal(10), evaluate("Token.HP"));
+    assertEquals(new BigDecimal(3), evaluate("TOKEN.Stats.Str"));
+  }
+
+  public void testReadsLiveState() throws ParserException {
+    Expression expression = parser.parseExpression("token.hp + 1");
+    assertEquals(new BigDecimal(11), expression.evaluate(resolver));
+
+    token.setHp(0);
+    assertEquals(BigDecimal.ONE, expression.evaluate(resolver));
+    assertEquals(BigDecimal.ZERO, evaluate("token.alive"));
+
+    Token other = new Token();
+    other.setHp(4);
+    resolver.putObject("token", other);
+    assertEquals(new BigDecimal(5), expression.evaluate(resolver));
+  }
+
+  public void testUndefined() throws ParserException {
+    assertFalse(resolver.containsVariable("token.mana"));
+    assertFalse(resolver.containsVariable("token.stats.str.value"));
+    assertFalse(resolver.containsVariable("token.class"));
+
+    try {
+      evaluate("token.mana");
+      fail();
+    } catch (ParserException e) {
+      assertEquals(ErrorCode.UNDEFINED_VARIABLE, e.getErrorCode());
+    }
+
+    resolver.removeObject("TOKEN");
+    assertFalse(resolver.containsVariable("token.hp"));
+  }
+
+  public void testOtherVariables() throws ParserException {
+    evaluate("bonus = 2");
+    assertEquals(new BigDecimal(12), evaluate("token.hp + bonus"));
+    assertEquals(new BigDecimal(2), resolver.getVariable("bonus"));
+    assertEquals(new BigDecimal(2), resolver.getVariableResolver().getVariable("bonus"));
+    assertTrue(resolver.getVariables().contains("bonus"));
+    assertTrue(resolver.getVariables().contains("token"));
+  }
+
+  public void testMethodsThatMayChangeObjectsAreNotProperties() throws ParserException {
+    ArrayDeque<Object> queue = new ArrayDeque<>(List.of(1, 2));
+    AtomicInteger counter = new AtomicInteger(5);
+    resolver.putObject("q", queue);
+    resolver.putObject("n", counter);
+
+    assertFalse(resolver.containsVariable("q.poll"));
+    assertFalse(resolver.containsVariable("n.incrementAndGet"));
+    assertEquals(2, queue.size());
+    assertEquals(5, counter.get());
+
+    assertEquals(new BigDecimal(2), evaluate("q.size"));
+    assertEquals(new BigDecimal(1), evaluate("q.first"));
+    assertEquals(new BigDecimal(6), evaluate("token.name.length"));
+  }
+
+  public void testMethodsOfClassesThatAreNotPublic() throws ParserException {
+    resolver.putObject("list", List.of("a", "b", "c"));
+    resolver.putObject("map", Map.of("k", "v"));
+
+    assertEquals(new BigDecimal(3), evaluate("list.size"));
+    assertEquals(BigDecimal.ZERO, evaluate("list.empty"));
+    assertEquals("v", evaluate("map.k"));
+  }
+
+  public void testDelegatesToOtherResolver() throws ParserException {
+    List<Set<String>> prefetches = new ArrayList<>();
+    MapVariableResolver variables =
+        new MapVariableResolver() {
+          @Override
+          public void prefetch(Set<String> names, Set<String> promptNames) {
+            prefetches.add(names);
+            prefetches.add(promptNames);
+          }
+        };
+    variables.declareVariable("bonus", ValueType.NUMBER);
+    variables.setVariable("bonus", new BigDecimal(2));
+    variables.setVariable("extra", BigDecimal.ZERO);
+    resolver = new ObjectVariableResolver(variables);
+    resolver.putObject("token", token);
+
+    assertEquals(new BigDecimal(12), evaluate("token.hp + bonus + ?extra"));
+    assertEquals(List.of(Set.of("bonus"), Set.of("extra")), prefetches);
+    assertEquals(ValueType.NUMBER, resolver.getVariableType("bonus"));
+    assertEquals(ValueType.UNKNOWN, resolver.getVariableType("token.hp"));
+
+    assertTrue(resolver.compareAndSetVariable("bonus", new BigDecimal(2), BigDecimal.ONE));
+    assertEquals(new BigDecimal(3), resolver.updateVariable("bonus", v -> new BigDecimal(3)));
+    assertEquals(new BigDecimal(3), variables.getVariable("bonus"));
+    for (String name : List.of("token.hp", "token")) {
+      try {
+        resolver.updateVariable(name, v -> BigDecimal.ONE);
+        fail(name);
+      } catch (ParserException e) {
+        assertEquals(ErrorCode.READ_ONLY_VARIABLE, e.getErrorCode());
+      }
+      try {
+        resolver.compareAndSetVariable(name, token, BigDecimal.ONE);
+        fail(name);
+      } catch (ParserException e) {
+        assertEquals(ErrorCode.READ_ONLY_VARIABLE, e.getErrorCode());
+      }
+    }
+  }
+
+  public void testReadOnly() throws ParserException {
+    try {
+      evaluate("token.hp = 3");
+      fail();
+    } catch (ParserException e) {
+      assertEquals(ErrorCode.READ_ONLY_VARIABLE, e.getErrorCode());
+    }
+    assertEquals(10, token.getHp());
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.TestCase;
+import net.rptools.parser.function.EvaluationException;
+import net.rptools.parser.function.ParameterException;
+
+public class ParserExceptionTest extends TestCase {
+  public void testErrorCodes() throws ParserException {
+    Parser parser = new Parser();
+
+    assertError(parser, "missing + 1", ErrorCode.UNDEFINED_VARIABLE, "Undefined variable: missing");
+    assertError(parser, "nope(1)", ErrorCode.UNDEFINED_FUNCTION, "Undefined function: nope");
+    assertError(
+        parser,
+        "abs(1, 2)",
+        ErrorCode.WRONG_PARAMETER_COUNT,
+        "Function 'abs' requires exactly 1 parameters; 2 were provided.");
+    assertError(
+        parser,
+        "floor('a')",
+        ErrorCode.ILLEGAL_ARGUMENT_TYPE,
+        "Illegal argument type java.lang.String, expecting java.math.BigDecimal");
+  }
+
+  public void testCodedExceptionsHaveNoStackTrace() {
+    ParserException coded = new EvaluationException(ErrorCode.UNDEFINED_VARIABLE, "x");
+    assertEquals(0, coded.getStackTrace().length);
+
+    ParserException plain = new ParameterException("plain");
+    assertEquals(ErrorCode.GENERAL, plain.getErrorCode());
+    assertTrue(plain.getStackTrace().length > 0);
+  }
+
+  public void testMessageIsFormattedOnce() {
+    ParserException e = new ParserException(ErrorCode.UNDEFINED_FUNCTION, "f");
+    String message = e.getMessage();
+    assertEquals("Undefined function: f", message);
+    assertSame(message, e.getMessage());
+    assertEquals(ParserException.class.getName() + ": " + message, e.toString());
+  }
+
+  public void testMacroStackTrace() {
+    ParserException e = new ParserException("failed");
+    assertEquals(0, e.getMacroStackTrace().length);
+    e.addMacro("outer");
+    e.addMacro("inner");
+    assertEquals(2, e.getMacroStackTrace().length);
+  }
+
+  public void testSerializationKeepsMessage() throws IOException, ClassNotFoundException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(new EvaluationException(ErrorCode.UNDEFINED_VARIABLE, new Object()));
+    }
+
+    ParserException copy;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (ParserException) in.readObject();
+    }
+    assertEquals(ErrorCode.UNDEFINED_VARIABLE, copy.getErrorCode());
+    assertTrue(copy.getMessage().startsWith("Undefined variable: java.lang.Object@"));
+  }
+
+  public void testMessageIsFormattedOnceAcrossThreads() throws Exception {
+    for (int round = 0; round < 100; round++) {
+      ParserException e = new ParserException(ErrorCode.UNDEFINED_FUNCTION, "f");
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+        List<Future<String>> messages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) messages.add(executor.submit(e::getMessage));
+        for (Future<String> message : messages)
+          assertEquals("Undefined function: f", message.get());
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  private static void assertError(Parser parser, String expression, ErrorCode code, String message)
+      throws ParserException {
+    try {
+      parser.parseExpression(expression).evaluate();
+      fail(expression);
+    } catch (ParserException e) {
+      assertEquals(code, e.getErrorCode());
+      assertEquals(message, e.getMessage());
+    }
+  }
+}
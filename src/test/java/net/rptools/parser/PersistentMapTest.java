@@ -0,0 +1,83 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class PersistentMapTest extends TestCase {
+  public void testMatchesHashMap() {
+    Random random = new Random(42);
+    Map<String, Integer> expected = new HashMap<>();
+    PersistentMap<Integer> map = PersistentMap.empty();
+
+    for (int i = 0; i < 5000; i++) {
+      String key = "k" + random.nextInt(2000);
+      expected.put(key, i);
+      map = map.put(key, i);
+    }
+
+    assertEquals(expected.size(), map.size());
+    for (Map.Entry<String, Integer> entry : expected.entrySet())
+      assertEquals(entry.getValue(), map.get(entry.getKey()));
+    assertNull(map.get("missing"));
+
+    Map<String, Integer> visited = new HashMap<>();
+    map.forEach(visited::put);
+    assertEquals(expected, visited);
+  }
+
+  public void testOlderVersionsAreUnchanged() {
+    PersistentMap<String> first = PersistentMap.<String>empty().put("a", "1");
+    PersistentMap<String> second = first.put("a", "2").put("b", "3");
+
+    assertEquals("1", first.get("a"));
+    assertNull(first.get("b"));
+    assertEquals(1, first.size());
+    assertEquals("2", second.get("a"));
+    assertEquals(2, second.size());
+  }
+
+  public void testHashCollisions() {
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+
+    PersistentMap<Integer> map = PersistentMap.<Integer>empty().put("Aa", 1).put("BB", 2);
+    map = map.put("AaAa", 3).put("BBBB", 4).put("AaBB", 5).put("Aa", 6);
+
+    assertEquals(5, map.size());
+    assertEquals(Integer.valueOf(6), map.get("Aa"));
+    assertEquals(Integer.valueOf(2), map.get("BB"));
+    assertEquals(Integer.valueOf(5), map.get("AaBB"));
+    assertNull(map.get("BBAa"));
+  }
+
+  public void testPutSameValueKeepsMap() {
+    Integer value = 1;
+    PersistentMap<Integer> map = PersistentMap.<Integer>empty().put("a", value);
+    assertSame(map, map.put("a", value));
+  }
+
+  public void testPutAll() {
+    PersistentMap<Integer> left = PersistentMap.<Integer>empty().put("a", 1).put("b", 2);
+    PersistentMap<Integer> right = PersistentMap.<Integer>empty().put("b", 3).put("c", 4);
+
+    PersistentMap<Integer> both = left.putAll(right);
+    assertEquals(3, both.size());
+    assertEquals(Integer.valueOf(3), both.get("b"));
+    assertEquals(Integer.valueOf(2), left.get("b"));
+  }
+}
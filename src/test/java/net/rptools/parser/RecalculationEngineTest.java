@@ -0,0 +1,157 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class RecalculationEngineTest extends TestCase {
+  private Parser parser;
+  private ObservableVariableResolver resolver;
+  private RecalculationEngine engine;
+
+  @Override
+  protected void setUp() throws ParserException {
+    parser = new Parser();
+    resolver = new ObservableVariableResolver();
+    resolver.setVariable("a", new BigDecimal(2));
+    resolver.setVariable("b", new BigDecimal(3));
+    resolver.setVariable("c", new BigDecimal(5));
+    engine = new RecalculationEngine(parser, resolver);
+  }
+
+  @Override
+  protected void tearDown() {
+    engine.close();
+  }
+
+  public void testEvaluatesInDependencyOrder() throws ParserException {
+    Expression total = engine.add("total = sum * 2");
+    Expression sum = engine.add("sum = a + b");
+    Expression other = engine.add("c * 10");
+
+    assertEquals(List.of(sum, total, other), engine.recalculate());
+    assertEquals(new BigDecimal(10), engine.getValue(total));
+    assertEquals(new BigDecimal(50), engine.getValue(other));
+    assertEquals(List.of(), engine.recalculate());
+  }
+
+  public void testOnlyAffectedExpressionsAreEvaluated() throws ParserException {
+    Expression sum = engine.add("sum = a + b");
+    Expression total = engine.add("total = sum * 2");
+    Expression other = engine.add("c * 10");
+    engine.recalculate();
+
+    resolver.setVariable("A", new BigDecimal(10));
+    assertTrue(engine.isStale(sum));
+    assertFalse(engine.isStale(total));
+    assertFalse(engine.isStale(other));
+
+    assertEquals(List.of(sum, total), engine.recalculate());
+    assertEquals(new BigDecimal(26), engine.getValue(total));
+    assertEquals(new BigDecimal(50), engine.getValue(other));
+  }
+
+  public void testSettingAnAssignedVariableUpdatesItsReaders() throws ParserException {
+    Expression sum = engine.add("sum = a + b");
+    Expression total = engine.add("total = sum * 2");
+    engine.recalculate();
+
+    resolver.setVariable("sum", BigDecimal.ONE);
+    assertEquals(List.of(total), engine.recalculate());
+    assertEquals(new BigDecimal(2), engine.getValue(total));
+    assertFalse(engine.isStale(sum));
+  }
+
+  public void testDiamondIsEvaluatedOnce() throws ParserException {
+    Expression left = engine.add("left = a + 1");
+    Expression right = engine.add("set('right', a * 2)");
+    Expression both = engine.add("left + right");
+    engine.recalculate();
+
+    resolver.setVariable("a", BigDecimal.ONE);
+    assertEquals(List.of(left, right, both), engine.recalculate());
+    assertEquals(new BigDecimal(4), engine.getValue(both));
+  }
+
+  public void testCycleIsRejected() throws ParserException {
+    engine.add("x = y + 1");
+    engine.add("y = z + 1");
+    try {
+      engine.add("z = x + 1");
+      fail();
+    } catch (ParserException expected) {
+      assertEquals("Circular dependency: x -> z -> y -> x", expected.getMessage());
+    }
+    assertEquals(2, engine.getExpressions().size());
+  }
+
+  public void testSelfReferenceIsRejected() throws ParserException {
+    try {
+      engine.add("a = a + 1");
+      fail();
+    } catch (ParserException expected) {
+      assertEquals("Circular dependency: a -> a", expected.getMessage());
+    }
+  }
+
+  public void testFailedExpressionsStayStale() throws ParserException {
+    Expression sum = engine.add("sum = a + missing");
+    Expression total = engine.add("total = sum * 2");
+    try {
+      engine.recalculate();
+      fail();
+    } catch (ParserException expected) {
+    }
+    assertTrue(engine.isStale(sum));
+    assertTrue(engine.isStale(total));
+
+    resolver.setVariable("missing", BigDecimal.ONE);
+    assertEquals(List.of(sum, total), engine.recalculate());
+    assertEquals(new BigDecimal(6), engine.getValue(total));
+  }
+
+  public void testListenerSeesChanges() throws ParserException {
+    List<String> changes = new ArrayList<>();
+    resolver.addListener((name, value) -> changes.add(name + "=" + value));
+    resolver.setVariable("a", BigDecimal.TEN);
+    assertEquals(List.of("a=10"), changes);
+  }
+
+  public void testUnknownExpressionsAreRejected() throws ParserException {
+    Expression unknown = parser.parseExpression("a + b");
+    try {
+      engine.getValue(unknown);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      engine.isStale(unknown);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testClosedEngineIgnoresChanges() throws ParserException {
+    Expression sum = engine.add("sum = a + b");
+    engine.recalculate();
+    engine.close();
+
+    resolver.setVariable("a", BigDecimal.TEN);
+    assertFalse(engine.isStale(sum));
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.Set;
+import junit.framework.TestCase;
+
+public class ScopedVariableResolverTest extends TestCase {
+  private Parser parser;
+  private ScopedVariableResolver global;
+
+  @Override
+  protected void setUp() throws ParserException {
+    parser = new Parser();
+    global = new ScopedVariableResolver();
+    global.setVariable("Gold", new BigDecimal(10));
+  }
+
+  public void testChildSeesParentVariables() throws ParserException {
+    ScopedVariableResolver local = global.createChildScope().createChildScope();
+
+    assertSame(global, local.getParent().getParent());
+    assertEquals(new BigDecimal(20), parser.parseExpression("gold * 2").evaluate(local));
+    assertEquals(Set.of("Gold"), local.getVariables());
+  }
+
+  public void testAssignmentGoesToInnermostScope() throws ParserException {
+    ScopedVariableResolver local = global.createChildScope();
+
+    parser.parseExpression("GOLD = gold + 5").evaluate(local);
+
+    assertEquals(new BigDecimal(15), local.getVariable("gold"));
+    assertTrue(local.isLocalVariable("gold"));
+    assertEquals(new BigDecimal(10), global.getVariable("gold"));
+    assertFalse(global.createChildScope().isLocalVariable("gold"));
+  }
+
+  public void testParentChangesAreVisible() throws ParserException {
+    ScopedVariableResolver session = global.createChildScope();
+    ScopedVariableResolver local = session.createChildScope();
+    local.setVariable("hp", BigDecimal.ONE);
+
+    global.setVariable("gold", BigDecimal.ZERO);
+    global.setVariable("level", new BigDecimal(3));
+    session.setVariable("hp", BigDecimal.TEN);
+
+    assertEquals(BigDecimal.ZERO, local.getVariable("gold"));
+    assertEquals(new BigDecimal(3), local.getVariable("level"));
+    assertEquals(BigDecimal.ONE, local.getVariable("hp"));
+    assertEquals(BigDecimal.TEN, session.getVariable("hp"));
+  }
+
+  public void testUndefinedAndNullValues() throws ParserException {
+    ScopedVariableResolver local = global.createChildScope();
+    local.setVariable("nothing", null);
+
+    assertTrue(local.containsVariable("nothing"));
+    assertNull(local.lookupVariable("nothing", VariableModifiers.None));
+    assertFalse(local.containsVariable("missing"));
+    assertSame(VariableResolver.UNDEFINED, local.lookupVariable("missing", VariableModifiers.None));
+  }
+
+  public void testSiblingScopesAreIndependent() throws ParserException {
+    ScopedVariableResolver first = global.createChildScope();
+    ScopedVariableResolver second = global.createChildScope();
+
+    first.setVariable("x", BigDecimal.ONE);
+    second.setVariable("x", BigDecimal.TEN);
+
+    assertEquals(BigDecimal.ONE, first.getVariable("x"));
+    assertEquals(BigDecimal.TEN, second.getVariable("x"));
+    assertFalse(global.containsVariable("x"));
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.TestCase;
+
+public class SnapshotVariableResolverTest extends TestCase {
+  private Parser parser;
+  private SnapshotStore store;
+
+  @Override
+  protected void setUp() {
+    parser = new Parser();
+    store = new SnapshotStore();
+    store.setVariable("Gold", new BigDecimal(100));
+  }
+
+  public void testWritesAreBufferedUntilCommit() throws ParserException {
+    SnapshotVariableResolver snapshot = store.snapshot();
+
+    parser.parseExpression("gold = gold - 30").evaluate(snapshot);
+    assertEquals(new BigDecimal(70), snapshot.getVariable("GOLD"));
+    assertEquals(new BigDecimal(100), store.getVariable("gold"));
+    assertTrue(snapshot.hasWrites());
+
+    snapshot.commit();
+    assertEquals(new BigDecimal(70), store.getVariable("gold"));
+    assertFalse(snapshot.hasWrites());
+  }
+
+  public void testReadsSeeTheSnapshot() throws ParserException {
+    SnapshotVariableResolver snapshot = store.snapshot();
+    store.setVariable("gold", BigDecimal.ZERO);
+    store.setVariable("silver", BigDecimal.ONE);
+
+    assertEquals(new BigDecimal(100), snapshot.getVariable("gold"));
+    assertFalse(snapshot.containsVariable("silver"));
+    assertEquals(BigDecimal.ZERO, store.snapshot().getVariable("gold"));
+  }
+
+  public void testConflictingWritesAreRejected() throws ParserException {
+    SnapshotVariableResolver first = store.snapshot();
+    SnapshotVariableResolver second = store.snapshot();
+    SnapshotVariableResolver third = store.snapshot();
+
+    parser.parseExpression("gold = gold + 1").evaluate(first);
+    parser.parseExpression("set('silver', 5) + set('gold', gold + 2)").evaluate(second);
+    parser.parseExpression("copper = gold").evaluate(third);
+    first.commit();
+
+    try {
+      second.commit();
+      fail();
+    } catch (ParserException expected) {
+      assertEquals(ErrorCode.WRITE_CONFLICT, expected.getErrorCode());
+      assertEquals("Variable gold was changed by another evaluation", expected.getMessage());
+    }
+    assertFalse(store.containsVariable("silver"));
+    assertEquals(new BigDecimal(101), store.getVariable("gold"));
+
+    third.commit();
+    assertEquals(new BigDecimal(100), store.getVariable("copper"));
+  }
+
+  public void testCannotWriteAfterCommit() throws ParserException {
+    SnapshotVariableResolver snapshot = store.snapshot();
+    snapshot.commit();
+    try {
+      snapshot.setVariable("x", BigDecimal.ONE);
+      fail();
+    } catch (ParserException expected) {
+      assertEquals(ErrorCode.COMMITTED_SNAPSHOT, expected.getErrorCode());
+      assertEquals(
+          "Snapshot of version " + snapshot.getVersion() + " has already been committed",
+          expected.getMessage());
+    }
+    try {
+      parser.parseExpression("x = 1").evaluate(snapshot);
+      fail();
+    } catch (ParserException expected) {
+      assertEquals(ErrorCode.COMMITTED_SNAPSHOT, expected.getErrorCode());
+    }
+    try {
+      snapshot.commit();
+      fail();
+    } catch (ParserException expected) {
+      assertEquals(ErrorCode.COMMITTED_SNAPSHOT, expected.getErrorCode());
+    }
+  }
+
+  public void testParallelEvaluationWithRetries() throws Exception {
+    Expression deposit = parser.parseExpression("gold = gold + 1");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 400; i++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  while (true) {
+                    SnapshotVariableResolver snapshot = store.snapshot();
+                    deposit.evaluate(snapshot);
+                    try {
+                      snapshot.commit();
+                      return null;
+                    } catch (ParserException conflict) {
+                      // another deposit got there first, so try again on a newer snapshot
+                    }
+                  }
+                }));
+      }
+      for (Future<?> future : futures) future.get();
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(new BigDecimal(500), store.getVariable("gold"));
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import antlr.collections.AST;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import net.rptools.parser.function.AbstractNumberFunction;
+import net.rptools.parser.function.Function;
+import net.rptools.parser.function.ParameterException;
+
+public class TypeInferenceTest extends TestCase {
+  private Parser parser;
+  private MapVariableResolver declarations;
+
+  @Override
+  protected void setUp() throws ParserException {
+    parser = new Parser();
+    declarations = new MapVariableResolver();
+    declarations.declareVariable("n", ValueType.NUMBER);
+    declarations.declareVariable("s", ValueType.STRING);
+    declarations.setVariable("n", new BigDecimal(7));
+    declarations.setVariable("s", "seven");
+    declarations.setVariable("u", BigDecimal.ONE);
+  }
+
+  public void testResultTypes() throws ParserException {
+    assertEquals(ValueType.NUMBER, type("1 + 2 * 3"));
+    assertEquals(ValueType.STRING, type("'a' + 1"));
+    assertEquals(ValueType.STRING, type("hex(255) + 1"));
+    assertEquals(ValueType.NUMBER, type("n * 2 + n"));
+    assertEquals(ValueType.STRING, type("s + n"));
+    assertEquals(ValueType.UNKNOWN, type("u + 1"));
+    assertEquals(ValueType.NUMBER, type("u == 1"));
+    assertEquals(ValueType.UNKNOWN, type("undefined(1)"));
+  }
+
+  public void testSpecializationsAreChosenFromTypes() throws ParserException {
+    assertEquals(0, specializations("(1 + 2) * 3 == 9", null).size());
+    assertEquals(3, specializations("max(1, 2, 3) * 3 == hex(9)", null).size());
+    assertEquals(1, specializations("'a' + u", null).size());
+    assertEquals(0, specializations("u + n", null).size());
+    assertEquals(1, specializations("s + u", declarations).size());
+    assertEquals(0, specializations("u - 1", declarations).size());
+  }
+
+  public void testTypedExpressionGivesSameResults() throws ParserException {
+    String[] sources = {
+      "n + 1",
+      "-n",
+      "s + n",
+      "n == 7",
+      "s == 'SEVEN'",
+      "s eqs 'SEVEN'",
+      "n != 8",
+      "s neqs 's'",
+      "max(n, 2) * n",
+      "hex(n) + s",
+      "u + n",
+      "n + 'x' == '7x'"
+    };
+
+    for (String source : sources) {
+      Expression xp = parser.parseExpression(source);
+      Expression typed = xp.getTypedExpression(declarations);
+      assertNotSame(xp, typed);
+      assertEquals(source, xp.evaluate(declarations), typed.evaluate(declarations));
+    }
+  }
+
+  public void testDeclaredTypesAreEnforced() throws ParserException {
+    try {
+      declarations.setVariable("N", "not a number");
+      fail();
+    } catch (ParserException expected) {
+    }
+    try {
+      declarations.declareVariable("u", ValueType.STRING);
+      fail();
+    } catch (ParserException expected) {
+    }
+    declarations.declareVariable("later", ValueType.STRING);
+    assertEquals(ValueType.STRING, declarations.getVariableType("LATER"));
+    assertEquals(ValueType.UNKNOWN, declarations.getVariableType("u"));
+  }
+
+  public void testNumberFunctionsMayReturnStrings() throws ParserException {
+    parser.addFunction(
+        new AbstractNumberFunction(1, 1, "name") {
+          @Override
+          public Object childEvaluate(
+              Parser parser,
+              VariableResolver resolver,
+              String functionName,
+              List<Object> parameters) {
+            return "n" + parameters.get(0);
+          }
+        });
+
+    assertEquals(ValueType.UNKNOWN, type("name(1)"));
+    assertEquals("n123", parser.parseExpression("sum(name(1), 2, 3)").evaluate());
+    assertEquals(BigDecimal.ZERO, parser.parseExpression("eq(name(1), 1, 1)").evaluate());
+  }
+
+  public void testSpecializationStillChecksParameterCount() throws ParserException {
+    Expression xp = parser.parseExpression("hex(1, 2)").getTypedExpression(declarations);
+    try {
+      xp.evaluate(declarations);
+      fail();
+    } catch (ParameterException expected) {
+    }
+  }
+
+  public void testReplacedFunctionsAreCalled() throws ParserException {
+    Expression xp = parser.parseExpression("max(1, 2, 3)");
+    Expression typed = parser.parseExpression("max(n, 2, 3)").getTypedExpression(declarations);
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("max(1, 2, 3)");
+    assertEquals(1, specializations("max(1, 2, 3)", null).size());
+    assertEquals(new BigDecimal(3), xp.evaluate());
+    assertEquals(new BigDecimal(7), typed.evaluate(declarations));
+    assertEquals(List.of(new BigDecimal(3)), set.evaluate(new MapVariableResolver()));
+
+    parser.addFunction(
+        new AbstractNumberFunction(1, -1, "max") {
+          @Override
+          public Object childEvaluate(
+              Parser parser,
+              VariableResolver resolver,
+              String functionName,
+              List<Object> parameters) {
+            return BigDecimal.TEN;
+          }
+        });
+
+    assertEquals(BigDecimal.TEN, xp.evaluate());
+    assertEquals(BigDecimal.TEN, typed.evaluate(declarations));
+    assertEquals(List.of(BigDecimal.TEN), set.evaluate(new MapVariableResolver()));
+  }
+
+  public void testAdditionalChecksAreKept() {
+    Function plain = new Sum();
+    Function checked =
+        new Sum() {
+          @Override
+          public void checkParameters(String functionName, List<Object> parameters)
+              throws ParameterException {
+            super.checkParameters(functionName, parameters);
+          }
+        };
+    List<ValueType> numbers = List.of(ValueType.NUMBER, ValueType.NUMBER);
+
+    assertNotSame(plain, plain.getSpecialization(numbers));
+    assertSame(checked, checked.getSpecialization(numbers));
+    assertSame(plain, plain.getSpecialization(List.of(ValueType.NUMBER, ValueType.UNKNOWN)));
+  }
+
+  private ValueType type(String expression) throws ParserException {
+    return parser.parseExpression(expression).getResultType(declarations);
+  }
+
+  private Map<AST, Function> specializations(String expression, VariableResolver resolver)
+      throws ParserException {
+    return TypeInference.specialize(parser, parser.parseExpression(expression).getTree(), resolver);
+  }
+
+  private static class Sum extends AbstractNumberFunction {
+    Sum() {
+      super(1, -1, "sum");
+    }
+
+    @Override
+    public Object childEvaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters) {
+      return BigDecimal.ZERO;
+    }
+  }
+}
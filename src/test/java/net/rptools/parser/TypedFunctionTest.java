@@ -0,0 +1,155 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import antlr.collections.AST;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import net.rptools.parser.function.AbstractFunction;
+import net.rptools.parser.function.BinaryNumberFunction;
+import net.rptools.parser.function.UnaryNumberFunction;
+import net.rptools.parser.function.impl.Addition;
+import net.rptools.parser.function.impl.Floor;
+import net.rptools.parser.function.impl.Max;
+
+public class TypedFunctionTest extends TestCase {
+  private Parser parser;
+  private Average average;
+
+  @Override
+  protected void setUp() {
+    parser = new Parser();
+    average = new Average();
+    parser.addFunction(average);
+  }
+
+  public void testTypedEntryPointsAreUsed() throws ParserException {
+    assertEquals(new BigDecimal(3), parser.parseExpression("avg(2, 4)").evaluate());
+    assertEquals(new BigDecimal(5), parser.parseExpression("avg(5)").evaluate());
+    assertEquals(2, average.typedCalls);
+    assertEquals(0, average.listCalls);
+  }
+
+  public void testListIsUsedOtherwise() throws ParserException {
+    assertEquals(new BigDecimal(2), parser.parseExpression("avg(1, 2, 3)").evaluate());
+    assertEquals(new BigDecimal(2), parser.parseExpression("avg('1', 3)").evaluate());
+    assertEquals(0, average.typedCalls);
+    assertEquals(2, average.listCalls);
+  }
+
+  public void testExpressionSetUsesTypedEntryPoints() throws ParserException {
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("avg(2, 4)");
+    set.add("avg(x, '4')");
+
+    VariableResolver resolver = new MapVariableResolver();
+    resolver.setVariable("x", new BigDecimal(6));
+    assertEquals(List.of(new BigDecimal(3), new BigDecimal(5)), set.evaluate(resolver));
+    assertEquals(1, average.typedCalls);
+    assertEquals(1, average.listCalls);
+  }
+
+  public void testBuiltInsGiveSameResults() throws ParserException {
+    String[] sources = {
+      "1.50 + 2.5", "7 - 2.50", "-4", "1.5 * 4", "1 / 3", "max(2, 3)", "min(2)", "abs(-2)",
+      "ceil(1.2)", "floor(-1.2)", "2 ^ 3", "sqr(1.5)", "3 > 2", "2 <= 2", "2.0 == 2", "2 != 2",
+      "eqs(1, 1.0)", "neqs(1, 2)"
+    };
+
+    for (String source : sources) {
+      Expression xp = parser.parseExpression(source);
+      VariableResolver resolver = new MapVariableResolver();
+      // the typed path never sees parameters that are not numbers
+      Object typed = xp.evaluate(resolver);
+      Object viaList =
+          parser
+              .getFunction(xp.getTree().getText())
+              .evaluate(parser, resolver, xp.getTree().getText(), arguments(xp));
+      assertEquals(source, viaList, typed);
+    }
+  }
+
+  public void testAdditionKeepsScale() {
+    Addition addition = new Addition();
+    assertEquals("1100", addition.apply(new BigDecimal("1E+3"), new BigDecimal("1E+2")).toString());
+    assertEquals("3.50", addition.apply(new BigDecimal("1.25"), new BigDecimal("2.25")).toString());
+  }
+
+  public void testOverriddenEvaluationIsRespected() throws ParserException {
+    parser.addFunction(
+        new Floor() {
+          @Override
+          public Object childEvaluate(
+              Parser parser,
+              VariableResolver resolver,
+              String functionName,
+              List<Object> parameters) {
+            return BigDecimal.TEN;
+          }
+        });
+    parser.addFunction(
+        new Max() {
+          @Override
+          public BigDecimal apply(BigDecimal left, BigDecimal right) {
+            return left.add(right);
+          }
+        });
+
+    assertEquals(BigDecimal.TEN, parser.parseExpression("floor(1.5)").evaluate());
+    assertEquals(new BigDecimal(5), parser.parseExpression("max(2, 3)").evaluate());
+    // the list path folds over apply
+    assertEquals(new BigDecimal(9), parser.parseExpression("max(2, 3, 4)").evaluate());
+  }
+
+  private List<Object> arguments(Expression xp) throws ParserException {
+    List<Object> arguments = new ArrayList<>();
+    for (AST child = xp.getTree().getFirstChild(); child != null; child = child.getNextSibling()) {
+      arguments.add(parser.getEvaluationTreeParser().evaluate(child, new MapVariableResolver()));
+    }
+    return arguments;
+  }
+
+  /** Averages its arguments and counts which entry point was used. */
+  private static class Average extends AbstractFunction
+      implements UnaryNumberFunction, BinaryNumberFunction {
+    private int typedCalls;
+    private int listCalls;
+
+    Average() {
+      super(1, -1, "avg");
+    }
+
+    @Override
+    public Object childEvaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters) {
+      listCalls++;
+      BigDecimal total = BigDecimal.ZERO;
+      for (Object param : parameters) total = total.add(new BigDecimal(param.toString()));
+      return total.divide(new BigDecimal(parameters.size()));
+    }
+
+    public BigDecimal apply(BigDecimal value) {
+      typedCalls++;
+      return value;
+    }
+
+    public BigDecimal apply(BigDecimal left, BigDecimal right) {
+      typedCalls++;
+      return left.add(right).divide(new BigDecimal(2));
+    }
+  }
+}
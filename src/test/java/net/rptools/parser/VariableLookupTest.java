@@ -0,0 +1,195 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+import net.rptools.parser.function.AbstractFunction;
+
+public class VariableLookupTest extends TestCase {
+  private Parser parser;
+  private CountingResolver resolver;
+
+  @Override
+  protected void setUp() throws ParserException {
+    parser = new Parser();
+    parser.addFunction(new SetY());
+    resolver = new CountingResolver();
+    resolver.setVariable("x", new BigDecimal(3));
+    resolver.setVariable("y", new BigDecimal(4));
+  }
+
+  public void testSingleCallPerRead() throws ParserException {
+    assertEquals(
+        new BigDecimal(20), parser.parseExpression("x * x + x + y + ?y").evaluate(resolver));
+
+    assertEquals(List.of("x", "x", "x", "y", "y"), resolver.lookups);
+  }
+
+  public void testDefaultLookup() throws ParserException {
+    VariableResolver observable = new ObservableVariableResolver(resolver);
+    assertEquals(new BigDecimal(3), observable.lookupVariable("X", VariableModifiers.None));
+    assertSame(VariableResolver.UNDEFINED, observable.lookupVariable("z", VariableModifiers.None));
+
+    resolver.setVariable("n", null);
+    assertNull(resolver.lookupVariable("n", VariableModifiers.None));
+  }
+
+  public void testResolvesEachVariableOnce() throws ParserException {
+    parser.getEvaluationTreeParser().setResolvingVariablesOnce(true);
+
+    assertEquals(
+        new BigDecimal(23), parser.parseExpression("x * x + x + y + ?y + x").evaluate(resolver));
+    assertEquals(List.of("x", "y", "y"), resolver.lookups);
+  }
+
+  public void testAssignmentRereadsVariable() throws ParserException {
+    parser.getEvaluationTreeParser().setResolvingVariablesOnce(true);
+
+    assertEquals(
+        new BigDecimal(23),
+        parser.parseExpression("x + set('X', x * 2) + x + y + y").evaluate(resolver));
+    assertEquals(List.of("x", "x", "y"), resolver.lookups);
+  }
+
+  public void testNonDeterministicCallRereadsVariables() throws ParserException {
+    parser.getEvaluationTreeParser().setResolvingVariablesOnce(true);
+
+    assertEquals(new BigDecimal(14), parser.parseExpression("y + sety() + y").evaluate(resolver));
+    assertEquals(List.of("y", "y"), resolver.lookups);
+  }
+
+  public void testUndefinedVariable() throws ParserException {
+    parser.getEvaluationTreeParser().setResolvingVariablesOnce(true);
+
+    try {
+      parser.parseExpression("x + z").evaluate(resolver);
+      fail();
+    } catch (ParserException expected) {
+      assertEquals(ErrorCode.UNDEFINED_VARIABLE, expected.getErrorCode());
+    }
+  }
+
+  public void testPrefetchesReferencedVariables() throws ParserException {
+    assertEquals(
+        new BigDecimal(13), parser.parseExpression("x + Y + set('z', ?x) + x").evaluate(resolver));
+
+    assertEquals(List.of(List.of("x", "Y"), List.of("x")), resolver.prefetches);
+    assertEquals(List.of("x", "Y", "x", "x"), resolver.lookups);
+  }
+
+  public void testExpressionSetPrefetchesOnce() throws ParserException {
+    ExpressionSet set = new ExpressionSet(parser);
+    set.add("x + 1");
+    set.add("y * ?p");
+
+    resolver.setVariable("p", BigDecimal.ONE);
+    set.evaluate(resolver);
+    assertEquals(List.of(List.of("x", "y"), List.of("p")), resolver.prefetches);
+  }
+
+  public void testPrefetchIncludesLiteralEvalArguments() throws ParserException {
+    parser.addExtraFunctions();
+    resolver.setVariable("a", BigDecimal.ONE);
+    resolver.setVariable("b", BigDecimal.ONE);
+    resolver.setVariable("c", BigDecimal.ONE);
+
+    parser.parseExpression("?a + eval('?b + x', \"eval('?a + ?c')\")").evaluate(resolver);
+
+    assertEquals(List.of("x"), resolver.prefetches.get(0));
+    assertEquals(List.of("a", "b", "c"), resolver.prefetches.get(1));
+    // the evaluations eval starts have nothing left to prefetch
+    assertEquals(2, resolver.prefetches.size());
+  }
+
+  public void testEvalOfComputedTextPrefetchesOnlyNewNames() throws ParserException {
+    parser.addExtraFunctions();
+    resolver.setVariable("a", BigDecimal.ONE);
+    resolver.setVariable("b", BigDecimal.ONE);
+    resolver.setVariable("text", "?a + ?b + x");
+
+    parser.parseExpression("?a + eval(text)").evaluate(resolver);
+
+    assertEquals(
+        List.of(List.of("text"), List.of("a"), List.of("x"), List.of("b")), resolver.prefetches);
+  }
+
+  public void testFeaturesAreSharedBySource() throws ParserException {
+    Expression first = parser.parseExpression("x + y");
+    Expression second = parser.parseExpression("x + y");
+    ExpressionFeatures features = first.getFeatures();
+    assertSame(features, second.getFeatures());
+
+    // they depend on the functions, so are found again when those change
+    parser.addFunction(new SetY());
+    assertNotSame(features, first.getFeatures());
+    assertSame(first.getFeatures(), parser.parseExpression("x + y").getFeatures());
+  }
+
+  public void testEvalDoesNotParseLiteralsAgainForFeatures() throws ParserException {
+    List<String> parsed = new ArrayList<>();
+    Parser counting =
+        new Parser() {
+          @Override
+          public Expression parseExpression(String expression) throws ParserException {
+            parsed.add(expression);
+            return super.parseExpression(expression);
+          }
+        };
+    Expression xp = counting.parseExpression("eval('eval(\"x + 1\")')");
+    xp.evaluate(resolver);
+    parsed.clear();
+
+    assertEquals(new BigDecimal(4), xp.evaluate(resolver));
+    // only eval itself parses its strings
+    assertEquals(List.of("eval(\"x + 1\")", "x + 1"), parsed);
+  }
+
+  /** Sets y to 10, without saying so in the tree. */
+  private static class SetY extends AbstractFunction {
+    SetY() {
+      super(0, 0, false, "sety");
+    }
+
+    @Override
+    public Object childEvaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters)
+        throws ParserException {
+      resolver.setVariable("y", BigDecimal.TEN);
+      return BigDecimal.ZERO;
+    }
+  }
+
+  /** Records every variable looked up or prefetched. */
+  private static class CountingResolver extends MapVariableResolver {
+    private final List<String> lookups = new ArrayList<>();
+    private final List<List<String>> prefetches = new ArrayList<>();
+
+    @Override
+    public void prefetch(Set<String> names, Set<String> promptNames) {
+      prefetches.add(List.copyOf(names));
+      prefetches.add(List.copyOf(promptNames));
+    }
+
+    @Override
+    public Object lookupVariable(String name, VariableModifiers vType) throws ParserException {
+      lookups.add(name);
+      return super.lookupVariable(name, vType);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser.function;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import net.rptools.parser.BoundedCache.EvictionPolicy;
+import net.rptools.parser.CacheStatistics;
+import net.rptools.parser.Expression;
+import net.rptools.parser.MapVariableResolver;
+import net.rptools.parser.Parser;
+import net.rptools.parser.ParserException;
+import net.rptools.parser.VariableResolver;
+import net.rptools.parser.function.impl.Assignment;
+
+public class MemoizedFunctionTest extends TestCase {
+  private Parser parser;
+  private SlowFunction slow;
+  private MemoizedFunction memoized;
+
+  @Override
+  protected void setUp() {
+    parser = new Parser();
+    slow = new SlowFunction();
+    memoized = parser.addMemoizedFunction(slow, 100);
+  }
+
+  public void testReusesResultsWithinAndAcrossEvaluations() throws ParserException {
+    Expression xp = parser.parseExpression("lookup(1, 2) + lookup(1, 1 + 1) * lookup(2, 1)");
+
+    assertEquals(new BigDecimal(12), xp.evaluate());
+    assertEquals(new BigDecimal(12), xp.evaluate());
+    assertEquals(2, slow.calls.get());
+
+    CacheStatistics statistics = memoized.getStatistics();
+    assertEquals(4, statistics.getHitCount());
+    assertEquals(2, statistics.getMissCount());
+  }
+
+  public void testArgumentsAreCopied() throws ParserException {
+    VariableResolver resolver = new MapVariableResolver();
+    for (int i = 0; i < 3; i++) {
+      resolver.setVariable("x", new BigDecimal(i));
+      assertEquals(
+          new BigDecimal(i + 1), parser.parseExpression("lookup(x, 1)").evaluate(resolver));
+    }
+    assertEquals(3, slow.calls.get());
+  }
+
+  public void testFirstInFirstOut() throws ParserException {
+    slow = new SlowFunction();
+    memoized = parser.addMemoizedFunction(slow, 2, EvictionPolicy.FIRST_IN_FIRST_OUT);
+
+    for (String args : List.of("1, 1", "2, 2", "1, 1", "3, 3", "1, 1"))
+      parser.parseExpression("lookup(" + args + ")").evaluate();
+
+    assertEquals(4, slow.calls.get());
+    assertEquals(2, memoized.getStatistics().getEvictionCount());
+  }
+
+  public void testErrorsAreNotRemembered() throws ParserException {
+    Expression xp = parser.parseExpression("lookup(1)");
+    for (int i = 0; i < 2; i++) {
+      try {
+        xp.evaluate();
+        fail();
+      } catch (ParameterException expected) {
+      }
+    }
+    assertEquals(0, memoized.getStatistics().getSize());
+  }
+
+  public void testRejectsFunctionsThatAreNotDeterministic() {
+    try {
+      new MemoizedFunction(new Assignment(), 10, EvictionPolicy.LEAST_RECENTLY_USED);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testSharedBetweenThreads() throws Exception {
+    Expression xp = parser.parseExpression("lookup(x, 1)");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Object>> results = new ArrayList<>();
+      for (int i = 0; i < 400; i++) {
+        int x = i % 10;
+        results.add(
+            executor.submit(
+                () -> {
+                  VariableResolver resolver = new MapVariableResolver();
+                  resolver.setVariable("x", new BigDecimal(x));
+                  return xp.evaluate(resolver);
+                }));
+      }
+      for (int i = 0; i < results.size(); i++)
+        assertEquals(new BigDecimal(i % 10 + 1), results.get(i).get());
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(10, memoized.getStatistics().getSize());
+    assertEquals(400, memoized.getStatistics().getRequestCount());
+  }
+
+  /** Adds its two arguments and counts how often it is called. */
+  private static class SlowFunction extends AbstractNumberFunction {
+    private final AtomicInteger calls = new AtomicInteger();
+
+    SlowFunction() {
+      super(2, 2, "lookup");
+    }
+
+    @Override
+    public Object childEvaluate(
+        Parser parser, VariableResolver resolver, String functionName, List<Object> parameters) {
+      calls.incrementAndGet();
+      return ((BigDecimal) parameters.get(0)).add((BigDecimal) parameters.get(1));
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * RPTools Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.parser.transform;
+
+import junit.framework.TestCase;
+import net.rptools.parser.Parser;
+import net.rptools.parser.ParserException;
+
+public class FusedRegexpStringTransformerTest extends TestCase {
+
+  public void testSimpleReplacement() throws ParserException {
+    Parser p = new Parser();
+
+    p.addTransformer(
+        new FusedRegexpStringTransformer(new String[] {"foo", "baz"}, new String[] {"bar", "qux"}));
+
+    assertEquals("10 + bar + qux", p.parseExpression("10 + foo + baz").format());
+    assertEquals("10 + bard + 17", p.parseExpression("10 + food + 17").format());
+  }
+
+  public void testReplacementWithSubstitutions() throws ParserException {
+    Parser p = new Parser();
+
+    p.addTransformer(
+        new FusedRegexpStringTransformer(
+            new String[][] {
+              {"(\\d+)d(\\d+)", "roll($1, $2)"}, {"(\\d+)\\s*\\^\\s*(\\d*)", "pow($1, $2)"}
+            }));
+
+    assertEquals("pow(3, 7)", p.parseExpression("3 ^ 7").format());
+    assertEquals("1 + roll(2, 6) + pow(3, 7)", p.parseExpression("1 + 2d6 + 3^7").format());
+  }
+
+  public void testFirstRuleWinsAndOutputIsNotRescanned() {
+    Transformer t =
+        new FusedRegexpStringTransformer(
+            new String[] {"ab", "a", "b"}, new String[] {"b", "x", "y"});
+
+    assertEquals("b x y", t.transform("ab a b"));
+  }
+
+  public void testBackReferencesAreLocalToRule() {
+    Transformer t =
+        new FusedRegexpStringTransformer(
+            new String[] {"(x)(y)", "(\\w)\\1"}, new String[] {"$2$1", "<$1>"});
+
+    assertEquals("yx <a> c", t.transform("xy aa c"));
+  }
+
+  public void testEscapesAndNamedGroups() {
+    Transformer t =
+        new FusedRegexpStringTransformer(
+            new String[] {"(?<num>\\d+)%", "\\Q(1)\\E"}, new String[] {"${num}\\$", "one"});
+
+    assertEquals("50$ of one", t.transform("50% of (1)"));
+  }
+
+  public void testMatchesSequentialTransformerForIndependentRules() {
+    String[][] rules = new String[200][];
+    for (int i = 0; i < rules.length; i++) rules[i] = new String[] {"rule" + i + "\\b", "r" + i};
+
+    String input = "rule1 + rule199 * rule42 - rule0";
+    assertEquals(
+        new RegexpStringTransformer(rules).transform(input),
+        new FusedRegexpStringTransformer(rules).transform(input));
+  }
+}
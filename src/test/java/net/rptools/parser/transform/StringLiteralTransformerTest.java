@@ -37,4 +37,59 @@ public class StringLiteralTransformerTest extends TestCase {
             .getReplaceTransformer()
             .transform(transformer.getRemoveTransformer().transform(input)));
   }
+
+  public void testRemoveStringsPerCall() {
+    StringLiteralTransformer.Literals first = StringLiteralTransformer.removeStrings("'a' + 'b'");
+    StringLiteralTransformer.Literals second = StringLiteralTransformer.removeStrings("\"c\"");
+
+    assertEquals(
+        "StringLiteralTransformer0TOKEN + StringLiteralTransformer1TOKEN", first.getText());
+    assertEquals("StringLiteralTransformer0TOKEN", second.getText());
+    assertEquals(2, first.size());
+
+    assertEquals("'a' + 'b'", first.restore(first.getText()));
+    assertEquals("\"c\"", second.restore(second.getText()));
+  }
+
+  public void testRestoreLeavesUnknownTokensAlone() {
+    StringLiteralTransformer.Literals literals = StringLiteralTransformer.removeStrings("'$1\\'");
+
+    assertEquals(
+        "'$1\\' StringLiteralTransformer7TOKEN StringLiteralTransformer",
+        literals.restore(
+            literals.getText() + " StringLiteralTransformer7TOKEN StringLiteralTransformer"));
+  }
+
+  public void testRestoreOnlyReadsAsciiDigits() {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 1600; i++) input.append("'").append(i).append("' ");
+    StringLiteralTransformer.Literals literals =
+        StringLiteralTransformer.removeStrings(input.toString());
+
+    // an Arabic-Indic zero is a digit to Character.isDigit, but not a token index
+    String arabicZero = "StringLiteralTransformer\u0660TOKEN";
+    assertEquals(arabicZero, literals.restore(arabicZero));
+    assertEquals("'1584'", literals.restore("StringLiteralTransformer1584TOKEN"));
+  }
+
+  public void testRemoveStringsConcurrently() throws InterruptedException {
+    Thread[] threads = new Thread[8];
+    boolean[] failed = new boolean[1];
+    for (int t = 0; t < threads.length; t++) {
+      final String input = "x + 'thread " + t + "' + \"" + t + "\"";
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 1000; i++) {
+                  StringLiteralTransformer.Literals literals =
+                      StringLiteralTransformer.removeStrings(input);
+                  if (!input.equals(literals.restore(literals.getText()))) failed[0] = true;
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) thread.join();
+
+    assertFalse(failed[0]);
+  }
 }